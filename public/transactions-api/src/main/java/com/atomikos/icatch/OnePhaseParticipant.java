@@ -0,0 +1,22 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch;
+
+
+/**
+ * A participant that can only commit in one phase, like a non-XA resource.
+ * If a coordinator that decides on commit has exactly one such participant then
+ * it is committed as the last resource: the other participants are prepared
+ * first, and the one-phase commit of this participant decides the outcome.
+ * Otherwise, it is prepared like any other participant.
+ */
+
+public interface OnePhaseParticipant extends Participant
+{
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.event.log;
+
+import com.atomikos.icatch.event.Event;
+
+/**
+ * Signals that the transaction log decided to compact itself by writing a
+ * checkpoint, along with the reason and the state of the log at that time.
+ */
+public class LogCheckpointEvent extends Event {
+
+	public enum Trigger {
+		/**
+		 * The number of records written since the last checkpoint reached the checkpoint interval.
+		 */
+		PUTS,
+		LOG_SIZE,
+		DEAD_RATIO,
+		AGE
+	}
+
+	public final Trigger trigger;
+
+	/**
+	 * The number of records in the current log version, including superseded and final ones.
+	 */
+	public final long recordsInLog;
+
+	public final long liveRecords;
+
+	/**
+	 * The size of the current log version in bytes, or -1 if not known.
+	 */
+	public final long logSize;
+
+	public final long millisSinceLastCheckpoint;
+
+	public LogCheckpointEvent(Trigger trigger, long recordsInLog, long liveRecords, long logSize, long millisSinceLastCheckpoint) {
+		this.trigger = trigger;
+		this.recordsInLog = recordsInLog;
+		this.liveRecords = liveRecords;
+		this.logSize = logSize;
+		this.millisSinceLastCheckpoint = millisSinceLastCheckpoint;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer ret = new StringBuffer();
+		ret.append("Log checkpoint triggered by ").append(trigger).
+			append(": ").append(liveRecords).append(" live of ").append(recordsInLog).append(" records, ").
+			append(logSize).append(" bytes, ").
+			append(millisSinceLastCheckpoint).append(" ms since the last checkpoint");
+		return ret.toString();
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.event.transaction;
+
+import com.atomikos.icatch.event.Event;
+
+/**
+ * Signals that a new transaction found max_actives reached: it either waited
+ * for a place, or was refused. Transactions that start right away raise no
+ * such event, so these are the data to size max_actives with.
+ */
+public class TransactionAdmissionEvent extends Event {
+
+	/**
+	 * True if the transaction could start after all, false if it was refused.
+	 */
+	public final boolean admitted;
+
+	/**
+	 * True for a transaction imported from another process, false for a root
+	 * transaction.
+	 */
+	public final boolean imported;
+
+	public final long waitMillis;
+
+	/**
+	 * The number of other transactions that were waiting for a place at the
+	 * end of the wait.
+	 */
+	public final int queueDepth;
+
+	public final int maxActives;
+
+	public TransactionAdmissionEvent(boolean admitted, boolean imported, long waitMillis, int queueDepth, int maxActives) {
+		this.admitted = admitted;
+		this.imported = imported;
+		this.waitMillis = waitMillis;
+		this.queueDepth = queueDepth;
+		this.maxActives = maxActives;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer ret = new StringBuffer();
+		ret.append(imported ? "Imported" : "Root").append(" transaction ").
+			append(admitted ? "admitted" : "refused").append(" after waiting ").append(waitMillis).
+			append(" ms for max_actives ").append(maxActives).append(", with ").
+			append(queueDepth).append(" others waiting");
+		return ret.toString();
+	}
+}
@@ -22,14 +22,25 @@ public final class ConfigProperties {
 	public static final String ENABLE_LOGGING_PROPERTY_NAME = "com.atomikos.icatch.enable_logging";
 	public static final String MAX_TIMEOUT_PROPERTY_NAME = "com.atomikos.icatch.max_timeout";
 	public static final String MAX_ACTIVES_PROPERTY_NAME = "com.atomikos.icatch.max_actives";
+	public static final String MAX_ACTIVES_WAIT_TIMEOUT_PROPERTY_NAME = "com.atomikos.icatch.max_actives_wait_timeout";
+	public static final String MAX_ACTIVES_PRIORITIZE_IMPORTED_PROPERTY_NAME = "com.atomikos.icatch.max_actives_prioritize_imported";
 	public static final String FORCE_SHUTDOWN_ON_VM_EXIT_PROPERTY_NAME = "com.atomikos.icatch.force_shutdown_on_vm_exit";
 	public static final String FILE_PATH_PROPERTY_NAME = "com.atomikos.icatch.file";
 	public static final String CHECKPOINT_INTERVAL_PROPERTY_NAME = "com.atomikos.icatch.checkpoint_interval";
+	public static final String CHECKPOINT_MAX_LOG_SIZE_PROPERTY_NAME = "com.atomikos.icatch.checkpoint_max_log_size";
+	public static final String CHECKPOINT_MAX_DEAD_RATIO_PROPERTY_NAME = "com.atomikos.icatch.checkpoint_max_dead_ratio";
+	public static final String CHECKPOINT_DEAD_RATIO_MIN_RECORDS_PROPERTY_NAME = "com.atomikos.icatch.checkpoint_dead_ratio_min_records";
+	public static final String CHECKPOINT_MAX_AGE_PROPERTY_NAME = "com.atomikos.icatch.checkpoint_max_age";
 
 	public static final String FORGET_ORPHANED_LOG_ENTRIES_DELAY_PROPERTY_NAME = "com.atomikos.icatch.forget_orphaned_log_entries_delay";
 	public static final String OLTP_MAX_RETRIES_PROPERTY_NAME = "com.atomikos.icatch.oltp_max_retries";
 	public static final String OLTP_RETRY_INTERVAL_PROPERTY_NAME = "com.atomikos.icatch.oltp_retry_interval";
+	public static final String OLTP_MAX_RETRY_INTERVAL_PROPERTY_NAME = "com.atomikos.icatch.oltp_max_retry_interval";
+	public static final String OLTP_MAX_CONCURRENT_RETRIES_PROPERTY_NAME = "com.atomikos.icatch.oltp_max_concurrent_retries";
 	public static final String RECOVERY_DELAY_PROPERTY_NAME = "com.atomikos.icatch.recovery_delay";
+	public static final String THREADED_2PC_PROPERTY_NAME = "com.atomikos.icatch.threaded_2pc";
+	public static final String THREADED_2PC_MAX_THREADS_PROPERTY_NAME = "com.atomikos.icatch.threaded_2pc_max_threads";
+	public static final String ASYNC_COMMIT_MAX_THREADS_PROPERTY_NAME = "com.atomikos.icatch.async_commit_max_threads";
 
 	public static final String ALLOW_SUBTRANSACTIONS_PROPERTY_NAME = "com.atomikos.icatch.allow_subtransactions";
     public static final String THROW_ON_HEURISTIC_PROPERTY_NAME = "com.atomikos.icatch.throw_on_heuristic";
@@ -38,6 +49,29 @@ public final class ConfigProperties {
     public static final String LOG_LOCK_ACQUISITION_MAX_ATTEMPTS = "com.atomikos.icatch.log_lock_acquisition_max_attempts";
     public static final String LOG_LOCK_ACQUISITION_RETRY_DELAY = "com.atomikos.icatch.log_lock_acquisition_retry_delay";
 
+    public static final String ENABLE_LOG_GROUP_COMMIT_PROPERTY_NAME = "com.atomikos.icatch.enable_log_group_commit";
+    public static final String LOG_GROUP_COMMIT_MAX_DELAY_PROPERTY_NAME = "com.atomikos.icatch.log_group_commit_max_delay";
+    public static final String LOG_GROUP_COMMIT_MAX_BATCH_SIZE_PROPERTY_NAME = "com.atomikos.icatch.log_group_commit_max_batch_size";
+
+    public static final String LOG_STORAGE_PROPERTY_NAME = "com.atomikos.icatch.log_storage";
+    public static final String LOG_SEGMENT_SIZE_PROPERTY_NAME = "com.atomikos.icatch.log_segment_size";
+    public static final String LOG_STORAGE_FILE = "file";
+    public static final String LOG_STORAGE_MAPPED_SEGMENTS = "mapped_segments";
+
+    public static final String LOG_LAZY_FLUSH_INTERVAL_PROPERTY_NAME = "com.atomikos.icatch.log_lazy_flush_interval";
+
+    public static final String LOG_SYNC_PROPERTY_NAME = "com.atomikos.icatch.log_sync";
+    public static final String LOG_SYNC_FORCE = "force";
+    public static final String LOG_SYNC_DSYNC = "dsync";
+    public static final String LOG_SYNC_NONE_FOR_TESTING = "none_for_testing";
+
+    public static final String LOG_SHARDS_PROPERTY_NAME = "com.atomikos.icatch.log_shards";
+
+    public static final String JDBC_LOG_URL_PROPERTY_NAME = "com.atomikos.icatch.jdbc_log_url";
+    public static final String JDBC_LOG_USER_PROPERTY_NAME = "com.atomikos.icatch.jdbc_log_user";
+    public static final String JDBC_LOG_PASSWORD_PROPERTY_NAME = "com.atomikos.icatch.jdbc_log_password";
+    public static final String JDBC_LOG_TABLE_PROPERTY_NAME = "com.atomikos.icatch.jdbc_log_table";
+
 	
 	/**
 	 * Replace ${...} sequence with the referenced value from the given properties or 
@@ -201,11 +235,53 @@ public final class ConfigProperties {
 	public int getMaxActives() {
 		return getAsInt(MAX_ACTIVES_PROPERTY_NAME);
 	}
+
+	/**
+	 * @return The max time (in millis) that a new transaction waits for max_actives to allow it - 0 to fail right away.
+	 */
+	public long getMaxActivesWaitTimeout() {
+		return getAsLong(MAX_ACTIVES_WAIT_TIMEOUT_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return True if imported transactions that wait for max_actives go before waiting root transactions.
+	 */
+	public boolean getMaxActivesPrioritizeImported() {
+		return getAsBoolean(MAX_ACTIVES_PRIORITIZE_IMPORTED_PROPERTY_NAME);
+	}
 	
 	public long getCheckpointInterval(){
 		return getAsLong(CHECKPOINT_INTERVAL_PROPERTY_NAME);
 	}
 
+	/**
+	 * @return The log size (in bytes) that triggers a checkpoint - 0 to disable.
+	 */
+	public long getCheckpointMaxLogSize() {
+		return getAsLong(CHECKPOINT_MAX_LOG_SIZE_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The fraction of superseded or final records in the log above which a checkpoint is triggered - 1 to disable.
+	 */
+	public double getCheckpointMaxDeadRatio() {
+		return Double.valueOf(getProperty(CHECKPOINT_MAX_DEAD_RATIO_PROPERTY_NAME));
+	}
+
+	/**
+	 * @return The number of records the log must have before the dead ratio is considered at all.
+	 */
+	public long getCheckpointDeadRatioMinRecords() {
+		return getAsLong(CHECKPOINT_DEAD_RATIO_MIN_RECORDS_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The max time (in millis) between checkpoints of a log that has been written to - 0 to disable.
+	 */
+	public long getCheckpointMaxAge() {
+		return getAsLong(CHECKPOINT_MAX_AGE_PROPERTY_NAME);
+	}
+
 	public void applyUserSpecificProperties(Properties userSpecificProperties) {
 		Enumeration<?> names = userSpecificProperties.propertyNames();
 		while (names.hasMoreElements()) {
@@ -248,10 +324,47 @@ public final class ConfigProperties {
 		return getAsInt(OLTP_RETRY_INTERVAL_PROPERTY_NAME);
 	}
 
+	/**
+	 * @return The max delay between retries: from the oltp_retry_interval on, the delay doubles after each attempt up to this value.
+	 */
+	public long getOltpMaxRetryInterval() {
+		return getAsLong(OLTP_MAX_RETRY_INTERVAL_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The max number of retries that may be in progress at the same time against any one resource.
+	 */
+	public int getOltpMaxConcurrentRetries() {
+		return getAsInt(OLTP_MAX_CONCURRENT_RETRIES_PROPERTY_NAME);
+	}
+
 	public long getRecoveryDelay() {
 		return getAsLong(RECOVERY_DELAY_PROPERTY_NAME);
 	}
 
+	/**
+	 * @return True if prepare, commit and rollback should be sent to all participants in parallel.
+	 */
+	public boolean getThreaded2pc() {
+		return getAsBoolean(THREADED_2PC_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The max number of threads for threaded 2PC: if they are all busy then the
+	 * transaction's own thread sends its messages instead.
+	 */
+	public int getThreaded2pcMaxThreads() {
+		return getAsInt(THREADED_2PC_MAX_THREADS_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The max number of threads for asynchronous commit and rollback: if they are all busy then
+	 * new requests wait in line.
+	 */
+	public int getAsyncCommitMaxThreads() {
+		return getAsInt(ASYNC_COMMIT_MAX_THREADS_PROPERTY_NAME);
+	}
+
 	public boolean getAllowSubTransactions() {
 		return getAsBoolean(ALLOW_SUBTRANSACTIONS_PROPERTY_NAME);
 	}
@@ -268,6 +381,73 @@ public final class ConfigProperties {
 		return getAsLong(LOG_LOCK_ACQUISITION_RETRY_DELAY);
 	}
 
+	public boolean getEnableLogGroupCommit() {
+		return getAsBoolean(ENABLE_LOG_GROUP_COMMIT_PROPERTY_NAME);
+	}
+
+	public long getLogGroupCommitMaxDelay() {
+		return getAsLong(LOG_GROUP_COMMIT_MAX_DELAY_PROPERTY_NAME);
+	}
+
+	public int getLogGroupCommitMaxBatchSize() {
+		return getAsInt(LOG_GROUP_COMMIT_MAX_BATCH_SIZE_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return Either {@link #LOG_STORAGE_FILE} or {@link #LOG_STORAGE_MAPPED_SEGMENTS}.
+	 */
+	public String getLogStorage() {
+		return getProperty(LOG_STORAGE_PROPERTY_NAME);
+	}
+
+	public long getLogSegmentSize() {
+		return getAsLong(LOG_SEGMENT_SIZE_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The max time (in millis) that log records which do not need a forced write of their own may remain unforced.
+	 */
+	public long getLogLazyFlushInterval() {
+		return getAsLong(LOG_LAZY_FLUSH_INTERVAL_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return How log writes are made durable: {@link #LOG_SYNC_FORCE} (an explicit force after writing),
+	 * {@link #LOG_SYNC_DSYNC} (each write is synchronous) or {@link #LOG_SYNC_NONE_FOR_TESTING} (not at all - unsafe).
+	 */
+	public String getLogSync() {
+		return getProperty(LOG_SYNC_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The number of independent log files to spread the records over.
+	 */
+	public int getLogShards() {
+		return getAsInt(LOG_SHARDS_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The JDBC URL of the database for the JDBC log - required if that log is used.
+	 */
+	public String getJdbcLogUrl() {
+		return getProperty(JDBC_LOG_URL_PROPERTY_NAME);
+	}
+
+	public String getJdbcLogUser() {
+		return getProperty(JDBC_LOG_USER_PROPERTY_NAME);
+	}
+
+	public String getJdbcLogPassword() {
+		return getProperty(JDBC_LOG_PASSWORD_PROPERTY_NAME);
+	}
+
+	/**
+	 * @return The table of the JDBC log: one per transaction manager.
+	 */
+	public String getJdbcLogTable() {
+		return getProperty(JDBC_LOG_TABLE_PROPERTY_NAME);
+	}
+
     public String getJvmId() {
         return getProperty(JVM_ID_PROPERTY_NAME);
 
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.atomikos.recovery.PendingTransactionRecord.AncestorPredicate;
+
+/**
+ * Parent to children index over a snapshot of records, so lineage queries
+ * can be answered in time linear to the number of records involved.
+ * Build it once and reuse it for all queries on the same records.
+ * <p>
+ * The index is a snapshot: removing records from the original collection
+ * does not update it.
+ */
+
+public class LineageIndex {
+
+	private final Map<String, List<PendingTransactionRecord>> childrenBySuperiorId;
+
+	private final Collection<PendingTransactionRecord> records;
+
+	public LineageIndex(Collection<PendingTransactionRecord> records) {
+		this.records = new ArrayList<>(records);
+		childrenBySuperiorId = new HashMap<>();
+		for (PendingTransactionRecord record : records) {
+			if (record.superiorId != null) {
+				List<PendingTransactionRecord> children = childrenBySuperiorId.get(record.superiorId);
+				if (children == null) {
+					children = new ArrayList<>();
+					childrenBySuperiorId.put(record.superiorId, children);
+				}
+				children.add(record);
+			}
+		}
+	}
+
+	/**
+	 * @param predicate
+	 * @return A collection of all descendants of records that match the given predicate, including the matching records.
+	 */
+	public Collection<PendingTransactionRecord> collectLineages(AncestorPredicate predicate) {
+		Set<PendingTransactionRecord> results = new HashSet<>();
+		for (PendingTransactionRecord record : records) {
+			if (predicate.holdsFor(record)) {
+				results.add(record);
+			}
+		}
+		// copy: results also serves as the set of visited records
+		collectDescendants(new ArrayList<>(results), results);
+		return results;
+	}
+
+	/**
+	 * @return All descendants of the given record, not including the record itself.
+	 */
+	public Collection<PendingTransactionRecord> findAllDescendants(PendingTransactionRecord entry) {
+		Set<PendingTransactionRecord> results = new HashSet<>();
+		collectDescendants(Collections.singleton(entry), results);
+		results.remove(entry); // in case of cycles
+		return results;
+	}
+
+	/**
+	 * Removes all descendants of the given record from the target collection, in one pass over the target.
+	 */
+	public void removeAllDescendants(PendingTransactionRecord entry, Collection<PendingTransactionRecord> target) {
+		Collection<PendingTransactionRecord> descendants = findAllDescendants(entry);
+		if (!descendants.isEmpty()) {
+			target.removeIf(descendants::contains);
+		}
+	}
+
+	private void collectDescendants(Collection<PendingTransactionRecord> ancestors, Set<PendingTransactionRecord> collector) {
+		Deque<PendingTransactionRecord> todo = new ArrayDeque<>(ancestors);
+		while (!todo.isEmpty()) {
+			List<PendingTransactionRecord> children = childrenBySuperiorId.get(todo.poll().id);
+			if (children != null) {
+				for (PendingTransactionRecord child : children) {
+					if (collector.add(child)) {
+						todo.add(child);
+					}
+				}
+			}
+		}
+	}
+}
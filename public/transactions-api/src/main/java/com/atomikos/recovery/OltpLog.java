@@ -8,6 +8,8 @@
 
 package com.atomikos.recovery;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
  /**
   * Handle to the transaction logs for writing during transaction processing.
@@ -15,6 +17,25 @@ package com.atomikos.recovery;
 public interface OltpLog {
 
 	void write(PendingTransactionRecord pendingTransactionRecord) throws LogWriteException;
+
+	/**
+	 * Like {@link #write(PendingTransactionRecord)} but without waiting until the record is durable,
+	 * so implementations can batch writes. The default implementation simply writes synchronously.
+	 * <p>
+	 * Dependent actions on the returned stage should not block: they may run on the log's writer thread.
+	 *
+	 * @return A stage that completes when the record is durable, or exceptionally with a {@link LogWriteException}.
+	 */
+	default CompletionStage<Void> writeAsync(PendingTransactionRecord pendingTransactionRecord) {
+		CompletableFuture<Void> ret = new CompletableFuture<Void>();
+		try {
+			write(pendingTransactionRecord);
+			ret.complete(null);
+		} catch (LogWriteException e) {
+			ret.completeExceptionally(e);
+		}
+		return ret;
+	}
 	
 	void close();
 }
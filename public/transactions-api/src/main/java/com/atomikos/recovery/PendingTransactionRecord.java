@@ -9,9 +9,7 @@
 package com.atomikos.recovery;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 
 public class PendingTransactionRecord {
 	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
@@ -83,16 +81,11 @@ public class PendingTransactionRecord {
 	}
 	
 	public static Collection<PendingTransactionRecord> findAllDescendants(PendingTransactionRecord entry, Collection<PendingTransactionRecord> collection) {
-	    return collectLineages(
-	            (PendingTransactionRecord r)-> entry.id.equals(r.superiorId), 
-	            collection);
+	    return new LineageIndex(collection).findAllDescendants(entry);
     }
 	
     public static void removeAllDescendants(PendingTransactionRecord entry, Collection<PendingTransactionRecord> allCoordinatorLogEntries) {
-        Collection<PendingTransactionRecord>  descendants = findAllDescendants(entry, allCoordinatorLogEntries);
-        for (PendingTransactionRecord descendant : descendants) {
-            allCoordinatorLogEntries.remove(descendant);
-        }
+        new LineageIndex(allCoordinatorLogEntries).removeAllDescendants(entry, allCoordinatorLogEntries);
     }
     
     /**
@@ -100,44 +93,10 @@ public class PendingTransactionRecord {
      * @param predicate
      * @param collection
      * @return A collection of all descendants of records that match the given predicate, including the matching records.
+     * @see LineageIndex for repeated queries on the same collection
      */
     public static Collection<PendingTransactionRecord> collectLineages(AncestorPredicate predicate, Collection<PendingTransactionRecord> collection) {
-        Collection<PendingTransactionRecord> results = new HashSet<>();
-        Map<String, PendingTransactionRecord> map = map(collection);
-        for (PendingTransactionRecord record : collection) {
-            if (!predicate.holdsFor(record)) {
-                if (record.superiorId != null) { //look for ancestor that matches                   
-                    Collection<PendingTransactionRecord> ret = new HashSet<>();
-                    collectAncestors(ret, record.superiorId, predicate, map);
-                    if(!ret.isEmpty()) {
-                        ret.add(record);
-                        results.addAll(ret);    
-                    }
-                }
-            } else { //match found already
-                results.add(record);  
-            }
-        }
-        return results;
-    }
-	
-    private static Map<String, PendingTransactionRecord> map(Collection<PendingTransactionRecord> collection) {
-        Map<String, PendingTransactionRecord> ret = new HashMap<>();
-        for (PendingTransactionRecord record : collection) {
-            ret.put(record.id, record);
-        }
-        return ret;
-    }
-
-    private static void collectAncestors(Collection<PendingTransactionRecord> collector, String superiorId, AncestorPredicate predicate, Map<String,PendingTransactionRecord> map) {
-        PendingTransactionRecord superior = map.get(superiorId);
-        if (superior != null) {
-            if (predicate.holdsFor(superior)) {
-                collector.add(superior);
-            } else if (superior.superiorId != null) {
-                collectAncestors(collector, superior.superiorId, predicate, map);
-            } 
-        } 
+        return new LineageIndex(collection).collectLineages(predicate);
     }
     
 	public PendingTransactionRecord markAsTerminated() {
@@ -148,6 +107,15 @@ public class PendingTransactionRecord {
         return new PendingTransactionRecord(id, TxState.COMMITTING, expires, recoveryDomainName, superiorId);
     }
 	
+	/**
+	 * 
+	 * @return False if losing this record in a crash is harmless, so it does not need a forced write of its own.
+	 * This is the case for final records like TERMINATED: at worst, recovery does an extra lookup.
+	 */
+	public boolean requiresForcedWrite() {
+		return !state.isFinalState();
+	}
+	
 	@Override
 	public String toString() {
 	    return toRecord();
@@ -178,5 +178,94 @@ public class ConfigPropertiesTestJUnit {
 		props.setProperty("com.atomikos.icatch.allow_subtransactions", "false");
 		assertEquals(VALUE, props.getAllowSubTransactions());
 	}
-}
+	
+	@Test
+	public void testLogGroupCommitSettings() throws Exception {
+		props.setProperty("com.atomikos.icatch.enable_log_group_commit", "true");
+		props.setProperty("com.atomikos.icatch.log_group_commit_max_delay", "5");
+		props.setProperty("com.atomikos.icatch.log_group_commit_max_batch_size", "64");
+		assertTrue(props.getEnableLogGroupCommit());
+		assertEquals(5, props.getLogGroupCommitMaxDelay());
+		assertEquals(64, props.getLogGroupCommitMaxBatchSize());
+	}
+
+	@Test
+	public void testLogStorageSettings() throws Exception {
+		props.setProperty("com.atomikos.icatch.log_storage", "mapped_segments");
+		props.setProperty("com.atomikos.icatch.log_segment_size", "1048576");
+		assertEquals(ConfigProperties.LOG_STORAGE_MAPPED_SEGMENTS, props.getLogStorage());
+		assertEquals(1048576, props.getLogSegmentSize());
+	}
+
+	@Test
+	public void testLogLazyFlushInterval() throws Exception {
+		props.setProperty("com.atomikos.icatch.log_lazy_flush_interval", "250");
+		assertEquals(250, props.getLogLazyFlushInterval());
+	}
+
+	@Test
+	public void testLogShards() throws Exception {
+		props.setProperty("com.atomikos.icatch.log_shards", "4");
+		assertEquals(4, props.getLogShards());
+	}
+
+	@Test
+	public void testJdbcLogSettings() throws Exception {
+		props.setProperty("com.atomikos.icatch.jdbc_log_url", "jdbc:h2:mem:log");
+		props.setProperty("com.atomikos.icatch.jdbc_log_user", "sa");
+		props.setProperty("com.atomikos.icatch.jdbc_log_password", "");
+		props.setProperty("com.atomikos.icatch.jdbc_log_table", "TM1_LOG");
+		assertEquals("jdbc:h2:mem:log", props.getJdbcLogUrl());
+		assertEquals("sa", props.getJdbcLogUser());
+		assertEquals("", props.getJdbcLogPassword());
+		assertEquals("TM1_LOG", props.getJdbcLogTable());
+	}
+
+	@Test
+	public void testCheckpointThresholds() throws Exception {
+		props.setProperty("com.atomikos.icatch.checkpoint_max_log_size", "1048576");
+		props.setProperty("com.atomikos.icatch.checkpoint_max_dead_ratio", "0.75");
+		props.setProperty("com.atomikos.icatch.checkpoint_dead_ratio_min_records", "100");
+		props.setProperty("com.atomikos.icatch.checkpoint_max_age", "60000");
+		assertEquals(1048576, props.getCheckpointMaxLogSize());
+		assertEquals(0.75, props.getCheckpointMaxDeadRatio(), 0);
+		assertEquals(100, props.getCheckpointDeadRatioMinRecords());
+		assertEquals(60000, props.getCheckpointMaxAge());
+	}
+
+	@Test
+	public void testLogSync() throws Exception {
+		props.setProperty("com.atomikos.icatch.log_sync", "dsync");
+		assertEquals(ConfigProperties.LOG_SYNC_DSYNC, props.getLogSync());
+	}
 
+	@Test
+	public void testThreaded2pc() throws Exception {
+		props.setProperty("com.atomikos.icatch.threaded_2pc", "true");
+		props.setProperty("com.atomikos.icatch.threaded_2pc_max_threads", "16");
+		assertTrue(props.getThreaded2pc());
+		assertEquals(16, props.getThreaded2pcMaxThreads());
+	}
+
+	@Test
+	public void testOltpRetryBackoff() throws Exception {
+		props.setProperty("com.atomikos.icatch.oltp_max_retry_interval", "30000");
+		props.setProperty("com.atomikos.icatch.oltp_max_concurrent_retries", "4");
+		assertEquals(30000, props.getOltpMaxRetryInterval());
+		assertEquals(4, props.getOltpMaxConcurrentRetries());
+	}
+
+	@Test
+	public void testMaxActivesWaiting() throws Exception {
+		props.setProperty("com.atomikos.icatch.max_actives_wait_timeout", "500");
+		props.setProperty("com.atomikos.icatch.max_actives_prioritize_imported", "true");
+		assertEquals(500, props.getMaxActivesWaitTimeout());
+		assertTrue(props.getMaxActivesPrioritizeImported());
+	}
+
+	@Test
+	public void testAsyncCommitMaxThreads() throws Exception {
+		props.setProperty("com.atomikos.icatch.async_commit_max_threads", "8");
+		assertEquals(8, props.getAsyncCommitMaxThreads());
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineageIndexTestJUnit {
+
+	private List<PendingTransactionRecord> records;
+
+	@Before
+	public void setUp() {
+		records = new ArrayList<PendingTransactionRecord>();
+	}
+
+	private PendingTransactionRecord add(String id, TxState state, String superiorId) {
+		PendingTransactionRecord ret = new PendingTransactionRecord(id, state, 0, "domain", superiorId);
+		records.add(ret);
+		return ret;
+	}
+
+	private static Set<String> ids(Collection<PendingTransactionRecord> records) {
+		Set<String> ret = new HashSet<String>();
+		for (PendingTransactionRecord record : records) {
+			ret.add(record.id);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testCollectLineagesIncludesMatchesAndTheirDescendants() {
+		add("root", TxState.COMMITTING, null);
+		add("child", TxState.IN_DOUBT, "root");
+		add("grandchild", TxState.IN_DOUBT, "child");
+		add("other", TxState.IN_DOUBT, null);
+		LineageIndex index = new LineageIndex(records);
+		Collection<PendingTransactionRecord> result = index.collectLineages(r -> r.state == TxState.COMMITTING);
+		assertEquals(3, result.size());
+		assertTrue(ids(result).contains("grandchild"));
+	}
+
+	@Test
+	public void testCollectLineagesIgnoresChildrenOfMissingSuperiors() {
+		add("orphan", TxState.IN_DOUBT, "missing");
+		LineageIndex index = new LineageIndex(records);
+		assertTrue(index.collectLineages(r -> r.id.equals("missing")).isEmpty());
+	}
+
+	@Test
+	public void testIndexCanBeReused() {
+		add("root", TxState.COMMITTING, null);
+		add("child", TxState.IN_DOUBT, "root");
+		LineageIndex index = new LineageIndex(records);
+		assertEquals(2, index.collectLineages(r -> r.state == TxState.COMMITTING).size());
+		assertEquals(1, index.collectLineages(r -> r.state == TxState.IN_DOUBT).size());
+	}
+
+	@Test
+	public void testRemoveAllDescendantsKeepsEntryAndUnrelatedRecords() {
+		PendingTransactionRecord root = add("root", TxState.IN_DOUBT, null);
+		add("child", TxState.IN_DOUBT, "root");
+		add("grandchild", TxState.IN_DOUBT, "child");
+		add("other", TxState.IN_DOUBT, null);
+		new LineageIndex(records).removeAllDescendants(root, records);
+		assertEquals(2, records.size());
+		assertTrue(records.contains(root));
+	}
+
+	@Test
+	public void testDeepLineageIsFoundWithoutRecursion() {
+		add("0", TxState.COMMITTING, null);
+		for (int i = 1; i < 100000; i++) {
+			add(Integer.toString(i), TxState.IN_DOUBT, Integer.toString(i - 1));
+		}
+		LineageIndex index = new LineageIndex(records);
+		assertEquals(records.size(), index.collectLineages(r -> r.state == TxState.COMMITTING).size());
+		assertEquals(records.size() - 1, index.findAllDescendants(records.get(0)).size());
+	}
+
+}
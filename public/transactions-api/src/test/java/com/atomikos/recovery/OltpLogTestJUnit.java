@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+public class OltpLogTestJUnit {
+
+	private PendingTransactionRecord written;
+
+	private LogWriteException failure;
+
+	private OltpLog log = new OltpLog() {
+
+		@Override
+		public void write(PendingTransactionRecord pendingTransactionRecord) throws LogWriteException {
+			if (failure != null) {
+				throw failure;
+			}
+			written = pendingTransactionRecord;
+		}
+
+		@Override
+		public void close() {
+		}
+	};
+
+	private PendingTransactionRecord record = new PendingTransactionRecord("id", TxState.COMMITTING, 0, "domain");
+
+	@Test
+	public void testDefaultWriteAsyncCompletesAfterWrite() throws Exception {
+		CompletableFuture<Void> result = log.writeAsync(record).toCompletableFuture();
+		assertTrue(result.isDone());
+		assertSame(record, written);
+		result.get();
+	}
+
+	@Test
+	public void testDefaultWriteAsyncCompletesExceptionallyOnFailure() throws Exception {
+		failure = new LogWriteException();
+		CompletableFuture<Void> result = log.writeAsync(record).toCompletableFuture();
+		assertTrue(result.isCompletedExceptionally());
+		try {
+			result.get();
+			fail("Failure not propagated");
+		} catch (ExecutionException expected) {
+			assertSame(failure, expected.getCause());
+		}
+	}
+
+}
@@ -156,4 +156,11 @@ public class PendingTransactionRecordTestJUnit {
         result = PendingTransactionRecord.extractCoordinatorIds(Collections.singleton(given), TxState.COMMITTING);
         assertTrue(result.isEmpty());
 	}
+
+	@Test
+	public void testOnlyNonFinalRecordsRequireForcedWrite() {
+	    assertTrue(new PendingTransactionRecord("id", TxState.COMMITTING, 0, "domain").requiresForcedWrite());
+	    assertTrue(new PendingTransactionRecord("id", TxState.IN_DOUBT, 0, "domain").requiresForcedWrite());
+	    assertFalse(new PendingTransactionRecord("id", TxState.TERMINATED, 0, "domain").requiresForcedWrite());
+	}
 }
@@ -83,6 +83,9 @@ public class AtomikosNonXADataSourceBean extends AbstractDataSourceBean
 	 * Setting this to true will avoid warnings/errors on 2-phase commit. ReadOnly mode
 	 * is intended to avoid XA configuration of databases where no updates are
 	 * being done.
+	 * Without it, 2-phase commit still works as long as this is the only non-XA
+	 * resource in the transaction: it then commits after all XA resources
+	 * have been prepared, and decides the outcome of the transaction.
 	 * 
 	 * @param readOnly Defaults to false.
 	 */
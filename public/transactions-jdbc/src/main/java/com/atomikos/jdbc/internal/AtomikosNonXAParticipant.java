@@ -15,6 +15,7 @@ import com.atomikos.icatch.HeurCommitException;
 import com.atomikos.icatch.HeurHazardException;
 import com.atomikos.icatch.HeurMixedException;
 import com.atomikos.icatch.HeurRollbackException;
+import com.atomikos.icatch.OnePhaseParticipant;
 import com.atomikos.icatch.Participant;
 import com.atomikos.icatch.RollbackException;
 import com.atomikos.icatch.SysException;
@@ -27,14 +28,16 @@ import com.atomikos.logging.LoggerFactory;
  *
  * A participant for non-XA interactions. Instances are NOT recoverable in the
  * sense that commit/rollback can fail after prepare. This is an implicit
- * limitation of non-XA transactions.
+ * limitation of non-XA transactions. If this is the only non-XA participant
+ * in the transaction then it is committed as the last resource, without
+ * prepare.
  *
  *
  *
  *
  */
 
-class AtomikosNonXAParticipant implements Participant
+class AtomikosNonXAParticipant implements OnePhaseParticipant
 {
 	private static final Logger LOGGER = LoggerFactory.createLogger(AtomikosNonXAParticipant.class);
 
@@ -150,7 +153,7 @@ class AtomikosNonXAParticipant implements Participant
 	@Override
 	public String toString() {
 		return com.atomikos.jdbc.AtomikosNonXADataSourceBean.class.getName() + " '" + name +
-        "' [NB: this resource does not support two-phase commit unless configured as readOnly]";
+        "' [NB: this resource does not support two-phase commit unless configured as readOnly, or as the only non-XA resource in the transaction]";
 	}
 
 	@Override
@@ -9,7 +9,9 @@
 package com.atomikos.datasource.xa;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -27,7 +29,7 @@ public class RecoveryScan {
         boolean done = false;
         int flags = XAResource.TMSTARTRSCAN;
         Xid[] xidsFromLastScan = null;
-        List<XID> allRecoveredXidsSoFar = new ArrayList<XID>();
+        Set<XID> allRecoveredXidsSoFar = new HashSet<XID>();
         do {
         	xidsFromLastScan = xaResource.recover(flags);
             flags = XAResource.TMNOFLAGS;
@@ -44,9 +46,8 @@ public class RecoveryScan {
                 for ( int i = 0; i < xidsFromLastScan.length; i++ ) {
                 	XID xid = new XID (xidsFromLastScan[i]);
                     // our own XID implements equals and hashCode properly
-                    if (!allRecoveredXidsSoFar.contains(xid)) {
+                    if (allRecoveredXidsSoFar.add(xid)) {
                         // a new xid is returned -> we can not be in a recovery loop -> go on
-                        allRecoveredXidsSoFar.add(xid);
                         done = false;
                         if (selector.selects(xid)) {
                         	ret.add(xid);
@@ -9,11 +9,15 @@
 package com.atomikos.datasource.xa;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 import javax.transaction.xa.Xid;
 
 /**
- * Our Xid class with correct equals and hashCode.
+ * Our Xid class with correct equals and hashCode: based on the format id and
+ * the bytes of the global transaction id and branch qualifier, as in the XA
+ * specification. The (hex) String form is only built when asked for, e.g. for
+ * logging.
  */
 
 public class XID implements Serializable, Xid
@@ -33,6 +37,8 @@ public class XID implements Serializable, Xid
     private final String branchQualifierStr;
     private final String globalTransactionIdStr;
     private final String uniqueResourceName;
+    // not serialized in earlier versions: recomputed if 0
+    private transient int hashCode;
     
     /**
      * Create a new instance with the resource name as branch. This is the main
@@ -57,7 +63,7 @@ public class XID implements Serializable, Xid
         if ( this.branchQualifier.length > Xid.MAXBQUALSIZE )
             throw new RuntimeException (
                     "Max branch qualifier length exceeded." );
-
+        this.hashCode = computeHashCode();
     }
 
     /**
@@ -75,6 +81,7 @@ public class XID implements Serializable, Xid
         this.globalTransactionIdStr = new String(xid.getGlobalTransactionId ());
         this.branchQualifierStr= new String(xid.getBranchQualifier ());
         this.uniqueResourceName = null;
+        this.hashCode = computeHashCode();
     }
 
     @Override
@@ -102,7 +109,10 @@ public class XID implements Serializable, Xid
 			return true;
 		if (obj instanceof XID) {
 			XID xid = (XID) obj;
-			return toString().equals(xid.toString());
+			return this.formatId == xid.formatId &&
+					hashCode() == xid.hashCode() &&
+					Arrays.equals(this.globalTransactionId, xid.globalTransactionId) &&
+					Arrays.equals(this.branchQualifier, xid.branchQualifier);
 		}
 		return false;
     }
@@ -147,10 +157,21 @@ public class XID implements Serializable, Xid
 		return this.globalTransactionIdStr;
 	}
 
+    private int computeHashCode()
+    {
+        int ret = 31 * this.formatId + Arrays.hashCode(this.globalTransactionId);
+        return 31 * ret + Arrays.hashCode(this.branchQualifier);
+    }
+
     @Override
 	public int hashCode ()
     {
-        return toString ().hashCode ();
+        int ret = this.hashCode;
+        if ( ret == 0 ) {
+            ret = computeHashCode();
+            this.hashCode = ret;
+        }
+        return ret;
     }
 
 	public String getUniqueResourceName() {
@@ -10,6 +10,15 @@ package com.atomikos.icatch.jta;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingException;
 import javax.naming.Reference;
@@ -27,6 +36,7 @@ import com.atomikos.icatch.CompositeTransaction;
 import com.atomikos.icatch.CompositeTransactionManager;
 import com.atomikos.icatch.SubTxAwareParticipant;
 import com.atomikos.icatch.SysException;
+import com.atomikos.icatch.config.Configuration;
 import com.atomikos.logging.Logger;
 import com.atomikos.logging.LoggerFactory;
 import com.atomikos.recovery.TxState;
@@ -58,6 +68,10 @@ public class TransactionManagerImp implements TransactionManager,
 
     private static boolean jtaTransactionsAreSerialByDefault = false;
 
+    private static final long IDLE_ASYNC_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private static ThreadPoolExecutor asyncExecutor;
+
     private ThreadLocal<Integer> timeoutInSecondsForNewTransactions = new ThreadLocal<Integer>() {
     	protected Integer initialValue() {
     		return defaultTimeoutInSecondsForNewTransactions;
@@ -440,6 +454,142 @@ public class TransactionManagerImp implements TransactionManager,
         tx.rollback();
     }
 
+    /**
+     * Commits the transaction of the calling thread without waiting for the
+     * outcome. The transaction is detached from the calling thread right away,
+     * and committed by a dedicated pool of at most async_commit_max_threads
+     * threads. Synchronizations are notified in the same order as for
+     * {@link #commit()}, but in the committing thread.
+     *
+     * @return A stage that completes when commit is done, or exceptionally
+     *         with the exception that commit would throw.
+     * @exception IllegalStateException
+     *                If the calling thread has no root transaction.
+     */
+
+    public CompletionStage<Void> commitAsync () throws IllegalStateException,
+            SystemException
+    {
+        return commitAsync ( getAsyncExecutor () );
+    }
+
+    /**
+     * Like {@link #commitAsync()}, but commits with the given executor. Its
+     * threads should not have a transaction of their own.
+     */
+
+    public CompletionStage<Void> commitAsync ( Executor executor )
+            throws IllegalStateException, SystemException
+    {
+        return terminateAsync ( true, executor );
+    }
+
+    /**
+     * Rolls back the transaction of the calling thread without waiting for
+     * the outcome, like {@link #commitAsync()} does for commit.
+     */
+
+    public CompletionStage<Void> rollbackAsync () throws IllegalStateException,
+            SystemException
+    {
+        return rollbackAsync ( getAsyncExecutor () );
+    }
+
+    /**
+     * Like {@link #rollbackAsync()}, but rolls back with the given executor.
+     * Its threads should not have a transaction of their own.
+     */
+
+    public CompletionStage<Void> rollbackAsync ( Executor executor )
+            throws IllegalStateException, SystemException
+    {
+        return terminateAsync ( false, executor );
+    }
+
+    private CompletionStage<Void> terminateAsync ( final boolean commit,
+            Executor executor ) throws IllegalStateException, SystemException
+    {
+        final TransactionImp tx = (TransactionImp) getTransaction();
+        if ( tx == null ) raiseNoTransaction();
+        if ( !tx.getCT ().isRoot () ) {
+            // suspend would also detach the parent from the calling thread
+            String msg = "Asynchronous commit or rollback is not possible for subtransactions";
+            LOGGER.logWarning ( msg );
+            throw new IllegalStateException ( msg );
+        }
+        suspend();
+        // normally done when the transaction ends - but then it ends in another thread
+        timeoutInSecondsForNewTransactions.set ( defaultTimeoutInSecondsForNewTransactions );
+
+        final CompletableFuture<Void> ret = new CompletableFuture<Void>();
+        try {
+            executor.execute ( new Runnable() {
+                @Override
+                public void run() {
+                    terminateInCurrentThread ( tx, commit, ret );
+                }
+            });
+        } catch ( RejectedExecutionException e ) {
+            try {
+                resume ( tx );
+            } catch ( InvalidTransactionException cannotHappen ) {
+                // tx is a TransactionImp
+            }
+            String msg = "Could not schedule asynchronous termination of transaction " + tx;
+            LOGGER.logError ( msg, e );
+            throw new ExtendedSystemException ( msg, e );
+        }
+        return ret;
+    }
+
+    private void terminateInCurrentThread ( TransactionImp tx, boolean commit,
+            CompletableFuture<Void> result )
+    {
+        try {
+            // resume first: synchronizations may need the transaction for the thread
+            resume ( tx );
+            if ( commit ) {
+                tx.commit();
+            } else {
+                tx.rollback();
+            }
+            result.complete ( null );
+        } catch ( Exception e ) {
+            result.completeExceptionally ( e );
+        } finally {
+            // don't leave the transaction with a pooled thread if it did not end
+            CompositeTransaction ct = compositeTransactionManager.getCompositeTransaction();
+            if ( ct != null && ct.isSameTransaction ( tx.getCT () ) ) {
+                compositeTransactionManager.suspend();
+            }
+        }
+    }
+
+    private static synchronized Executor getAsyncExecutor ()
+    {
+        if ( asyncExecutor == null ) {
+            int maxThreads = Configuration.getConfigProperties().getAsyncCommitMaxThreads();
+            asyncExecutor = new ThreadPoolExecutor ( maxThreads, maxThreads, IDLE_ASYNC_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new AsyncThreadFactory() );
+            asyncExecutor.allowCoreThreadTimeOut ( true );
+        }
+        return asyncExecutor;
+    }
+
+    private static class AsyncThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger ( 0 );
+
+        @Override
+        public Thread newThread ( Runnable r )
+        {
+            Thread thread = new Thread ( r, "Atomikos:async-commit-" + count.incrementAndGet() );
+            thread.setContextClassLoader ( getClass().getClassLoader() ); //cf case 185557: avoid thread leak in Tomcat
+            thread.setDaemon ( true );
+            return thread;
+        }
+    }
+
     /**
      * @see javax.transaction.TransactionManager
      */
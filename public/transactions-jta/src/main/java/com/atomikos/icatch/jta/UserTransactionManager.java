@@ -9,6 +9,8 @@
 package com.atomikos.icatch.jta;
 
 import java.io.Serializable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import javax.naming.NamingException;
 import javax.naming.Reference;
@@ -161,6 +163,28 @@ public class UserTransactionManager implements TransactionManager,
 
     }
 
+    /**
+     * @see TransactionManagerImp#commitAsync()
+     */
+    public CompletionStage<Void> commitAsync () throws IllegalStateException,
+            SystemException
+    {
+    	if ( closed ) throw new SystemException ( "This UserTransactionManager instance was closed already - commit no longer allowed or possible." );
+        checkSetup ();
+        return tm.commitAsync ();
+    }
+
+    /**
+     * @see TransactionManagerImp#commitAsync(Executor)
+     */
+    public CompletionStage<Void> commitAsync ( Executor executor )
+            throws IllegalStateException, SystemException
+    {
+    	if ( closed ) throw new SystemException ( "This UserTransactionManager instance was closed already - commit no longer allowed or possible." );
+        checkSetup ();
+        return tm.commitAsync ( executor );
+    }
+
     /**
      * @see javax.transaction.TransactionManager#getStatus()
      */
@@ -200,6 +224,24 @@ public class UserTransactionManager implements TransactionManager,
 
     }
 
+    /**
+     * @see TransactionManagerImp#rollbackAsync()
+     */
+    public CompletionStage<Void> rollbackAsync () throws IllegalStateException,
+            SystemException
+    {
+        return tm.rollbackAsync ();
+    }
+
+    /**
+     * @see TransactionManagerImp#rollbackAsync(Executor)
+     */
+    public CompletionStage<Void> rollbackAsync ( Executor executor )
+            throws IllegalStateException, SystemException
+    {
+        return tm.rollbackAsync ( executor );
+    }
+
     /**
      * @see javax.transaction.TransactionManager#setRollbackOnly()
      */
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.datasource.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.transaction.xa.XAResource;
+import javax.transaction.xa.Xid;
+
+import org.junit.Test;
+
+import com.atomikos.datasource.xa.RecoveryScan.XidSelector;
+
+public class XIDTestJUnit {
+
+	private static final int RECOVERED_XIDS = 1000;
+
+	private static class VendorXid implements Xid {
+
+		private final int formatId;
+		private final byte[] gtrid;
+		private final byte[] bqual;
+
+		VendorXid(Xid xid) {
+			this(xid.getFormatId(), xid.getGlobalTransactionId(), xid.getBranchQualifier());
+		}
+
+		VendorXid(int formatId, byte[] gtrid, byte[] bqual) {
+			this.formatId = formatId;
+			this.gtrid = gtrid.clone();
+			this.bqual = bqual.clone();
+		}
+
+		@Override
+		public int getFormatId() {
+			return formatId;
+		}
+
+		@Override
+		public byte[] getGlobalTransactionId() {
+			return gtrid.clone();
+		}
+
+		@Override
+		public byte[] getBranchQualifier() {
+			return bqual.clone();
+		}
+	}
+
+	@Test
+	public void testCopyEqualsOriginal() {
+		XID xid = new XID("tid", "branch", "resource");
+		XID copy = new XID(new VendorXid(xid));
+		assertEquals(xid, copy);
+		assertEquals(xid.hashCode(), copy.hashCode());
+		assertEquals(xid.toString(), copy.toString());
+	}
+
+	@Test
+	public void testDifferentBytesAreNotEqual() {
+		XID xid = new XID("tid", "branch", "resource");
+		assertFalse(xid.equals(new XID("tid", "branch2", "resource")));
+		assertFalse(xid.equals(new XID("tid2", "branch", "resource")));
+		assertFalse(new XID("ab", "c", "resource").equals(new XID("a", "bc", "resource")));
+	}
+
+	@Test
+	public void testDifferentFormatIsNotEqual() {
+		XID xid = new XID("tid", "branch", "resource");
+		XID other = new XID(new VendorXid(xid.getFormatId() + 1, xid.getGlobalTransactionId(), xid.getBranchQualifier()));
+		assertFalse(xid.equals(other));
+	}
+
+	@Test
+	public void testToString() {
+		assertEquals("XID: 746964:6272", new XID("tid", "br", "resource").toString());
+	}
+
+	private static Xid[] createVendorXids(int count) {
+		Xid[] ret = new Xid[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = new VendorXid(new XID("tm" + (1700000000000000000L + i), "tm" + i, "resource"));
+		}
+		return ret;
+	}
+
+	/**
+	 * A recovery scan with many XIDs, and the lookup of each of them among
+	 * the previous scan's XIDs: equal bytes must mean equal XIDs.
+	 */
+	@Test
+	public void testXidsOfRecoveryScanAreFoundInPreviousScan() throws Exception {
+		Xid[] vendorXids = createVendorXids(RECOVERED_XIDS);
+		XAResource xaResource = new XAResourceStub(vendorXids);
+		XidSelector all = new XidSelector() {
+			@Override
+			public boolean selects(XID xid) {
+				return true;
+			}
+		};
+		List<XID> recovered = RecoveryScan.recoverXids(xaResource, all);
+		Set<XID> previous = new HashSet<XID>(RecoveryScan.recoverXids(xaResource, all));
+		int found = 0;
+		for (XID xid : recovered) {
+			if (previous.contains(xid)) {
+				found++;
+			}
+		}
+		assertEquals(RECOVERED_XIDS, recovered.size());
+		assertEquals(RECOVERED_XIDS, found);
+	}
+
+	private static class XAResourceStub implements XAResource {
+
+		private final Xid[] xids;
+
+		XAResourceStub(Xid[] xids) {
+			this.xids = xids;
+		}
+
+		@Override
+		public Xid[] recover(int flag) {
+			if ((flag & TMSTARTRSCAN) != 0) {
+				return xids;
+			}
+			return new Xid[0];
+		}
+
+		@Override
+		public void commit(Xid xid, boolean onePhase) {
+		}
+
+		@Override
+		public void end(Xid xid, int flags) {
+		}
+
+		@Override
+		public void forget(Xid xid) {
+		}
+
+		@Override
+		public int getTransactionTimeout() {
+			return 0;
+		}
+
+		@Override
+		public boolean isSameRM(XAResource xares) {
+			return xares == this;
+		}
+
+		@Override
+		public int prepare(Xid xid) {
+			return XA_OK;
+		}
+
+		@Override
+		public void rollback(Xid xid) {
+		}
+
+		@Override
+		public boolean setTransactionTimeout(int seconds) {
+			return false;
+		}
+
+		@Override
+		public void start(Xid xid, int flags) {
+		}
+	}
+
+}
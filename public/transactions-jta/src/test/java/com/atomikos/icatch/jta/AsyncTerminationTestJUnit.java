@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.jta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.config.Configuration;
+
+public class AsyncTerminationTestJUnit {
+
+	private UserTransactionManager utm;
+
+	private List<String> calls;
+
+	@Before
+	public void setUp() throws Exception {
+		Configuration.getConfigProperties().setProperty("com.atomikos.icatch.enable_logging", "false");
+		utm = new UserTransactionManager();
+		utm.init();
+		calls = new ArrayList<String>();
+	}
+
+	@After
+	public void tearDown() {
+		utm.close();
+	}
+
+	private Transaction beginWithSynchronization() throws Exception {
+		utm.begin();
+		final Transaction tx = utm.getTransaction();
+		tx.registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+				try {
+					calls.add("beforeCompletion " + (utm.getTransaction() == tx));
+				} catch (Exception e) {
+					calls.add(e.toString());
+				}
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				calls.add("afterCompletion " + status);
+			}
+		});
+		return tx;
+	}
+
+	private static void awaitOutcome(CompletableFuture<Void> result) throws Exception {
+		result.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testCommitAsyncDetachesTransactionFromCallingThread() throws Exception {
+		Transaction tx = beginWithSynchronization();
+		final CountDownLatch commitStarted = new CountDownLatch(1);
+		final CountDownLatch mayCommit = new CountDownLatch(1);
+		tx.registerSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() {
+				commitStarted.countDown();
+				try {
+					mayCommit.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+			}
+		});
+		CompletableFuture<Void> result = utm.commitAsync().toCompletableFuture();
+		assertTrue(commitStarted.await(5, TimeUnit.SECONDS));
+		assertNull(utm.getTransaction());
+		assertEquals(Status.STATUS_NO_TRANSACTION, utm.getStatus());
+		utm.begin(); // the calling thread can go on right away
+		assertNotSame(tx, utm.getTransaction());
+		utm.rollback();
+		mayCommit.countDown();
+		awaitOutcome(result);
+	}
+
+	@Test
+	public void testCommitAsyncNotifiesSynchronizationsInOrder() throws Exception {
+		beginWithSynchronization();
+		awaitOutcome(utm.commitAsync().toCompletableFuture());
+		assertEquals("[beforeCompletion true, afterCompletion " + Status.STATUS_COMMITTED + "]", calls.toString());
+	}
+
+	@Test
+	public void testCommitAsyncCompletesWithRollbackException() throws Exception {
+		beginWithSynchronization();
+		utm.setRollbackOnly();
+		try {
+			awaitOutcome(utm.commitAsync().toCompletableFuture());
+			fail("Commit should fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RollbackException);
+		}
+		assertNull(utm.getTransaction());
+	}
+
+	@Test
+	public void testRollbackAsync() throws Exception {
+		beginWithSynchronization();
+		awaitOutcome(utm.rollbackAsync().toCompletableFuture());
+		assertEquals("[afterCompletion " + Status.STATUS_ROLLEDBACK + "]", calls.toString());
+	}
+
+	@Test
+	public void testCommitAsyncWithGivenExecutor() throws Exception {
+		beginWithSynchronization();
+		final List<Thread> threads = new ArrayList<Thread>();
+		CompletableFuture<Void> result = utm.commitAsync(command -> {
+			Thread thread = new Thread(command);
+			threads.add(thread);
+			thread.start();
+		}).toCompletableFuture();
+		awaitOutcome(result);
+		assertEquals(1, threads.size());
+		assertNotSame(Thread.currentThread(), threads.get(0));
+		assertEquals("[beforeCompletion true, afterCompletion " + Status.STATUS_COMMITTED + "]", calls.toString());
+	}
+
+	@Test
+	public void testRejectedCommitAsyncLeavesTransactionWithCallingThread() throws Exception {
+		Transaction tx = beginWithSynchronization();
+		try {
+			utm.commitAsync(command -> {
+				throw new java.util.concurrent.RejectedExecutionException();
+			});
+			fail("Commit should fail");
+		} catch (ExtendedSystemException expected) {
+		}
+		assertSame(tx, utm.getTransaction());
+		utm.commit();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitAsyncWithoutTransaction() throws Exception {
+		utm.commitAsync();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCommitAsyncOfSubtransaction() throws Exception {
+		utm.begin();
+		utm.begin();
+		try {
+			utm.commitAsync();
+		} finally {
+			utm.rollback();
+			utm.rollback();
+		}
+	}
+
+}
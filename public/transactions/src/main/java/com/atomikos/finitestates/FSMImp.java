@@ -8,9 +8,7 @@
 
 package com.atomikos.finitestates;
 
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Set;
+import java.util.Arrays;
 
 import com.atomikos.recovery.TxState;
 
@@ -27,29 +25,49 @@ import com.atomikos.recovery.TxState;
  * <li>FSMEnterListeners have <b>no guarantee</b> that the getState() method will
  * return the state that was entered - this state may have changed since.</li>
  * </ul>
+ * Listeners are kept in copy-on-write arrays (indexed by state ordinal for
+ * enter listeners), so notification needs neither locking nor copying, and
+ * transitions are checked against a table precomputed from {@link TxState}.
+ * Events are only created if there are listeners to notify.
  *
  */
 
 public class FSMImp implements FSM
 {
 
-    private TxState state_ = null;
+    private static final TxState[] STATES = TxState.values();
 
-    private final Hashtable<TxState,Set<FSMEnterListener>>  enterlisteners_ = new Hashtable<>();
+    private static final boolean[][] ALLOWED_TRANSITIONS = new boolean[STATES.length][STATES.length];
 
-    private final Hashtable<Transition,Set<FSMTransitionListener>> transitionlisteners_ = new Hashtable<>();
+    private static final Transition[][] TRANSITIONS = new Transition[STATES.length][STATES.length];
+
+    static {
+        for ( TxState from : STATES ) {
+            for ( TxState to : STATES ) {
+                ALLOWED_TRANSITIONS[from.ordinal()][to.ordinal()] = from.transitionAllowedTo ( to );
+                TRANSITIONS[from.ordinal()][to.ordinal()] = new Transition ( from, to );
+            }
+        }
+    }
+
+    private static final FSMTransitionListener[] NO_TRANSITION_LISTENERS = new FSMTransitionListener[0];
+
+    private static final TransitionListeners[] NO_TRANSITIONS = new TransitionListeners[0];
+
+    private volatile TxState state_ = null;
+
+    //by state ordinal, null if none - the arrays are copied on write, and only read or written while synchronized
+    private final FSMEnterListener[][] enterlisteners_ = new FSMEnterListener[STATES.length][];
+
+    //copied on write, typically only few - and only read or written while synchronized
+    private TransitionListeners[] transitionlisteners_ = NO_TRANSITIONS;
     
     private Object eventsource_ = null;
 
-    private final Object stateLatch_ = new Object();
-
 
     /**
      *Constructor.
      *
-     *@param transitiontable The transitiontable with valid
-     *transitions.
-     *
      *@param initialstate The initial state of the FSM.
      */
 
@@ -65,7 +83,6 @@ public class FSMImp implements FSM
      *by delegation to an instance of this class.
      *
      *@param eventsource The object to be used as source of events.
-     *@param transitiontable The transitiontable for state changes.
      *@param initialstate The initial state of the FSM.
      */
 
@@ -75,65 +92,34 @@ public class FSMImp implements FSM
         eventsource_ = eventsource;
     }
 
-
-
-    /**
-     *Notify the enter listeners.
-     *
-     *@param state The state about to enter (or entered).
-     *@param pre True iff before entering.
-     */
-
-    protected void notifyListeners(TxState state,
-			     boolean pre)
+    private FSMTransitionListener[] getTransitionListeners ( Transition transition )
     {
-        Set<FSMEnterListener> lstnrs = null;
-        FSMEnterEvent event = new FSMEnterEvent (eventsource_, state);
-        synchronized ( this ) {
-            lstnrs = enterlisteners_.get ( state );
-            if ( lstnrs == null ) return;
-            //clone to avoid concurrency effects outside synch block
-            //during iteration hereafter
-            lstnrs = new HashSet<FSMEnterListener>(lstnrs);
+        for ( TransitionListeners entry : transitionlisteners_ ) {
+            if ( entry.transition == transition ) return entry.listeners;
         }
-        //notify OUTSIDE SYNCH to minimize deadlocks
-        for (FSMEnterListener listener : lstnrs) {
-        	if ( pre ) {
-        	    listener.preEnter(event);
-        	} else {
-        	    listener.entered(event);
-        	}
-        }         	
+        return NO_TRANSITION_LISTENERS;
     }
 
-    /**
-     *Notify transition listeners.
-     *
-     *@param transition
-     *@param pre True iff before transition.
-     */
-
-    protected void notifyListeners(Transition transition, boolean pre) {
-        FSMTransitionEvent event = new FSMTransitionEvent (eventsource_, transition);
-        Set<FSMTransitionListener> lstnrs = null;
-        synchronized ( this ) {
-            lstnrs =  transitionlisteners_.get( transition );
-            if ( lstnrs == null ) {
-            	return;
+    private static void notifyEnterListeners ( FSMEnterListener[] lstnrs, FSMEnterEvent event, boolean pre )
+    {
+        for ( FSMEnterListener listener : lstnrs ) {
+            if ( pre ) {
+                listener.preEnter ( event );
+            } else {
+                listener.entered ( event );
             }
-            //clone to avoid concurrency effects
-            //during iteration outside synch block
-            lstnrs = new  HashSet<FSMTransitionListener>(lstnrs);
         }
+    }
 
-        //iterator outside synch to avoid deadlocks
-        for (FSMTransitionListener listener : lstnrs) {
-        	 if ( pre ) {
-        		 listener.beforeTransition(event);
-             }   else {
-            	 listener.transitionPerformed(event);
-             }
-		}
+    private static void notifyTransitionListeners ( FSMTransitionListener[] lstnrs, FSMTransitionEvent event, boolean pre )
+    {
+        for ( FSMTransitionListener listener : lstnrs ) {
+            if ( pre ) {
+                listener.beforeTransition ( event );
+            } else {
+                listener.transitionPerformed ( event );
+            }
+        }
     }
 
     /**
@@ -144,21 +130,7 @@ public class FSMImp implements FSM
     {
     	//Note: this method should NOT be synchronized on the FSM itself, to avoid deadlocks
     	//in re-entrant 2PC calls!
-    	TxState ret = null;
-    	//don't synch on FSM -> use latch object instead
-    	synchronized ( stateLatch_ ) {
-    		ret = state_;
-    	}
-        return ret;
-    }
-
-    private void setStateObject ( TxState state )
-    {
-    	//synchronize on stateLatch ONLY to make sure that getState
-    	//returns the latest (non-cached) value
-    	synchronized ( stateLatch_ ) {
-    		this.state_ = state;
-    	}
+        return state_;
     }
 
 
@@ -169,21 +141,32 @@ public class FSMImp implements FSM
     public void setState(TxState state)
         throws IllegalStateException
     {
-    	TxState oldstate = null;
-    	Transition transition = null;
+    	FSMEnterListener[] enterlisteners = null;
+    	FSMTransitionListener[] transitionlisteners = null;
+    	FSMEnterEvent enterevent = null;
+    	FSMTransitionEvent transitionevent = null;
         synchronized ( this ) {
-            if (!state_.transitionAllowedTo(state)) {
-                	throw new IllegalStateException("Transition not allowed: "+state_ +" to "+state);
+            TxState oldstate = state_;
+            if (!ALLOWED_TRANSITIONS[oldstate.ordinal()][state.ordinal()]) {
+                	throw new IllegalStateException("Transition not allowed: "+oldstate +" to "+state);
+            }
+            Transition transition = TRANSITIONS[oldstate.ordinal()][state.ordinal()];
+            //snapshots: listeners added from here on are not notified for this transition
+            enterlisteners = enterlisteners_[state.ordinal()];
+            transitionlisteners = getTransitionListeners ( transition );
+            if ( enterlisteners != null ) {
+                enterevent = new FSMEnterEvent ( eventsource_, state );
+                notifyEnterListeners ( enterlisteners, enterevent, true );
             }
-            oldstate = state_;
-            transition = new Transition(oldstate, state);
-            notifyListeners(state , true);
-            notifyListeners(transition , true);
-            setStateObject ( state );
+            if ( transitionlisteners.length > 0 ) {
+                transitionevent = new FSMTransitionEvent ( eventsource_, transition );
+                notifyTransitionListeners ( transitionlisteners, transitionevent, true );
+            }
+            state_ = state;
         }
         //ENTER EVENTS ARE OUTSIDE SYNCH BLOCK TO MINIMIZE DEADLOCKS!!!
-        notifyListeners(state , false);
-        notifyListeners(transition, false);
+        if ( enterevent != null ) notifyEnterListeners ( enterlisteners, enterevent, false );
+        if ( transitionevent != null ) notifyTransitionListeners ( transitionlisteners, transitionevent, false );
     }
 
 
@@ -193,14 +176,15 @@ public class FSMImp implements FSM
 
     public synchronized void addFSMEnterListener(FSMEnterListener lstnr, TxState state)
     {
-        Set<FSMEnterListener> lstnrs = enterlisteners_.get(state);
+        FSMEnterListener[] lstnrs = enterlisteners_[state.ordinal()];
         if ( lstnrs == null ) {
-        	lstnrs = new HashSet<FSMEnterListener>();
-        	enterlisteners_.put( state , lstnrs );
-        }
-        if ( !lstnrs.contains(lstnr) ) {
-        	lstnrs.add(lstnr);
+        	lstnrs = new FSMEnterListener[] { lstnr };
+        } else if ( !contains ( lstnrs, lstnr ) ) {
+        	lstnrs = append ( lstnrs, lstnr );
+        } else {
+        	return;
         }
+        enterlisteners_[state.ordinal()] = lstnrs;
     }
 
     /**
@@ -210,17 +194,47 @@ public class FSMImp implements FSM
 
     public synchronized void addFSMTransitionListener(FSMTransitionListener listener,
     		TxState from, TxState to) {
-    	Transition transition = new Transition(from, to);
-    	Set<FSMTransitionListener> lstnrs = transitionlisteners_.get(transition);
-        if (lstnrs == null) {
-        	lstnrs = new HashSet<FSMTransitionListener>();
-        	transitionlisteners_.put(transition, lstnrs);
-        }
-        if (!lstnrs.contains(listener)) {
-        	lstnrs.add(listener);
+    	Transition transition = TRANSITIONS[from.ordinal()][to.ordinal()];
+    	TransitionListeners[] entries = transitionlisteners_;
+    	for ( int i = 0 ; i < entries.length ; i++ ) {
+    		if ( entries[i].transition == transition ) {
+    			if ( !contains ( entries[i].listeners, listener ) ) {
+    				entries = entries.clone();
+    				entries[i] = new TransitionListeners ( transition, append ( entries[i].listeners, listener ) );
+    				transitionlisteners_ = entries;
+    			}
+    			return;
+    		}
+    	}
+    	transitionlisteners_ = append ( entries, new TransitionListeners ( transition, new FSMTransitionListener[] { listener } ) );
+    }
+
+    private static boolean contains ( Object[] array, Object element )
+    {
+        for ( Object o : array ) {
+            if ( o.equals ( element ) ) return true;
         }
+        return false;
+    }
+
+    private static <T> T[] append ( T[] array, T element )
+    {
+        T[] ret = Arrays.copyOf ( array, array.length + 1 );
+        ret[array.length] = element;
+        return ret;
     }
 
+    private static class TransitionListeners
+    {
+        final Transition transition;
+        final FSMTransitionListener[] listeners;
+
+        TransitionListeners ( Transition transition, FSMTransitionListener[] listeners )
+        {
+            this.transition = transition;
+            this.listeners = listeners;
+        }
+    }
 
 }
 
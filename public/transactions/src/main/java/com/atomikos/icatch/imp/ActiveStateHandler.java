@@ -77,14 +77,23 @@ class ActiveStateHandler extends CoordinatorStateHandler
                 		}
                 	} else {
                 		LOGGER.logWarning ( "Transaction " + getCoordinator().getCoordinatorId() + " has timed out - rolling back...");
-                		rollbackWithAfterCompletionNotification(new RollbackCallback() {
-							public void doRollback()
-									throws HeurCommitException,
-									HeurMixedException, SysException,
-									HeurHazardException, IllegalStateException {
-							    getCoordinator().timedout(false);
-								rollbackFromWithinCallback(false,false);
-							}});
+                		//rollback blocks on the resources: not on the thread of the timer
+                		getCoordinator().executeTimeoutTask(new Runnable() {
+                			public void run() {
+                				try {
+                					rollbackWithAfterCompletionNotification(new RollbackCallback() {
+                						public void doRollback()
+                								throws HeurCommitException,
+                								HeurMixedException, SysException,
+                								HeurHazardException, IllegalStateException {
+                							getCoordinator().timedout(false);
+                							rollbackFromWithinCallback(false,false);
+                						}});
+                				} catch ( Exception e ) {
+                					LOGGER.logDebug( "Error in timeout: " + e.getMessage ()
+                							+ " for transaction " + getCoordinator ().getCoordinatorId () );
+                				}
+                			}});
                 	}
                 } else if (getCoordinator().getState().isOneOf(TxState.PREPARING, TxState.COMMITTING, TxState.ABORTING))  {
                 	//pending coordinator after failed prepare: cleanup to remove from TransactionServiceImp
@@ -106,6 +115,19 @@ class ActiveStateHandler extends CoordinatorStateHandler
             java.lang.IllegalStateException, HeurHazardException,
             HeurMixedException, SysException
     {
+        return prepare ( null );
+    }
+
+    /**
+     * Prepares all participants except the last resource, if any. The
+     * coordinator stays in-doubt if there is a last resource, since that still
+     * needs to commit.
+     */
+
+    private int prepare ( Participant lastResource ) throws RollbackException,
+            java.lang.IllegalStateException, HeurHazardException,
+            HeurMixedException, SysException
+    {
 
         int count = 0; // number of participants
         PrepareResult result = null; // synchronization
@@ -156,10 +178,12 @@ class ActiveStateHandler extends CoordinatorStateHandler
 				}
         	}
             count = participants.size ();
+            if ( lastResource != null ) count--;
             result = new PrepareResult ( count );
             Enumeration<Participant> enumm = participants.elements ();
             while ( enumm.hasMoreElements () ) {
                 Participant p = (Participant) enumm.nextElement ();
+                if ( p == lastResource ) continue;
                 PrepareMessage pm = new PrepareMessage ( p, result );
                 if ( getCascadeList () != null && p.getURI () != null ) { //null for OTS
                     Integer sibnum = (Integer) getCascadeList ().get ( p.getURI () );
@@ -214,7 +238,7 @@ class ActiveStateHandler extends CoordinatorStateHandler
             throw new SysException ( "Error in prepare: " + err.getMessage (), err );
         }
         // here we are if all yes.
-        if (discardCoordinatorAfterPrepare(allReadOnly)) {
+        if (lastResource == null && discardCoordinatorAfterPrepare(allReadOnly)) {
             nextStateHandler = new TerminatedStateHandler ( this );
             getCoordinator ().setStateHandler ( nextStateHandler );
             ret = Participant.READ_ONLY;
@@ -254,7 +278,13 @@ class ActiveStateHandler extends CoordinatorStateHandler
             throw new IllegalStateException (
                     "Illegal state for commit: ACTIVE!" );
 
-        if ( getCoordinator ().getParticipants ().size () > 1 ) {
+        Participant lastResource = getCoordinator ().findLastResource ();
+
+        if ( getCoordinator ().getParticipants ().size () > 1 && lastResource != null ) {
+            // same as below, but with the one-phase participant as last resource
+            setGlobalSiblingCount ( 1 );
+            commitWithLastResource ( lastResource );
+        } else if ( getCoordinator ().getParticipants ().size () > 1 ) {
             int prepareResult = Participant.READ_ONLY + 1;
 
             // happens if client has one remote participant
@@ -289,6 +319,22 @@ class ActiveStateHandler extends CoordinatorStateHandler
 
     }
 
+    protected void commitWithLastResource ( final Participant lastResource )
+            throws HeurRollbackException, HeurMixedException,
+            HeurHazardException, java.lang.IllegalStateException,
+            RollbackException, SysException
+    {
+        prepare ( lastResource );
+        commitWithAfterCompletionNotification ( new CommitCallback() {
+            public void doCommit()
+                    throws HeurRollbackException, HeurMixedException,
+                    HeurHazardException, IllegalStateException,
+                    RollbackException, SysException {
+                commitLastResourceFromWithinCallback ( lastResource );
+            }
+        });
+    }
+
     protected void rollback ()
             throws HeurCommitException, HeurMixedException, SysException,
             HeurHazardException, java.lang.IllegalStateException
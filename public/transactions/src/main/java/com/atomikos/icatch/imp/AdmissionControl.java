@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.atomikos.icatch.event.transaction.TransactionAdmissionEvent;
+import com.atomikos.publish.EventPublisher;
+import com.atomikos.thread.InterruptedExceptionHelper;
+
+/**
+ * Limits the number of active transactions to max_actives. While there is
+ * room, admission is a compare-and-set on a counter. Otherwise a new
+ * transaction waits for a place, up to a timeout: places that come free go to
+ * the waiting transactions in the order in which they came, optionally
+ * serving imported transactions before root transactions.
+ */
+
+class AdmissionControl {
+
+	private final int maxActives;
+	private final long maxWaitNanos;
+	private final boolean prioritizeImported;
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<Waiter> importedWaiters = new ArrayDeque<Waiter>(); // guarded by lock
+	private final ArrayDeque<Waiter> rootWaiters = new ArrayDeque<Waiter>(); // guarded by lock
+	private volatile int queueDepth;
+
+	/**
+	 * @param maxActives The max number of active transactions, or negative if unlimited.
+	 * @param maxWaitMillis How long to wait for a place - 0 to fail right away.
+	 * @param prioritizeImported Whether waiting imported transactions go before waiting root transactions.
+	 */
+	AdmissionControl(int maxActives, long maxWaitMillis, boolean prioritizeImported) {
+		this.maxActives = maxActives;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+		this.prioritizeImported = prioritizeImported;
+	}
+
+	/**
+	 * Takes a place for a new transaction, waiting for one if needed.
+	 *
+	 * @param imported True for a transaction imported from another process.
+	 * @exception IllegalStateException If max actives was reached and no place came free in time.
+	 */
+	void admit(boolean imported) throws IllegalStateException {
+		if (maxActives < 0) {
+			active.incrementAndGet();
+		} else if (queueDepth > 0 || !tryTakePlace()) { // don't overtake waiting transactions
+			if (maxWaitNanos == 0) {
+				refuse(imported, 0);
+			}
+			waitForPlace(imported);
+		}
+	}
+
+	/**
+	 * Takes a place regardless of max actives, e.g. for a subtransaction.
+	 */
+	void admitUnconditionally() {
+		active.incrementAndGet();
+	}
+
+	/**
+	 * Gives back the place of a transaction that ended, or failed to start.
+	 */
+	void release() {
+		active.decrementAndGet();
+		if (queueDepth > 0) {
+			lock.lock();
+			try {
+				handOutPlaces();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of active transactions, including subtransactions.
+	 */
+	int getActive() {
+		return active.get();
+	}
+
+	/**
+	 * @return The number of transactions that wait for a place.
+	 */
+	int getQueueDepth() {
+		return queueDepth;
+	}
+
+	private boolean tryTakePlace() {
+		int count = active.get();
+		while (count < maxActives) {
+			if (active.compareAndSet(count, count + 1)) {
+				return true;
+			}
+			count = active.get();
+		}
+		return false;
+	}
+
+	private ArrayDeque<Waiter> getWaiters(boolean imported) {
+		return imported && prioritizeImported ? importedWaiters : rootWaiters;
+	}
+
+	private void handOutPlaces() {
+		while (true) {
+			ArrayDeque<Waiter> waiters = importedWaiters.isEmpty() ? rootWaiters : importedWaiters;
+			if (waiters.isEmpty() || !tryTakePlace()) {
+				return;
+			}
+			Waiter next = waiters.poll();
+			next.admitted = true;
+			next.condition.signal();
+			queueDepth--;
+		}
+	}
+
+	private void waitForPlace(boolean imported) {
+		long start = System.nanoTime();
+		Waiter waiter = new Waiter(lock.newCondition());
+		ArrayDeque<Waiter> waiters = getWaiters(imported);
+		InterruptedException interruption = null;
+		lock.lock();
+		try {
+			waiters.add(waiter);
+			queueDepth++;
+			// a place may have come free before queueDepth was seen by release
+			handOutPlaces();
+			long remaining = maxWaitNanos;
+			while (!waiter.admitted && remaining > 0) {
+				try {
+					remaining = waiter.condition.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					interruption = e;
+					remaining = 0;
+				}
+			}
+			if (!waiter.admitted) {
+				waiters.remove(waiter);
+				queueDepth--;
+			}
+		} finally {
+			lock.unlock();
+		}
+		long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (interruption != null) {
+			// keep the place if we got one anyway
+			InterruptedExceptionHelper.handleInterruptedException(interruption);
+		}
+		if (!waiter.admitted) {
+			refuse(imported, waitMillis);
+		}
+		EventPublisher.INSTANCE.publish(new TransactionAdmissionEvent(true, imported, waitMillis, queueDepth, maxActives));
+	}
+
+	private void refuse(boolean imported, long waitMillis) throws IllegalStateException {
+		EventPublisher.INSTANCE.publish(new TransactionAdmissionEvent(false, imported, waitMillis, queueDepth, maxActives));
+		throw new IllegalStateException("Max number of active transactions reached:" + maxActives);
+	}
+
+	private static class Waiter {
+
+		final Condition condition;
+		boolean admitted; // guarded by lock
+
+		Waiter(Condition condition) {
+			this.condition = condition;
+		}
+	}
+
+}
@@ -8,9 +8,9 @@
 
 package com.atomikos.icatch.imp;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.atomikos.icatch.CompositeTransaction;
 import com.atomikos.icatch.CompositeTransactionManager;
@@ -32,46 +32,76 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
 {
 	private static final Logger LOGGER = LoggerFactory.createLogger(CompositeTransactionManagerImp.class);
 	
-	private Map<Thread, Stack<CompositeTransaction>> threadtotxmap_ = null;
-    private Map<CompositeTransaction, Thread> txtothreadmap_ = null;
+	/**
+	 * The transactions of one thread. Only the owning thread looks up its
+	 * current transaction, without locking; changes are made under the
+	 * instance's monitor, since a transaction can end in another thread
+	 * (e.g., on timeout) and then has to be removed from this one.
+	 * <p>
+	 * A thread only holds a context while it has transactions, so a pooled
+	 * thread does not keep this class (and its class loader) reachable after
+	 * a redeploy. Only the owning thread can remove its context; if another
+	 * thread ends its last transaction then the context is marked as
+	 * released, and the owning thread removes it on its next lookup -
+	 * unless it has associated a transaction with it again meanwhile.
+	 */
+	private static class ThreadContext {
+		
+		private Stack<CompositeTransaction> txs_;
+		private volatile CompositeTransaction current_;
+		private volatile boolean released_;
+		
+		CompositeTransaction getCurrent() {
+			return current_;
+		}
+		
+		boolean isReleased() {
+			return released_;
+		}
+		
+		void setReleased() {
+			released_ = true;
+		}
+		
+		Stack<CompositeTransaction> getStack() {
+			return txs_;
+		}
+		
+		void setStack ( Stack<CompositeTransaction> txs ) {
+			txs_ = txs;
+			current_ = ( txs == null || txs.isEmpty() ) ? null : txs.peek();
+			// the owner may have started a transaction in this context after another thread released it
+			if ( txs != null ) released_ = false;
+		}
+	}
+	
+	private final ThreadLocal<ThreadContext> threadContext_ = new ThreadLocal<ThreadContext>();
+	
+	// reverse index: to remove a transaction from the thread that it is associated with
+    private final Map<CompositeTransaction, ThreadContext> txtothreadmap_ = new ConcurrentHashMap<CompositeTransaction, ThreadContext> ();
 
 
     public CompositeTransactionManagerImp ()
     {
-        threadtotxmap_ = new HashMap<Thread, Stack<CompositeTransaction>> ();
-        txtothreadmap_ = new HashMap<CompositeTransaction, Thread> ();
-    }
-
-
-
-    /**
-     * Get the thread associated with a given transaction.
-     */
-
-    private Thread getThread ( CompositeTransaction ct )
-    {
-        Thread thread = null;
-
-        synchronized ( txtothreadmap_ ) {
-            thread = (Thread) txtothreadmap_.get ( ct );
-        }
-        return thread;
     }
 
     /**
      * Remove mappings for given thread.
      *
-     * @return Stack The tx stack that was for current thread.
+     * @return Stack The tx stack that was for the thread, or null if none.
      */
 
-    private Stack<CompositeTransaction> removeThreadMappings ( Thread thread )
+    private Stack<CompositeTransaction> removeThreadMappings ( ThreadContext thread )
     {
 
         Stack<CompositeTransaction> ret = null;
-        synchronized ( threadtotxmap_ ) {
-            ret = threadtotxmap_.remove ( thread );
-            CompositeTransaction tx = ret.peek ();
-            txtothreadmap_.remove ( tx );
+        synchronized ( thread ) {
+            ret = thread.getStack ();
+            if ( ret != null ) {
+            	thread.setStack ( null );
+            	CompositeTransaction tx = ret.peek ();
+            	txtothreadmap_.remove ( tx, thread );
+            }
         }
         return ret;
     }
@@ -84,37 +114,37 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
      *            by getting ct's coordinator.
      */
 
-    private void setThreadMappings ( CompositeTransaction ct , Thread thread )
+    private void setThreadMappings ( CompositeTransaction ct , ThreadContext thread )
             throws IllegalStateException, SysException
     {
         //case 21806: callbacks to ct to be made outside synchronized block
     	ct.addSubTxAwareParticipant ( this ); //step 1
 
-        synchronized ( threadtotxmap_ ) {
+        synchronized ( thread ) {
         	//between step 1 and here, intermediate timeout/rollback of the ct
         	//may have happened; make sure to check or we add a thread mapping
         	//that will never be removed!
         	if ( TxState.ACTIVE.equals ( ct.getState() )) {
-        		Stack<CompositeTransaction> txs = threadtotxmap_.get ( thread );
+        		Stack<CompositeTransaction> txs = thread.getStack ();
         		if ( txs == null )
         			txs = new Stack<CompositeTransaction>();
         		txs.push ( ct );
-        		threadtotxmap_.put ( thread, txs );
+        		thread.setStack ( txs );
         		txtothreadmap_.put ( ct, thread );
         	}
         }
-
+        releaseIfEmpty ( thread );
 
     }
 
-    private void restoreThreadMappings ( Stack<CompositeTransaction> stack , Thread thread )
+    private void restoreThreadMappings ( Stack<CompositeTransaction> stack , ThreadContext thread )
             throws IllegalStateException
     {
     	//case 21806: callbacks to ct to be made outside synchronized block
     	CompositeTransaction tx = stack.peek ();
     	tx.addSubTxAwareParticipant(this); //step 1
 
-        synchronized ( threadtotxmap_ ) {
+        synchronized ( thread ) {
         	//between step 1 and here, intermediate timeout/rollback of the ct
         	//may have happened; make sure to check or we add a thread mapping
         	//that will never be removed!
@@ -122,27 +152,63 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
         	
         	if ( state.isOneOf(TxState.ACTIVE, TxState.MARKED_ABORT) ) {
         		//also resume for marked abort - see case 26398
-        		Stack<CompositeTransaction> txs = threadtotxmap_.get ( thread );
+        		Stack<CompositeTransaction> txs = thread.getStack ();
         		if ( txs != null ) {
         		    throw new IllegalStateException ("Thread already has subtx stack" );
         		}
-        		threadtotxmap_.put ( thread, stack );
+        		thread.setStack ( stack );
         		txtothreadmap_.put ( tx, thread );
         	}
         }
+        releaseIfEmpty ( thread );
     }
 
-    private CompositeTransaction getCurrentTx ()
+    /**
+     * Removes the context of a thread that has no transactions left: right
+     * away if it is the calling thread's, or else on the owning thread's
+     * next lookup.
+     */
+
+    private void releaseIfEmpty ( ThreadContext thread )
     {
-        Thread thread = Thread.currentThread ();
-        synchronized ( threadtotxmap_ ) {
-            Stack<CompositeTransaction> txs = threadtotxmap_.get ( thread );
-            if ( txs == null )
-                return null;
-            else
-                return txs.peek ();
+        synchronized ( thread ) {
+            if ( thread.getStack () != null ) return;
+            if ( threadContext_.get () == thread ) {
+                threadContext_.remove ();
+            } else {
+                thread.setReleased ();
+            }
+        }
+    }
+
+    private ThreadContext getThreadContext ()
+    {
+        ThreadContext ret = threadContext_.get ();
+        if ( ret == null || ret.isReleased () ) {
+            ret = new ThreadContext ();
+            threadContext_.set ( ret );
+        }
+        return ret;
+    }
 
+    /**
+     * @return True if the calling thread holds a context, i.e. has transactions.
+     */
+
+    boolean hasThreadContext ()
+    {
+        return threadContext_.get () != null;
+    }
+
+    private CompositeTransaction getCurrentTx ()
+    {
+        ThreadContext thread = threadContext_.get ();
+        if ( thread == null ) return null;
+        if ( thread.isReleased () ) {
+            threadContext_.remove ();
+            return null;
         }
+        return thread.getCurrent ();
     }
 
     private TransactionService getTransactionService() {
@@ -246,8 +312,7 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
             LOGGER.logWarning("Recreating a transaction with existing transaction: " + ct.getTid());
         }
         ct = getTransactionService().recreateCompositeTransaction(context);
-        Thread t = Thread.currentThread ();
-        setThreadMappings ( ct, t );
+        setThreadMappings ( ct, getThreadContext () );
         return ct;
     }
 
@@ -262,7 +327,9 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
         	if(LOGGER.isDebugEnabled()){
         		LOGGER.logDebug("suspend() for transaction " + ret.getTid ());
         	}
-            removeThreadMappings(Thread.currentThread());
+            ThreadContext thread = threadContext_.get ();
+            removeThreadMappings ( thread );
+            releaseIfEmpty ( thread );
         } else {
         	if(LOGGER.isDebugEnabled()){
         		LOGGER.logDebug("suspend() called without a transaction context");
@@ -296,7 +363,7 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
         }
         ancestors.push ( ct );
 
-        restoreThreadMappings(ancestors, Thread.currentThread());
+        restoreThreadMappings ( ancestors, getThreadContext () );
         if(LOGGER.isDebugEnabled()) {
             LOGGER.logDebug("resume ( " + ct + " ) done for transaction " + ct.getTid ());
         }
@@ -346,7 +413,7 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
     {
         if ( ct == null ) return;
 
-        Thread thread = getThread ( ct );
+        ThreadContext thread = txtothreadmap_.get ( ct );
         if ( thread == null ) return;
 
         Stack<CompositeTransaction> mappings = removeThreadMappings ( thread );
@@ -356,6 +423,7 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
                 restoreThreadMappings(mappings, thread);
             }
         }
+        releaseIfEmpty ( thread );
 
     }
 
@@ -381,8 +449,7 @@ public class CompositeTransactionManagerImp implements CompositeTransactionManag
             ret = ct.createSubTransaction ();
 
         }
-        Thread thread = Thread.currentThread ();
-        setThreadMappings ( ret, thread );
+        setThreadMappings ( ret, getThreadContext () );
 
         return ret;
     }
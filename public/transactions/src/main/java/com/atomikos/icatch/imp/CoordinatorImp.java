@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.atomikos.finitestates.FSM;
 import com.atomikos.finitestates.FSMEnterEvent;
@@ -26,6 +27,7 @@ import com.atomikos.icatch.HeurCommitException;
 import com.atomikos.icatch.HeurHazardException;
 import com.atomikos.icatch.HeurMixedException;
 import com.atomikos.icatch.HeurRollbackException;
+import com.atomikos.icatch.OnePhaseParticipant;
 import com.atomikos.icatch.Participant;
 import com.atomikos.icatch.RecoveryCoordinator;
 import com.atomikos.icatch.RollbackException;
@@ -42,7 +44,7 @@ import com.atomikos.recovery.TxState;
 import com.atomikos.thread.TaskManager;
 import com.atomikos.timing.AlarmTimer;
 import com.atomikos.timing.AlarmTimerListener;
-import com.atomikos.timing.PooledAlarmTimer;
+import com.atomikos.timing.TimingWheel;
 
 /**
  *
@@ -57,7 +59,6 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
 	private static final Logger LOGGER = LoggerFactory.createLogger(CoordinatorImp.class);
 
     static long DEFAULT_MILLIS_BETWEEN_TIMER_WAKEUPS = 150;
-    // SHOULD NOT BE BIG, otherwise lots of sleeping threads -> OUT OF MEMORY!
     
     private static final int MAX_NUMBER_OF_TIMEOUT_TICKS_FOR_INDOUBTS = 30;
     private static final int MAX_NUMBER_OF_TIMEOUT_TICKS_BEFORE_ROLLBACK_OF_ACTIVES = 30;
@@ -65,6 +66,7 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
     private int localSiblingsStarted = 0;
     private int localSiblingsTerminated = 0;
     private AlarmTimer timer_ = null;
+    private final AtomicBoolean timeoutTaskRunning_ = new AtomicBoolean ( false );
 
     private long maxNumberOfTimeoutTicksBeforeHeuristicDecision_ = MAX_NUMBER_OF_TIMEOUT_TICKS_FOR_INDOUBTS;
     private long maxNumberOfTimeoutTicksBeforeRollback_ = MAX_NUMBER_OF_TIMEOUT_TICKS_BEFORE_ROLLBACK_OF_ACTIVES;
@@ -93,7 +95,7 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
         initFsm(TxState.ACTIVE);
        
         setStateHandler ( new ActiveStateHandler ( this ) );
-        startThreads ( DEFAULT_MILLIS_BETWEEN_TIMER_WAKEUPS );
+        startTimer ( DEFAULT_MILLIS_BETWEEN_TIMER_WAKEUPS );
         single_threaded_2pc_ = false;
         synchronizations = new ArrayList<Synchronization>();
     }
@@ -152,7 +154,7 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
         }
 
         setStateHandler ( new ActiveStateHandler ( this ) );
-        startThreads ( DEFAULT_MILLIS_BETWEEN_TIMER_WAKEUPS );
+        startTimer ( DEFAULT_MILLIS_BETWEEN_TIMER_WAKEUPS );
         synchronizations = new ArrayList<Synchronization>();
     }
 
@@ -214,6 +216,23 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
     }
 
 
+    /**
+     * @return The participant to commit as the last resource: the only
+     *         one-phase participant, or null if there is none or more than one.
+     */
+
+    Participant findLastResource ()
+    {
+        Participant ret = null;
+        for ( Participant p : participants_ ) {
+            if ( p instanceof OnePhaseParticipant ) {
+                if ( ret != null ) return null;
+                ret = p;
+            }
+        }
+        return ret;
+    }
+
     int getLocalSiblingCount ()
     {
         return localSiblingsStarted;
@@ -242,33 +261,25 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
     }
 
     /**
-     * Start threads, propagator and timer logic. Needed on construction AND by
+     * Start propagator and timer logic. Needed on construction AND by
      * replay request events: timers have stopped by then!
+     * The timer is on the shared {@link TimingWheel}, so it costs no thread.
      *
      * @param timeout
-     *            The timeout for the thread wakeup interval.
-     * @param console
-     *            The console, null if none.
+     *            The timeout for the timer wakeup interval.
      */
 
-    private void startThreads ( long timeout )
+    private void startTimer ( long timeout )
     {
     	synchronized ( fsm_ ) {
     		if ( timer_ == null ) { //not null for repeated recovery 
     			stateHandler_.activate ();
-    			timer_ = new PooledAlarmTimer(timeout);
-    			timer_.addAlarmTimerListener(this);
-    			submitTimer(timer_);
+    			timer_ = TimingWheel.SINGLETON.schedule(timeout, this);
     		} 
     	}
 
     }
 
-   
-    private void submitTimer(AlarmTimer timer) {
-    		TaskManager.SINGLETON.executeTask (timer);
-	}
-
 	protected long getTimeOut ()
     {
         return (maxNumberOfTimeoutTicksBeforeRollback_ - stateHandler_.getRollbackTicks ())
@@ -647,6 +658,37 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
         }
     }
 
+    /**
+     * Runs work of a timeout that may block, like a rollback, in a pooled
+     * thread instead of the thread of the timing wheel, which should only
+     * detect the timeout. The task is not submitted again while a previous
+     * one is still running.
+     *
+     * @param task
+     */
+
+    void executeTimeoutTask ( final Runnable task )
+    {
+        if ( !timeoutTaskRunning_.compareAndSet ( false, true ) ) return;
+        try {
+            TaskManager.SINGLETON.executeTask ( new Runnable() {
+                public void run ()
+                {
+                    try {
+                        task.run ();
+                    } catch ( Exception e ) {
+                        LOGGER.logWarning( "Exception on timeout of coordinator " + root_ , e );
+                    } finally {
+                        timeoutTaskRunning_.set ( false );
+                    }
+                }
+            } );
+        } catch ( RuntimeException e ) {
+            timeoutTaskRunning_.set ( false );
+            throw e;
+        }
+    }
+
     protected void dispose ()
     {
     	synchronized ( fsm_ ) {
@@ -675,8 +717,11 @@ public class CoordinatorImp implements CompositeCoordinator, Participant,
     {    
     	synchronized ( fsm_ ) {
     		if ( commit ) {
+    			Participant lastResource = findLastResource ();
     			if ( participants_.size () <= 1 ) {
     				commit ( true );
+    			} else if ( lastResource != null ) {
+    				stateHandler_.commitWithLastResource ( lastResource );
     			} else {
     				int prepareResult = prepare ();
     				// make sure to only do commit if NOT read only
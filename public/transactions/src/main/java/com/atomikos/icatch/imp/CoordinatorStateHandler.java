@@ -304,6 +304,23 @@ abstract class CoordinatorStateHandler
             HeurHazardException, java.lang.IllegalStateException,
             RollbackException, SysException;
 
+    /**
+     * Commits with the given one-phase participant as the last resource.
+     * Subclasses for states that allow this should override this, and may use
+     * the auxiliary last resource commit method provided by this class.
+     *
+     * @param lastResource
+     *            The only one-phase participant.
+     */
+
+    protected void commitWithLastResource ( Participant lastResource )
+            throws HeurRollbackException, HeurMixedException,
+            HeurHazardException, java.lang.IllegalStateException,
+            RollbackException, SysException
+    {
+        throw new IllegalStateException ( "Illegal state for last resource commit: " + getState () );
+    }
+
     /**
      * The corresponding 2PC method is delegated hereto. Subclasses should
      * override this, and may use the auxiliary rollback method provided by this
@@ -436,6 +453,54 @@ abstract class CoordinatorStateHandler
     }
 
 
+    /**
+     * Auxiliary method for last resource commit, after all other participants
+     * have been prepared. The one-phase commit of the last resource decides:
+     * only if it commits do we log COMMITTING and commit the others. Otherwise
+     * we roll back the others, like recovery would since no decision was
+     * logged.
+     *
+     * @param lastResource
+     *            The one-phase participant that was not prepared.
+     */
+
+    protected void commitLastResourceFromWithinCallback ( Participant lastResource )
+            throws HeurRollbackException, HeurMixedException,
+            HeurHazardException, java.lang.IllegalStateException,
+            RollbackException, SysException
+    {
+        Exception failure = null;
+        boolean rolledBack = false;
+
+        try {
+            lastResource.commit ( true );
+        } catch ( RollbackException | HeurRollbackException e ) {
+            failure = e;
+            rolledBack = true;
+        } catch ( HeurMixedException | HeurHazardException | RuntimeException e ) {
+            failure = e;
+        }
+
+        // no second round for the last resource, whatever its outcome
+        readOnlyTable_.add ( lastResource );
+
+        if ( failure == null ) {
+            commitFromWithinCallback ( false, false );
+        } else {
+            LOGGER.logWarning ( "Commit of last resource " + lastResource + " failed - rolling back the other participants", failure );
+            try {
+                rollbackFromWithinCallback ( true, false );
+            } catch ( HeurCommitException hc ) {
+                throw new HeurMixedException();
+            }
+            if ( rolledBack ) {
+                throw new RollbackException ( "Last resource rolled back: " + lastResource, failure );
+            }
+            throw new HeurHazardException ( "Outcome of last resource unknown: " + lastResource );
+        }
+    }
+
+
 	/**
      * Auxiliary method for rollback. This method can be reused in subclasses in
      * order to process rollback.
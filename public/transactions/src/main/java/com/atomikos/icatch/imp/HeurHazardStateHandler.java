@@ -46,6 +46,17 @@ class HeurHazardStateHandler extends CoordinatorStateHandler
     }
 
     protected void onTimeout ()
+    {
+        //replay blocks on the participants: not on the thread of the timer
+        getCoordinator ().executeTimeoutTask ( new Runnable() {
+            public void run ()
+            {
+                replay ();
+            }
+        } );
+    }
+
+    private void replay ()
     {
         // this state can only be reached through COMMITTING or ABORTING
         // so getCommitted can not be null
@@ -45,6 +45,17 @@ class HeurMixedStateHandler extends CoordinatorStateHandler
     }
 
     protected void onTimeout ()
+    {
+        //replay blocks on the participants: not on the thread of the timer
+        getCoordinator ().executeTimeoutTask ( new Runnable() {
+            public void run ()
+            {
+                replay ();
+            }
+        } );
+    }
+
+    private void replay ()
     {
         timeoutTicks++;
         // this state can only be reached through COMMITTING or ABORTING
@@ -58,12 +58,19 @@ class IndoubtStateHandler extends CoordinatorStateHandler
                     //local recovery will automatically do presumed abort after max_timeout
                     //for a root this is OK but for imported transactions this means a heuristic
                     LOGGER.logWarning ( "Transaction " + getCoordinator().getCoordinatorId() + " has timed out - performing heuristic rollback. See https://www.atomikos.com/Documentation/HeuristicExceptions for more details or try https://www.atomikos.com/Main/ExtremeTransactions for self-healing recovery.");
-                    rollbackWithAfterCompletionNotification(new RollbackCallback() {
-                        public void doRollback()
-                                throws HeurCommitException,
-                                HeurMixedException, SysException,
-                                HeurHazardException, IllegalStateException {
-                            rollbackFromWithinCallback(true, true);
+                    getCoordinator().executeTimeoutTask(new Runnable() {
+                        public void run() {
+                            try {
+                                rollbackWithAfterCompletionNotification(new RollbackCallback() {
+                                    public void doRollback()
+                                            throws HeurCommitException,
+                                            HeurMixedException, SysException,
+                                            HeurHazardException, IllegalStateException {
+                                        rollbackFromWithinCallback(true, true);
+                                    }});
+                            } catch ( Exception e ) {
+                                LOGGER.logWarning("Error in timeout of INDOUBT state: " + e.getMessage () );
+                            }
                         }});
                 } else {
                     //no heuristics => pending coordinator after failed commit or rollback: 
@@ -8,13 +8,38 @@
 
 package com.atomikos.icatch.imp;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.atomikos.icatch.config.Configuration;
 import com.atomikos.logging.Logger;
 import com.atomikos.logging.LoggerFactory;
-import com.atomikos.thread.TaskManager;
+import com.atomikos.timing.AlarmTimer;
+import com.atomikos.timing.AlarmTimerListener;
+import com.atomikos.timing.TimingWheel;
 
 /**
  * A propagator sends PropagationMessages to participants.
+ * If threaded, the messages go out in parallel on a bounded pool
+ * shared by all propagators; when all its threads are busy, the
+ * submitting thread sends the message itself. That way nested
+ * coordinators (who wait for their own replies) can never exhaust
+ * the pool and block each other.
+ * <p>
+ * Failed messages are retried with exponential backoff and jitter. If threaded,
+ * a retry is scheduled on the shared {@link TimingWheel} so no thread waits
+ * in between. A retry never runs on the thread of the wheel: if all threads
+ * of the pool are busy, it is scheduled again. If not threaded, the
+ * submitting thread waits since it needs the
+ * outcome anyway. Retries against any one resource are limited so a resource
+ * that is down does not get flooded once it comes back.
  */
 
 class Propagator
@@ -22,7 +47,15 @@ class Propagator
 	private static final Logger LOGGER = LoggerFactory.createLogger(Propagator.class);
 	
     static long RETRY_INTERVAL = Configuration.getConfigProperties().getOltpRetryInterval();
+    static long MAX_RETRY_INTERVAL = Configuration.getConfigProperties().getOltpMaxRetryInterval();
+    static int MAX_CONCURRENT_RETRIES = Configuration.getConfigProperties().getOltpMaxConcurrentRetries();
+
+    // the number of retries in progress, by resource - without entries for zero
+    private static final ConcurrentMap<String, Integer> retriesInProgress = new ConcurrentHashMap<String, Integer>();
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
 
+    static ThreadPoolExecutor executor;
 
     private boolean threaded_ = true;
 
@@ -35,44 +68,171 @@ class Propagator
     
     public synchronized void submitPropagationMessage ( PropagationMessage msg )
     {
-    		PropagatorThread t = new PropagatorThread ( msg );
+    		PropagatorThread t = new PropagatorThread ( msg, threaded_ );
     		if ( threaded_ ) {
-    			TaskManager.SINGLETON.executeTask ( t );
+    			getExecutor().execute ( t );
     		} else {
     			t.run();
     		}
     
     }
 
+    private static synchronized ThreadPoolExecutor getExecutor()
+    {
+    		if ( executor == null ) {
+    			executor = newExecutor ( Configuration.getConfigProperties().getThreaded2pcMaxThreads() );
+    		}
+    		return executor;
+    }
+
+    static ThreadPoolExecutor newExecutor ( int maxThreads )
+    {
+    		ThreadPoolExecutor ret = new ThreadPoolExecutor ( maxThreads, maxThreads, IDLE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+    				new SynchronousQueue<Runnable>(), new PropagatorThreadFactory(), new PropagatorRejectionHandler() );
+    		ret.allowCoreThreadTimeOut ( true );
+    		return ret;
+    }
+
+    private static class PropagatorThreadFactory implements ThreadFactory
+    {
+    		private final AtomicInteger count = new AtomicInteger ( 0 );
+
+    		@Override
+    		public Thread newThread ( Runnable r )
+    		{
+    			Thread thread = new Thread ( r, "Atomikos:2PC-" + count.incrementAndGet() );
+    			thread.setContextClassLoader ( getClass().getClassLoader() ); //cf case 185557: avoid thread leak in Tomcat
+    			thread.setDaemon ( true );
+    			return thread;
+    		}
+    }
+
+    /**
+     * Like CallerRunsPolicy, except for retries: these are submitted by the
+     * timing wheel, so they are scheduled again instead.
+     */
+    private static class PropagatorRejectionHandler implements RejectedExecutionHandler
+    {
+    		@Override
+    		public void rejectedExecution ( Runnable r, ThreadPoolExecutor executor )
+    		{
+    			if ( executor.isShutdown() ) return;
+    			PropagatorThread t = ( PropagatorThread ) r;
+    			if ( t.retries > 0 ) {
+    				if ( LOGGER.isTraceEnabled() ) LOGGER.logTrace ( "Propagator: no thread for retry - rescheduling message: " + t.msg );
+    				t.scheduleRetry ( retryDelay ( t.retries ) );
+    			} else {
+    				t.run();
+    			}
+    		}
+    }
+
+
+    
+    /**
+     * @param retry The number of the retry: 1 for the first one.
+     * @return The delay before the retry: the retry interval doubled for each earlier
+     * retry (up to the max), of which up to half is left out at random to spread retries.
+     */
+    static long retryDelay ( int retry )
+    {
+    		long delay = RETRY_INTERVAL;
+    		for ( int i = 1 ; i < retry && delay < MAX_RETRY_INTERVAL ; i++ ) {
+    			delay *= 2;
+    		}
+    		delay = Math.max ( 1, Math.min ( delay, MAX_RETRY_INTERVAL ) );
+    		return delay - ThreadLocalRandom.current().nextLong ( delay / 2 + 1 );
+    }
+
+    private static String retryKey ( PropagationMessage msg )
+    {
+    		// not the URI: for XA, that differs per transaction
+    		String ret = msg.getParticipant().getResourceName();
+    		if ( ret == null ) ret = msg.getParticipant().getURI();
+    		return ret;
+    }
+
+    static boolean startRetry ( String key )
+    {
+    		if ( key == null ) return true;
+    		final boolean[] started = new boolean[1];
+    		retriesInProgress.compute ( key, ( k , count ) -> {
+    			int current = count == null ? 0 : count;
+    			if ( current >= MAX_CONCURRENT_RETRIES ) return count;
+    			started[0] = true;
+    			return current + 1;
+    		});
+    		return started[0];
+    }
 
+    static void endRetry ( String key )
+    {
+    		if ( key == null ) return;
+    		retriesInProgress.computeIfPresent ( key, ( k , count ) -> count <= 1 ? null : count - 1 );
+    }
     
     private static class PropagatorThread implements Runnable
     {
     		private PropagationMessage msg;
+    		private final boolean threaded;
+    		private int retries = 0;
     		
-    		PropagatorThread ( PropagationMessage msg ) 
+    		PropagatorThread ( PropagationMessage msg, boolean threaded ) 
     		{
     			this.msg = msg;
+    			this.threaded = threaded;
     		}
     		
     		public void run() 
     		{
         		try {
-        			boolean tryAgain = true;
-        			do {
-        				tryAgain = msg.submit();
-        				if ( tryAgain  ) {
-        				  //wait a little before retrying
-        				  Thread.sleep ( RETRY_INTERVAL );
-                          if ( LOGGER.isTraceEnabled() ) LOGGER.logTrace ( "Propagator: retrying " + "message: " + msg );
+        			boolean tryAgain = retries == 0 ? msg.submit() : retry();
+        			while ( tryAgain ) {
+        				retries++;
+        				long delay = retryDelay ( retries );
+        				if ( threaded ) {
+        					scheduleRetry ( delay );
+        					return;
         				}
-        			} while ( tryAgain );
+        				//wait a little before retrying
+        				Thread.sleep ( delay );
+        				tryAgain = retry();
+        			}
         		}
         		catch ( Exception e ) {
         			LOGGER.logWarning ( "ERROR in propagator: " + e.getMessage () +
                             (msg != null ? " while sending message: " + msg : "") , e );
         		}
     		}
+
+    		/**
+    		 * @return True if the message should be tried again - also if the
+    		 * limit of retries for the resource is reached.
+    		 */
+    		private boolean retry()
+    		{
+    			String key = retryKey ( msg );
+    			if ( !startRetry ( key ) ) {
+    				if ( LOGGER.isTraceEnabled() ) LOGGER.logTrace ( "Propagator: postponing retry of message: " + msg );
+    				return true;
+    			}
+    			try {
+    				if ( LOGGER.isTraceEnabled() ) LOGGER.logTrace ( "Propagator: retrying " + "message: " + msg );
+    				return msg.submit();
+    			} finally {
+    				endRetry ( key );
+    			}
+    		}
+
+    		private void scheduleRetry ( long delay )
+    		{
+    			TimingWheel.SINGLETON.scheduleOnce ( delay, new AlarmTimerListener() {
+    				@Override
+    				public void alarm ( AlarmTimer timer ) {
+    					getExecutor().execute ( PropagatorThread.this );
+    				}
+    			});
+    		}
     	
     }
 }
@@ -19,6 +19,7 @@ import com.atomikos.icatch.event.transaction.TransactionHeuristicEvent;
 import com.atomikos.logging.Logger;
 import com.atomikos.logging.LoggerFactory;
 import com.atomikos.publish.EventPublisher;
+import com.atomikos.recovery.LineageIndex;
 import com.atomikos.recovery.LogReadException;
 import com.atomikos.recovery.PendingTransactionRecord;
 import com.atomikos.recovery.RecoveryLog;
@@ -73,7 +74,8 @@ public class RecoveryDomainService {
 				long startOfRecovery = System.currentTimeMillis();
 				Set<RecoverableResource> resourcesToRecover = getResourcesForRecovery();
 				Collection<PendingTransactionRecord> indoubtCoordinators = recoveryLog.getIndoubtTransactionRecords();
-				Collection<PendingTransactionRecord> foreignIndoubtCoordinators = extractForeignRecords(indoubtCoordinators);
+				LineageIndex indoubtLineages = new LineageIndex(indoubtCoordinators);
+				Collection<PendingTransactionRecord> foreignIndoubtCoordinators = extractForeignRecords(indoubtLineages);
 				Collection<PendingTransactionRecord> foreignCoordinatorsForHeuristicAbort = extractForeignIndoubtCoordinatorsForHeuristicAbort(foreignIndoubtCoordinators, startOfRecovery);
 				Collection<PendingTransactionRecord> expiredCommittingCoordinators = recoveryLog.getExpiredPendingCommittingTransactionRecordsAt(startOfRecovery);
 			
@@ -89,7 +91,7 @@ public class RecoveryDomainService {
 				Collection<PendingTransactionRecord> recordsToDelete = new HashSet<>();
 				if (allOk) {
 				    recordsToDelete.addAll(expiredCommittingCoordinators);
-				    Collection<PendingTransactionRecord> expiredNativeIndoubtCoordinators = extractNativeIndoubtCoordinatorsExpiredSince(startOfRecovery - maxTimeout, indoubtCoordinators);
+				    Collection<PendingTransactionRecord> expiredNativeIndoubtCoordinators = extractNativeIndoubtCoordinatorsExpiredSince(startOfRecovery - maxTimeout, indoubtLineages);
 				    recordsToDelete.addAll(expiredNativeIndoubtCoordinators);
 				}
 				recordsToDelete.addAll(foreignCoordinatorsForHeuristicAbort);
@@ -104,22 +106,21 @@ public class RecoveryDomainService {
 
 
     private Collection<PendingTransactionRecord> extractNativeIndoubtCoordinatorsExpiredSince(long momentInThePast,
-            Collection<PendingTransactionRecord> collection) {
-        return PendingTransactionRecord.collectLineages(
-                (PendingTransactionRecord r) -> r.isLocalRoot(recoveryDomainName) && !r.isForeignInDomain(recoveryDomainName) && r.expires < momentInThePast && r.state == TxState.IN_DOUBT ,
-                collection);
+            LineageIndex lineages) {
+        return lineages.collectLineages(
+                (PendingTransactionRecord r) -> r.isLocalRoot(recoveryDomainName) && !r.isForeignInDomain(recoveryDomainName) && r.expires < momentInThePast && r.state == TxState.IN_DOUBT);
     }
 
     private Collection<PendingTransactionRecord> extractForeignRecords(
-            Collection<PendingTransactionRecord> collection) {
-        return PendingTransactionRecord.collectLineages(
-                (PendingTransactionRecord r) -> r.isForeignInDomain(recoveryDomainName), 
-                collection);
+            LineageIndex lineages) {
+        return lineages.collectLineages(
+                (PendingTransactionRecord r) -> r.isForeignInDomain(recoveryDomainName));
     }
 
     private Collection<PendingTransactionRecord> extractForeignIndoubtCoordinatorsForHeuristicAbort(
             Collection<PendingTransactionRecord> foreignIndoubtCoordinators, long startOfRecovery) {
         HashSet<PendingTransactionRecord> ret = new HashSet<>();
+        LineageIndex lineages = new LineageIndex(foreignIndoubtCoordinators);
         Iterator<PendingTransactionRecord> it = foreignIndoubtCoordinators.iterator();
         while (it.hasNext()) {
             PendingTransactionRecord record = it.next();
@@ -132,12 +133,12 @@ public class RecoveryDomainService {
                     EventPublisher.INSTANCE.publish(event);
                 }
             }
-            for (PendingTransactionRecord entry : ret) {
-                foreignIndoubtCoordinators.remove(entry); //remove - so presumed abort will terminate this one
-                PendingTransactionRecord.removeAllDescendants(entry, foreignIndoubtCoordinators); //make sure that local descendants also abort
-                TransactionHeuristicEvent event = new TransactionHeuristicEvent(record.id, record.superiorId, TxState.HEUR_ABORTED);
-                EventPublisher.INSTANCE.publish(event);
-            }
+        }
+        for (PendingTransactionRecord entry : ret) {
+            foreignIndoubtCoordinators.remove(entry); //remove - so presumed abort will terminate this one
+            lineages.removeAllDescendants(entry, foreignIndoubtCoordinators); //make sure that local descendants also abort
+            TransactionHeuristicEvent event = new TransactionHeuristicEvent(entry.id, entry.superiorId, TxState.HEUR_ABORTED);
+            EventPublisher.INSTANCE.publish(event);
         }
         return ret;
     }
@@ -8,13 +8,12 @@
 
 package com.atomikos.icatch.imp;
 
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.atomikos.finitestates.FSMEnterEvent;
 import com.atomikos.finitestates.FSMEnterListener;
@@ -39,6 +38,7 @@ import com.atomikos.recovery.TxState;
 import com.atomikos.recovery.fs.RecoveryLogImp;
 import com.atomikos.thread.InterruptedExceptionHelper;
 import com.atomikos.thread.TaskManager;
+import com.atomikos.timing.TimingWheel;
 import com.atomikos.util.UniqueIdMgr;
 
 /**
@@ -49,23 +49,23 @@ public class TransactionServiceImp implements TransactionServiceProvider,
         FSMEnterListener, SubTxAwareParticipant, RecoveryService
 {
 	private static final Logger LOGGER = LoggerFactory.createLogger(TransactionServiceImp.class);
-    private static final int NUMLATCHES = 97;
     private static final Object shutdownSynchronizer = new Object();
+    private static final int CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors();
 
     
     private long maxTimeout_;
-    private Object[] rootLatches_ = null;
-    private Hashtable<String,CompositeTransaction> tidToTransactionMap_ = null;
-    private Map<String, CoordinatorImp> recreatedCoordinatorsByRootId = new HashMap<>();
-    private Map<String, CoordinatorImp> allCoordinatorsByCoordinatorId = new HashMap<>();
-    private boolean shutdownInProgress_ = false;
+    private Map<String,CompositeTransaction> tidToTransactionMap_ = null;
+    private Map<String, CoordinatorImp> recreatedCoordinatorsByRootId;
+    private Map<String, CoordinatorImp> allCoordinatorsByCoordinatorId;
+    // counts the entries of tidToTransactionMap_, including the transactions that are being created
+    private final AdmissionControl admissionControl_;
+    private volatile boolean shutdownInProgress_ = false;
     private UniqueIdMgr tidmgr_ = null;
     private StateRecoveryManager recoverymanager_ = null;
-    private boolean initialized_ = false;
+    private volatile boolean initialized_ = false;
    
 
     private Set<TransactionServicePlugin> tsListeners = new HashSet<>();
-    private int maxNumberOfActiveTransactions_;
     private String tmUniqueName_;
     private boolean single_threaded_2pc_;
 	private RecoveryLog recoveryLog;	
@@ -100,16 +100,36 @@ public class TransactionServiceImp implements TransactionServiceProvider,
              long maxtimeout , 
             int maxActives , boolean single_threaded_2pc, RecoveryLog recoveryLog )
     {
-        maxNumberOfActiveTransactions_ = maxActives;
+        this ( name, recoverymanager, tidmgr, maxtimeout, maxActives, 0, false, single_threaded_2pc, recoveryLog );
+    }
+
+    /**
+     * Create a new instance that can let new transactions wait for max actives.
+     *
+     * @param maxActivesWaitTimeout
+     *            The max time (in millis) that a new tx waits for a place if
+     *            max actives is reached - 0 to fail right away.
+     * @param maxActivesPrioritizeImported
+     *            Whether waiting imported txs go before waiting root txs.
+     *
+     * @see #TransactionServiceImp(String, StateRecoveryManager, UniqueIdMgr, long, int, boolean, RecoveryLog)
+     */
+
+    public TransactionServiceImp ( String name ,
+            StateRecoveryManager recoverymanager , UniqueIdMgr tidmgr ,
+             long maxtimeout , 
+            int maxActives , long maxActivesWaitTimeout , boolean maxActivesPrioritizeImported ,
+            boolean single_threaded_2pc, RecoveryLog recoveryLog )
+    {
+        admissionControl_ = new AdmissionControl ( maxActives, maxActivesWaitTimeout, maxActivesPrioritizeImported );
        
         initialized_ = false;
         recoverymanager_ = recoverymanager;
         tidmgr_ = tidmgr;
-        tidToTransactionMap_ = new Hashtable<String,CompositeTransaction>();
-        rootLatches_ = new Object[NUMLATCHES];
-        for (int i = 0; i < NUMLATCHES; i++) {
-            rootLatches_[i] = new Object();
-        }
+        int initialCapacity = initialCapacity ( maxActives );
+        tidToTransactionMap_ = new ConcurrentHashMap<String,CompositeTransaction>( initialCapacity, 0.75f, CONCURRENCY_LEVEL );
+        recreatedCoordinatorsByRootId = new ConcurrentHashMap<String,CoordinatorImp>( initialCapacity, 0.75f, CONCURRENCY_LEVEL );
+        allCoordinatorsByCoordinatorId = new ConcurrentHashMap<String,CoordinatorImp>( initialCapacity, 0.75f, CONCURRENCY_LEVEL );
 
         maxTimeout_ = maxtimeout;	
         
@@ -120,14 +140,13 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     }
 
     /**
-     * Get an object to lock for the given root. To increase concurrency and
-     * still provide atomic operations within the scope of one root.
-     *
-     * @return Object The object to lock for the given root.
+     * Size the maps for max actives without rehashing, if there is a limit.
      */
-    private Object getLatch ( String root )
+    private static int initialCapacity ( int maxActives )
     {
-        return rootLatches_[Math.abs ( root.toString().hashCode() % NUMLATCHES )];
+        int ret = 16;
+        if ( maxActives > 0 ) ret = Math.max ( ret, (int) ( maxActives / 0.75f ) + 1 );
+        return ret;
     }
 
     /**
@@ -144,12 +163,9 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     private void setTidToTx ( String tid , CompositeTransaction ct )
             throws IllegalStateException
     {
-        synchronized ( tidToTransactionMap_ ) {
-            if ( tidToTransactionMap_.containsKey ( tid.intern () ) )
-                throw new IllegalStateException ( "Already mapped: " + tid );
-            tidToTransactionMap_.put ( tid.intern (), ct );
-            ct.addSubTxAwareParticipant(this); // for GC purposes
-        }
+        if ( tidToTransactionMap_.putIfAbsent ( tid, ct ) != null )
+            throw new IllegalStateException ( "Already mapped: " + tid );
+        ct.addSubTxAwareParticipant(this); // for GC purposes
     }
 
     /**
@@ -162,16 +178,10 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     private void removeCoordinator ( CompositeCoordinator coord )
     {
 
-        synchronized ( shutdownSynchronizer ) {
-            synchronized ( getLatch ( coord.getRootId()) ) {
-                recreatedCoordinatorsByRootId.remove (coord.getRootId());
-                allCoordinatorsByCoordinatorId.remove(coord.getCoordinatorId());
-            }
-
-            // notify any waiting threads for shutdown
-            if ( allCoordinatorsByCoordinatorId.isEmpty() )
-                shutdownSynchronizer.notifyAll ();
-        }
+        // shutdown polls for allCoordinatorsByCoordinatorId to become empty
+        // only remove the root entry if it is coord's: a subtransaction's coordinator shares the root id
+        recreatedCoordinatorsByRootId.remove ( coord.getRootId(), coord );
+        allCoordinatorsByCoordinatorId.remove ( coord.getCoordinatorId() );
     }
 
     /**
@@ -187,7 +197,8 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     {
         if ( ct == null )
             return;
-        tidToTransactionMap_.remove ( ct.getTid ().intern () );
+        if ( tidToTransactionMap_.remove ( ct.getTid () ) != null )
+            admissionControl_.release ();
 
     }
 
@@ -240,32 +251,30 @@ public class TransactionServiceImp implements TransactionServiceProvider,
             LOGGER.logWarning ( "Attempt to create a transaction with a timeout that exceeds maximum - truncating to: " + maxTimeout_ );
         }
 
-        synchronized ( shutdownSynchronizer ) {
-            // check if shutting down -> do not allow new coordinator objects
-            // to be added, so that shutdown will eventually succeed.
-            if ( shutdownInProgress_ )
-                throw new IllegalStateException ( "Server is shutting down..." );
-
-           
-            String coordinatorId = root;
-            boolean subTransaction = (adaptor != null);
-            if (subTransaction) { //not a root
-            	coordinatorId = tidmgr_.get();
-            }
-            cc = new CoordinatorImp (recoveryDomainName, coordinatorId, root, adaptor, timeout, single_threaded_2pc_ );
-
-            recoverymanager_.register ( cc );
+        // check if shutting down -> do not allow new coordinator objects
+        // to be added, so that shutdown will eventually succeed.
+        if ( shutdownInProgress_ )
+            throw new IllegalStateException ( "Server is shutting down..." );
 
-            // now, add to root map, since we are sure there are not too many active txs
-            synchronized ( getLatch ( root) ) {
-                CoordinatorImp entryForRoot = recreatedCoordinatorsByRootId.get(root); 
-                if (entryForRoot == null) { //cf case 178075
-                	recreatedCoordinatorsByRootId.put(root, cc);
-                }
-                allCoordinatorsByCoordinatorId.put(coordinatorId, cc);
-            }
-            startlistening ( cc );
+        String coordinatorId = root;
+        boolean subTransaction = (adaptor != null);
+        if (subTransaction) { //not a root
+        	coordinatorId = tidmgr_.get();
+        }
+        cc = new CoordinatorImp (recoveryDomainName, coordinatorId, root, adaptor, timeout, single_threaded_2pc_ );
+
+        // now, add to root map, since we are sure there are not too many active txs
+        recreatedCoordinatorsByRootId.putIfAbsent ( root, cc ); //cf case 178075
+        allCoordinatorsByCoordinatorId.put(coordinatorId, cc);
+        if ( shutdownInProgress_ ) {
+            // shutdown started concurrently and may not have seen cc: undo
+            removeCoordinator ( cc );
+            cc.dispose (); // stops its timer
+            throw new IllegalStateException ( "Server is shutting down..." );
         }
+        // only register for logging once cc is sure to be created
+        recoverymanager_.register ( cc );
+        startlistening ( cc );
 
         return cc;
     }
@@ -300,21 +309,10 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     private CoordinatorImp getCoordinatorImpForRoot ( String root )
             throws SysException
     {
-        root = root.intern ();
         if ( !initialized_ )
             throw new IllegalStateException ( "Not initialized" );
 
-        CoordinatorImp cc = null;
-        synchronized ( shutdownSynchronizer ) {
-            // Synch on shutdownSynchronizer_ first to avoid
-            // deadlock, even if we don't seem to need it here
-
-            synchronized ( getLatch ( root ) ) {
-                cc = recreatedCoordinatorsByRootId.get(root);
-            }
-        }
-
-        return cc;
+        return recreatedCoordinatorsByRootId.get(root);
     }
     
    
@@ -426,13 +424,7 @@ public class TransactionServiceImp implements TransactionServiceProvider,
 
     public CompositeTransaction getCompositeTransaction ( String tid )
     {
-        CompositeTransaction ret = null;
-
-        synchronized ( tidToTransactionMap_ ) {
-            ret = (CompositeTransaction) tidToTransactionMap_.get ( tid.intern () );
-        }
-
-        return ret;
+        return tidToTransactionMap_.get ( tid );
     }
 
 
@@ -454,10 +446,16 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     		CoordinatorImp ccParent = (CoordinatorImp) parent
     				.getCompositeCoordinator ();
     		SubTransactionRecoveryCoordinator rc = new SubTransactionRecoveryCoordinator(ccParent.getCoordinatorId(), tmUniqueName_);
-    		// create NEW coordinator for subtx, with most of the parent settings
-    		// but without orphan checks since subtxs have no orphans
-    		CoordinatorImp cc = createCC ( tmUniqueName_, rc, parent.getCompositeCoordinator().getRootId(), parent.getTimeout () );
-    		ret = createCT ( tid, cc, lineage, parent.isSerial () );
+    		admissionControl_.admitUnconditionally ();
+    		try {
+    			// create NEW coordinator for subtx, with most of the parent settings
+    			// but without orphan checks since subtxs have no orphans
+    			CoordinatorImp cc = createCC ( tmUniqueName_, rc, parent.getCompositeCoordinator().getRootId(), parent.getTimeout () );
+    			ret = createCT ( tid, cc, lineage, parent.isSerial () );
+    		} catch ( RuntimeException e ) {
+    			admissionControl_.release ();
+    			throw e;
+    		}
     		ret.noLocalAncestors = false;
     		return ret;
     	} else {
@@ -470,7 +468,7 @@ public class TransactionServiceImp implements TransactionServiceProvider,
      * @see TransactionService
      */
 
-    public synchronized CompositeTransaction recreateCompositeTransaction (Propagation context) throws SysException {
+    public CompositeTransaction recreateCompositeTransaction (Propagation context) throws SysException {
         if ( !initialized_ )
             throw new IllegalStateException ( "Not initialized" );
         
@@ -480,40 +478,39 @@ public class TransactionServiceImp implements TransactionServiceProvider,
                     "Only transactions within the same domain (a.k.a. LogCloud) are allowed!");
         }
 
-        if ( maxNumberOfActiveTransactions_ >= 0 && tidToTransactionMap_.size () >= maxNumberOfActiveTransactions_ )
-            throw new IllegalStateException (
-                    "Max number of active transactions reached:" + maxNumberOfActiveTransactions_ );
+        // wait outside of the synchronized part, or the waiting would block all imports
+        admissionControl_.admit ( true );
 
-        CoordinatorImp cc = null;
         CompositeTransaction ct = null;
 
         try {
             String tid = tidmgr_.get ();
             boolean serial = context.isSerial ();
-            
-            CompositeTransaction root = context.getRootTransaction();
-            CompositeTransaction parent = context.getParentTransaction();
-            
-            synchronized ( shutdownSynchronizer ) {
-                synchronized ( getLatch ( root.getTid () ) ) {
-                    cc = getCoordinatorImpForRoot ( root.getTid () );
-                    if ( cc == null ) {
-                        RecoveryCoordinator coord = parent
-                                .getCompositeCoordinator ()
-                                .getRecoveryCoordinator ();
-                        cc = createCC (context.getRecoveryDomainName(), coord, root.getTid (), context.getTimeout () );
-                    }
-                }
-            }
+            CoordinatorImp cc = getOrCreateCoordinatorForImport ( context );
             ct = createCT ( tid, cc, context.getLineage(), serial );
 
         } catch ( Exception e ) {
+            admissionControl_.release ();
             throw new SysException ( "Error in recreate.", e );
         }
 
         return ct;
     }
     
+    private synchronized CoordinatorImp getOrCreateCoordinatorForImport ( Propagation context )
+    {
+        // synchronized, so no other import can create a coordinator for the same root meanwhile
+        CompositeTransaction root = context.getRootTransaction();
+        CoordinatorImp cc = getCoordinatorImpForRoot ( root.getTid () );
+        if ( cc == null ) {
+            RecoveryCoordinator coord = context.getParentTransaction()
+                    .getCompositeCoordinator ()
+                    .getRecoveryCoordinator ();
+            cc = createCC (context.getRecoveryDomainName(), coord, root.getTid (), context.getTimeout () );
+        }
+        return cc;
+    }
+
     private boolean usesDefaultRecovery() {
         return Configuration.getRecoveryLog() instanceof RecoveryLogImp;
     }
@@ -610,6 +607,7 @@ public class TransactionServiceImp implements TransactionServiceProvider,
         if ( exec != null ) {
         		exec.shutdown();
         }
+        TimingWheel.SINGLETON.shutdown();
 	}
 
     public synchronized void finalize () throws Throwable
@@ -628,19 +626,21 @@ public class TransactionServiceImp implements TransactionServiceProvider,
     {
         if ( !initialized_ ) throw new IllegalStateException ( "Not initialized" );
 
-        if ( maxNumberOfActiveTransactions_ >= 0 && 
-             tidToTransactionMap_.size () >= maxNumberOfActiveTransactions_ ) {
-            throw new IllegalStateException ( "Max number of active transactions reached:" + maxNumberOfActiveTransactions_ );
-        }
+        admissionControl_.admit ( false );
         
-        String tid = tidmgr_.get ();
-        Stack<CompositeTransaction> lineage = new Stack<CompositeTransaction>();
-        // create a CC with heuristic preference set to false,
-        // since it does not really matter anyway (since we are
-        // creating a root)
-        CoordinatorImp cc = createCC(tmUniqueName_, null, tid, timeout);
-        CompositeTransaction ct = createCT ( tid, cc, lineage, false );
-        return ct;
+        try {
+            String tid = tidmgr_.get ();
+            Stack<CompositeTransaction> lineage = new Stack<CompositeTransaction>();
+            // create a CC with heuristic preference set to false,
+            // since it does not really matter anyway (since we are
+            // creating a root)
+            CoordinatorImp cc = createCC(tmUniqueName_, null, tid, timeout);
+            CompositeTransaction ct = createCT ( tid, cc, lineage, false );
+            return ct;
+        } catch ( RuntimeException e ) {
+            admissionControl_.release ();
+            throw e;
+        }
     }
 
 	@Override
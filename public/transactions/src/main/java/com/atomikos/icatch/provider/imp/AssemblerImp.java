@@ -39,6 +39,7 @@ import com.atomikos.recovery.fs.InMemoryRepository;
 import com.atomikos.recovery.fs.OltpLogImp;
 import com.atomikos.recovery.fs.RecoveryLogImp;
 import com.atomikos.recovery.fs.Repository;
+import com.atomikos.recovery.fs.ShardedRepository;
 import com.atomikos.util.Atomikos;
 import com.atomikos.util.ClassLoadingHelper;
 import com.atomikos.util.UniqueIdMgr;
@@ -188,7 +189,10 @@ public class AssemblerImp implements Assembler {
 			LOGGER.logFatal ( msg );
 			throw new SysException(msg);
 		}
-		return new TransactionServiceImp(tmUniqueName, recoveryManager, idMgr, maxTimeout, maxActives, true, recoveryLog);
+		boolean threaded2pc = configProperties.getThreaded2pc();
+		return new TransactionServiceImp(tmUniqueName, recoveryManager, idMgr, maxTimeout, maxActives,
+				configProperties.getMaxActivesWaitTimeout(), configProperties.getMaxActivesPrioritizeImported(),
+				!threaded2pc, recoveryLog);
 	}
 
 	private Repository createRepository(ConfigProperties configProperties) {
@@ -241,7 +245,15 @@ public class AssemblerImp implements Assembler {
 		return oltpLog;
 	}
 
-	private CachedRepository createCoordinatorLogEntryRepository() throws LogException {
+	private Repository createCoordinatorLogEntryRepository() throws LogException {
+		ConfigProperties configProperties = Configuration.getConfigProperties();
+		int shards = configProperties.getLogShards();
+		if (shards > 1 || ShardedRepository.isShardedLogPresent(configProperties)) {
+			LOGGER.logInfo("Using a sharded log with " + Math.max(shards, 1) + " shard(s)...");
+			ShardedRepository repository = new ShardedRepository(Math.max(shards, 1));
+			repository.init();
+			return repository;
+		}
 		InMemoryRepository inMemoryCoordinatorLogEntryRepository = new InMemoryRepository();
 		inMemoryCoordinatorLogEntryRepository.init();
 		FileSystemRepository backupCoordinatorLogEntryRepository = new FileSystemRepository();
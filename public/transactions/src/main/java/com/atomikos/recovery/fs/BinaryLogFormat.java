@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+ /**
+  * Compact binary encoding of log records. Each log file version starts with
+  * a magic header, followed by frames of the form:
+  *
+  * <pre>
+  * int   length (of type + body)
+  * byte  type
+  * ...   body
+  * int   CRC32 (of type + body)
+  * </pre>
+  *
+  * Recovery domain names are dictionary-coded per file version: the first
+  * record of a new domain is preceded by a DOMAIN frame that assigns it a code.
+  * Strings are UTF-8 with a short length prefix (-1 for null).
+  * <p>
+  * Note: states are encoded by ordinal, so the order of {@link TxState} must never change.
+  */
+
+final class BinaryLogFormat {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(BinaryLogFormat.class);
+
+	// first byte is not printable so text logs can never be mistaken for binary ones
+	static final int MAGIC = 0xA7544C02;
+
+	static final int HEADER_SIZE = 4;
+
+	static final byte DOMAIN_FRAME = 1;
+
+	private static final byte RECORD_FRAME = 2;
+
+	static final int FRAME_OVERHEAD = 4 + 4; // length + CRC
+
+	private static final short NO_CODE = -1;
+
+	static final int MAX_FRAME_LENGTH = 4 * Short.MAX_VALUE + 64;
+
+	private static final TxState[] STATES = TxState.values();
+
+	private BinaryLogFormat() {
+	}
+
+	static boolean isMagic(int header) {
+		return header == MAGIC;
+	}
+
+	static void writeHeader(ByteBuffer buffer) {
+		buffer.putInt(MAGIC);
+	}
+
+	/**
+	 * Writer-side state: the domain dictionary of the current file version.
+	 * Not thread-safe.
+	 */
+	static class Encoder {
+
+		private final Map<String, Short> domainCodes = new HashMap<String, Short>();
+
+		/**
+		 * Clears the dictionary - to be called for each new file version.
+		 */
+		void reset() {
+			domainCodes.clear();
+		}
+
+		/**
+		 * Restores the dictionary of an existing file version, to append to it.
+		 *
+		 * @param domains The domain names, in the order of their codes.
+		 */
+		void restore(List<String> domains) {
+			reset();
+			for (int i = 0; i < domains.size(); i++) {
+				domainCodes.put(domains.get(i), (short) i);
+			}
+		}
+
+		/**
+		 * Encodes the record (and its domain entry, if needed) into the buffer.
+		 *
+		 * @return False if the buffer does not have enough room, in which case nothing was written.
+		 */
+		boolean encode(PendingTransactionRecord record, ByteBuffer buffer) {
+			byte[] id = toBytes(record.id);
+			byte[] superiorId = toBytes(record.superiorId);
+			Short code = domainCodes.get(record.recoveryDomainName);
+			byte[] newDomain = null;
+			short newCode = NO_CODE;
+			if (code == null && domainCodes.size() < Short.MAX_VALUE) {
+				newDomain = toBytes(record.recoveryDomainName);
+				newCode = (short) domainCodes.size();
+			}
+			byte[] inlineDomain = null;
+			if (code == null && newDomain == null) {
+				// dictionary full: write the name inline
+				inlineDomain = toBytes(record.recoveryDomainName);
+			}
+
+			int recordLength = 1 + 1 + 8 + 2 + stringSize(id) + stringSize(superiorId);
+			if (inlineDomain != null) {
+				recordLength += stringSize(inlineDomain);
+			}
+			int required = FRAME_OVERHEAD + recordLength;
+			int domainLength = 0;
+			if (newDomain != null) {
+				domainLength = 1 + 2 + stringSize(newDomain);
+				required += FRAME_OVERHEAD + domainLength;
+			}
+			if (buffer.remaining() < required) {
+				return false;
+			}
+
+			if (newDomain != null) {
+				int start = startFrame(buffer, domainLength, DOMAIN_FRAME);
+				buffer.putShort(newCode);
+				putString(buffer, newDomain);
+				endFrame(buffer, start);
+				domainCodes.put(record.recoveryDomainName, newCode);
+				code = newCode;
+			}
+			int start = startFrame(buffer, recordLength, RECORD_FRAME);
+			buffer.put((byte) record.state.ordinal());
+			buffer.putLong(record.expires);
+			buffer.putShort(code == null ? NO_CODE : code);
+			if (code == null) {
+				putString(buffer, inlineDomain);
+			}
+			putString(buffer, id);
+			putString(buffer, superiorId);
+			endFrame(buffer, start);
+			return true;
+		}
+
+		/**
+		 * @return An upper bound of the number of bytes needed to encode the record.
+		 */
+		static int maxEncodedSize(PendingTransactionRecord record) {
+			int ret = 2 * FRAME_OVERHEAD + 32;
+			ret += 3 * maxStringSize(record.recoveryDomainName);
+			ret += maxStringSize(record.id) + maxStringSize(record.superiorId);
+			return ret;
+		}
+
+		private static int maxStringSize(String s) {
+			return s == null ? 2 : 2 + 3 * s.length();
+		}
+
+		private static int startFrame(ByteBuffer buffer, int length, byte type) {
+			buffer.putInt(length);
+			int start = buffer.position();
+			buffer.put(type);
+			return start;
+		}
+
+		private static void endFrame(ByteBuffer buffer, int start) {
+			ByteBuffer frame = buffer.duplicate();
+			((Buffer) frame).limit(buffer.position());
+			((Buffer) frame).position(start);
+			CRC32 crc = new CRC32();
+			crc.update(frame);
+			buffer.putInt((int) crc.getValue());
+		}
+
+		private static int stringSize(byte[] bytes) {
+			return bytes == null ? 2 : 2 + bytes.length;
+		}
+
+		private static void putString(ByteBuffer buffer, byte[] bytes) {
+			if (bytes == null) {
+				buffer.putShort(NO_CODE);
+			} else {
+				buffer.putShort((short) bytes.length);
+				buffer.put(bytes);
+			}
+		}
+
+		private static byte[] toBytes(String s) {
+			if (s == null) return null;
+			byte[] ret = s.getBytes(StandardCharsets.UTF_8);
+			if (ret.length > Short.MAX_VALUE) {
+				throw new IllegalArgumentException("Value too long for log record: " + s);
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Reads binary frames (after the header) until EOF, until zero-filled
+	 * space, or until the first incomplete or corrupt frame, which is assumed to be the result of a crash
+	 * during the last write.
+	 *
+	 * @return The last record per id.
+	 */
+	static Map<String, PendingTransactionRecord> readContent(DataInputStream in) throws IOException {
+		Map<String, PendingTransactionRecord> ret = new HashMap<String, PendingTransactionRecord>();
+		List<String> domains = new ArrayList<String>();
+		CRC32 crc = new CRC32();
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (length == 0) {
+					break; // end of preallocated space
+				}
+				if (length < 1 || length > MAX_FRAME_LENGTH) {
+					LOGGER.logWarning("Unexpected record length " + length + " - logfile not closed properly last time?");
+					break;
+				}
+				byte[] frame = new byte[length];
+				in.readFully(frame);
+				int checksum = in.readInt();
+				crc.reset();
+				crc.update(frame, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					LOGGER.logWarning("Checksum mismatch - logfile not closed properly last time?");
+					break;
+				}
+				PendingTransactionRecord record = decode(ByteBuffer.wrap(frame), domains);
+				if (record != null) {
+					ret.put(record.id, record);
+				}
+			}
+		} catch (EOFException endOfLog) {
+			// normal end, or incomplete last frame: merely return what was read so far...
+		} catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException couldNotParseRecord) {
+			LOGGER.logWarning("Unexpected record format - logfile not closed properly last time?", couldNotParseRecord);
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The record, or null for a dictionary frame.
+	 */
+	static PendingTransactionRecord decode(ByteBuffer frame, List<String> domains) {
+		byte type = frame.get();
+		if (type == DOMAIN_FRAME) {
+			short code = frame.getShort();
+			String name = getString(frame);
+			if (code != domains.size()) {
+				throw new IllegalArgumentException("Unexpected domain code: " + code);
+			}
+			domains.add(name);
+			return null;
+		} else if (type == RECORD_FRAME) {
+			int ordinal = frame.get();
+			if (ordinal < 0 || ordinal >= STATES.length) {
+				throw new IllegalArgumentException("Unknown state ordinal: " + ordinal);
+			}
+			long expires = frame.getLong();
+			short code = frame.getShort();
+			String domain;
+			if (code == NO_CODE) {
+				domain = getString(frame);
+			} else {
+				domain = domains.get(code);
+			}
+			String id = getString(frame);
+			String superiorId = getString(frame);
+			return new PendingTransactionRecord(id, STATES[ordinal], expires, domain, superiorId);
+		}
+		throw new IllegalArgumentException("Unknown frame type: " + type);
+	}
+
+	private static String getString(ByteBuffer frame) {
+		short length = frame.getShort();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		frame.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -10,9 +10,20 @@ package com.atomikos.recovery.fs;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.atomikos.icatch.config.Configuration;
+import com.atomikos.icatch.event.log.LogCheckpointEvent;
 import com.atomikos.icatch.provider.ConfigProperties;
 import com.atomikos.logging.Logger;
 import com.atomikos.logging.LoggerFactory;
@@ -21,17 +32,37 @@ import com.atomikos.recovery.LogReadException;
 import com.atomikos.recovery.LogWriteException;
 import com.atomikos.recovery.PendingTransactionRecord;
 import com.atomikos.recovery.TxState;
+import com.atomikos.publish.EventPublisher;
+import com.atomikos.thread.TaskManager;
+import com.atomikos.timing.AlarmTimer;
+import com.atomikos.timing.AlarmTimerListener;
+import com.atomikos.timing.TimingWheel;
 
 public class CachedRepository  implements Repository {
 
 	private static final Logger LOGGER = LoggerFactory.createLogger(CachedRepository.class);
-	private boolean corrupt = false; 
+	private static final long MAX_CHECKPOINT_TIMER_INTERVAL = 60000;
+	private volatile boolean corrupt = false; 
 	private final InMemoryRepository inMemoryCoordinatorLogEntryRepository;
 
 	private final Repository backupCoordinatorLogEntryRepository;
 
-	private volatile long numberOfPutsSinceLastCheckpoint = 0;
-	private long checkpointInterval;
+	private final AtomicLong numberOfPutsSinceLastCheckpoint = new AtomicLong();
+	//puts share the read lock so concurrent writers can be group-committed; checkpoints are exclusive
+	private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+	//only one checkpoint at a time, be it in the background or not
+	private final Lock checkpointMutex = new ReentrantLock();
+	private final AtomicBoolean backgroundCheckpointScheduled = new AtomicBoolean();
+	//guarded by checkpointMutex: no more checkpoints once the backup is closed
+	private boolean closed = false;
+	//non-null while a background checkpoint is being written
+	private volatile Queue<PendingTransactionRecord> putsDuringCheckpoint;
+	private CheckpointPolicy checkpointPolicy;
+	//the state of the log after the last checkpoint, as input for the policy
+	private volatile long recordsAtLastCheckpoint;
+	private volatile long logSizeAfterLastCheckpoint;
+	private volatile long lastCheckpointTime = System.currentTimeMillis();
+	private AlarmTimer checkpointTimer;
 	private long forgetOrphanedLogEntriesDelay;
 	public CachedRepository(
 			InMemoryRepository inMemoryCoordinatorLogEntryRepository,
@@ -45,7 +76,7 @@ public class CachedRepository  implements Repository {
 		//populate inMemoryCoordinatorLogEntryRepository with backup data
 		
 		ConfigProperties configProperties =	Configuration.getConfigProperties();
-		checkpointInterval = configProperties.getCheckpointInterval();
+		checkpointPolicy = new CheckpointPolicy(configProperties);
 		forgetOrphanedLogEntriesDelay = configProperties.getForgetOrphanedLogEntriesDelay();
 		
 		try {
@@ -59,31 +90,172 @@ public class CachedRepository  implements Repository {
 			LOGGER.logFatal("Corrupted transaction log cache - restart JVM", e);
 			corrupt = true;
 		}
-		
+		if (checkpointPolicy.getMaxAge() > 0) {
+			startCheckpointTimer(Math.min(checkpointPolicy.getMaxAge(), MAX_CHECKPOINT_TIMER_INTERVAL));
+		}
+	}
+
+	/**
+	 * Without puts there are no checks, so an idle log is checked periodically.
+	 */
+	private void startCheckpointTimer(long interval) {
+		checkpointTimer = TimingWheel.SINGLETON.schedule(interval, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				if (!corrupt && evaluateCheckpointPolicy() != null) {
+					scheduleBackgroundCheckpoint();
+				}
+			}
+		});
 	}
 
 	@Override
-	public synchronized void put(String id, PendingTransactionRecord coordinatorLogEntry)
+	public void put(String id, PendingTransactionRecord coordinatorLogEntry)
 			throws IllegalArgumentException, LogWriteException {
 		
 		try {
-			if(needsCheckpoint()){
-				performCheckpoint();
+			checkpointIfNeeded();
+			checkpointLock.readLock().lock();
+			try {
+				backupCoordinatorLogEntryRepository.put(id, coordinatorLogEntry);
+				putInMemory(id, coordinatorLogEntry);
+			} finally {
+				checkpointLock.readLock().unlock();
 			}
-			backupCoordinatorLogEntryRepository.put(id, coordinatorLogEntry);
-			inMemoryCoordinatorLogEntryRepository.put(id, coordinatorLogEntry);
-			numberOfPutsSinceLastCheckpoint++;
 		} catch (Exception e) {
 			performCheckpoint();
 		}
 	}
 
-	private synchronized void performCheckpoint() throws LogWriteException {
+	/**
+	 * The record is visible in memory right away, even before it is durable.
+	 * If it fails to become durable, the next put will do a full checkpoint first.
+	 */
+	@Override
+	public CompletionStage<Void> putAsync(String id, PendingTransactionRecord coordinatorLogEntry) {
+		CompletionStage<Void> ret;
+		try {
+			checkpointIfNeeded();
+			checkpointLock.readLock().lock();
+			try {
+				ret = backupCoordinatorLogEntryRepository.putAsync(id, coordinatorLogEntry);
+				putInMemory(id, coordinatorLogEntry);
+			} finally {
+				checkpointLock.readLock().unlock();
+			}
+		} catch (Exception e) {
+			CompletableFuture<Void> failed = new CompletableFuture<Void>();
+			failed.completeExceptionally(e instanceof LogWriteException ? e : new LogWriteException(e));
+			ret = failed;
+		}
+		return ret.whenComplete((ignore, error) -> {
+			if (error != null) {
+				LOGGER.logWarning("Failed to write log record - will checkpoint before the next write", error);
+				corrupt = true;
+			}
+		});
+	}
+
+	private void checkpointIfNeeded() throws LogWriteException {
+		if (corrupt) {
+			//the log file cannot be trusted: no use writing to it before the checkpoint is done
+			performCheckpointIfStillNeeded();
+		} else if (evaluateCheckpointPolicy() != null) {
+			scheduleBackgroundCheckpoint();
+		}
+	}
+
+	private void putInMemory(String id, PendingTransactionRecord coordinatorLogEntry) {
+		inMemoryCoordinatorLogEntryRepository.put(id, coordinatorLogEntry);
+		Queue<PendingTransactionRecord> puts = putsDuringCheckpoint;
+		if (puts != null) {
+			puts.add(coordinatorLogEntry);
+		}
+		numberOfPutsSinceLastCheckpoint.incrementAndGet();
+	}
+
+	private void performCheckpointIfStillNeeded() throws LogWriteException {
+		checkpointMutex.lock();
+		try {
+			if (needsCheckpoint()) {
+				performCheckpoint();
+			}
+		} finally {
+			checkpointMutex.unlock();
+		}
+	}
+
+	private void scheduleBackgroundCheckpoint() {
+		if (backgroundCheckpointScheduled.compareAndSet(false, true)) {
+			TaskManager.SINGLETON.executeTask(() -> {
+				try {
+					performBackgroundCheckpoint();
+				} finally {
+					backgroundCheckpointScheduled.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes the checkpoint into a new version of the backup while puts go on
+	 * as usual, so they only have to wait for taking the snapshot and for
+	 * switching to the new version.
+	 */
+	private void performBackgroundCheckpoint() {
+		checkpointMutex.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			LogCheckpointEvent event = evaluateCheckpointPolicy();
+			if (corrupt || event == null) {
+				return;
+			}
+			LOGGER.logDebug(event.toString());
+			EventPublisher.INSTANCE.publish(event);
+			Queue<PendingTransactionRecord> puts = new ConcurrentLinkedQueue<PendingTransactionRecord>();
+			Collection<PendingTransactionRecord> coordinatorLogEntries;
+			checkpointLock.writeLock().lock();
+			try {
+				coordinatorLogEntries = purgeExpiredCoordinatorLogEntriesInStateAborting();
+				inMemoryCoordinatorLogEntryRepository.writeCheckpoint(coordinatorLogEntries);
+				numberOfPutsSinceLastCheckpoint.set(0);
+				recordsAtLastCheckpoint = coordinatorLogEntries.size();
+				lastCheckpointTime = System.currentTimeMillis();
+				putsDuringCheckpoint = puts;
+			} finally {
+				checkpointLock.writeLock().unlock();
+			}
+			backupCoordinatorLogEntryRepository.writeCheckpointInNewVersion(coordinatorLogEntries);
+			checkpointLock.writeLock().lock();
+			try {
+				putsDuringCheckpoint = null;
+				backupCoordinatorLogEntryRepository.switchToNewVersion(puts);
+				logSizeAfterLastCheckpoint = backupCoordinatorLogEntryRepository.getLogSize();
+			} finally {
+				checkpointLock.writeLock().unlock();
+			}
+		} catch (Exception corrupted) {
+			LOGGER.logWarning("Failed to write checkpoint - will try again later", corrupted);
+			corrupt = true;
+		} finally {
+			putsDuringCheckpoint = null;
+			checkpointMutex.unlock();
+		}
+	}
+
+	private void performCheckpoint() throws LogWriteException {
+		checkpointMutex.lock();
+		checkpointLock.writeLock().lock();
 		try {
 			Collection<PendingTransactionRecord> coordinatorLogEntries =	purgeExpiredCoordinatorLogEntriesInStateAborting();
 			backupCoordinatorLogEntryRepository.writeCheckpoint(coordinatorLogEntries);
 			inMemoryCoordinatorLogEntryRepository.writeCheckpoint(coordinatorLogEntries);
-			numberOfPutsSinceLastCheckpoint=0;
+			numberOfPutsSinceLastCheckpoint.set(0);
+			recordsAtLastCheckpoint = coordinatorLogEntries.size();
+			logSizeAfterLastCheckpoint = backupCoordinatorLogEntryRepository.getLogSize();
+			lastCheckpointTime = System.currentTimeMillis();
 			corrupt = false;
 		} catch (LogWriteException corrupted) {
 			LOGGER.logWarning("Failed to write checkpoint - will try again later", corrupted);
@@ -93,6 +265,9 @@ public class CachedRepository  implements Repository {
 			LOGGER.logWarning("Failed to write checkpoint - will try again later", corrupted);
 			corrupt = true;
 			throw new LogWriteException(corrupted);
+		} finally {
+			checkpointLock.writeLock().unlock();
+			checkpointMutex.unlock();
 		}
 	}
 
@@ -124,7 +299,23 @@ public class CachedRepository  implements Repository {
 	}
 
 	private boolean needsCheckpoint() {
-		return numberOfPutsSinceLastCheckpoint>=checkpointInterval || corrupt;
+		return corrupt || evaluateCheckpointPolicy() != null;
+	}
+
+	/**
+	 * @return The event describing why a checkpoint is needed now, or null if it is not.
+	 */
+	private LogCheckpointEvent evaluateCheckpointPolicy() {
+		long puts = numberOfPutsSinceLastCheckpoint.get();
+		long recordsInLog = recordsAtLastCheckpoint + puts;
+		long liveRecords = inMemoryCoordinatorLogEntryRepository.size();
+		long logSize = backupCoordinatorLogEntryRepository.getLogSize();
+		long millisSinceLastCheckpoint = System.currentTimeMillis() - lastCheckpointTime;
+		LogCheckpointEvent.Trigger trigger = checkpointPolicy.evaluate(puts, recordsInLog, liveRecords, logSize, logSizeAfterLastCheckpoint, millisSinceLastCheckpoint);
+		if (trigger == null) {
+			return null;
+		}
+		return new LogCheckpointEvent(trigger, recordsInLog, liveRecords, logSize, millisSinceLastCheckpoint);
 	}
 
 	@Override
@@ -138,11 +329,26 @@ public class CachedRepository  implements Repository {
 		return inMemoryCoordinatorLogEntryRepository.findAllCommittingCoordinatorLogEntries();
 	}
 
+	@Override
+	public Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() throws LogReadException {
+		return inMemoryCoordinatorLogEntryRepository.findAllIndoubtCoordinatorLogEntries();
+	}
+
 	
 
 	@Override
 	public void close() {
-		backupCoordinatorLogEntryRepository.close();
+		if (checkpointTimer != null) {
+			checkpointTimer.stopTimer();
+		}
+		//wait for any background checkpoint that is still writing to the backup
+		checkpointMutex.lock();
+		try {
+			closed = true;
+			backupCoordinatorLogEntryRepository.close();
+		} finally {
+			checkpointMutex.unlock();
+		}
 		inMemoryCoordinatorLogEntryRepository.close();
 	}
 
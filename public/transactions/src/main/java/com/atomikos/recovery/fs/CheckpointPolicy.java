@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import com.atomikos.icatch.event.log.LogCheckpointEvent.Trigger;
+import com.atomikos.icatch.provider.ConfigProperties;
+
+ /**
+  * Decides when the log needs a checkpoint: after a number of writes, when the
+  * log gets too big, when too many of its records are dead (superseded or final),
+  * or when it was written to but not checkpointed for too long - whichever comes first.
+  */
+
+class CheckpointPolicy {
+
+	private final long maxPuts;
+	private final long maxLogSize;
+	private final double maxDeadRatio;
+	private final long deadRatioMinRecords;
+	private final long maxAge;
+
+	CheckpointPolicy(long maxPuts, long maxLogSize, double maxDeadRatio, long deadRatioMinRecords, long maxAge) {
+		this.maxPuts = maxPuts;
+		this.maxLogSize = maxLogSize;
+		this.maxDeadRatio = maxDeadRatio;
+		this.deadRatioMinRecords = deadRatioMinRecords;
+		this.maxAge = maxAge;
+	}
+
+	CheckpointPolicy(ConfigProperties configProperties) {
+		this(configProperties.getCheckpointInterval(), configProperties.getCheckpointMaxLogSize(),
+				configProperties.getCheckpointMaxDeadRatio(), configProperties.getCheckpointDeadRatioMinRecords(),
+				configProperties.getCheckpointMaxAge());
+	}
+
+	long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * @param puts The number of records written since the last checkpoint.
+	 * @param recordsInLog The number of records in the log, dead or alive.
+	 * @param liveRecords
+	 * @param logSize The size in bytes, or -1 if not known.
+	 * @param logSizeAfterLastCheckpoint The size right after the last checkpoint: the log is only considered
+	 * too big if it has at least doubled since, or checkpoints would follow each other for a big live set.
+	 * @param millisSinceLastCheckpoint
+	 * @return The reason to checkpoint now, or null if no checkpoint is needed.
+	 */
+	Trigger evaluate(long puts, long recordsInLog, long liveRecords, long logSize, long logSizeAfterLastCheckpoint, long millisSinceLastCheckpoint) {
+		if (puts == 0) {
+			return null; // nothing changed since the last checkpoint
+		}
+		if (puts >= maxPuts) {
+			return Trigger.PUTS;
+		}
+		if (maxLogSize > 0 && logSize >= maxLogSize && logSize >= 2 * logSizeAfterLastCheckpoint) {
+			return Trigger.LOG_SIZE;
+		}
+		if (recordsInLog >= deadRatioMinRecords && recordsInLog - liveRecords > maxDeadRatio * recordsInLog) {
+			return Trigger.DEAD_RATIO;
+		}
+		if (maxAge > 0 && millisSinceLastCheckpoint >= maxAge) {
+			return Trigger.AGE;
+		}
+		return null;
+	}
+
+}
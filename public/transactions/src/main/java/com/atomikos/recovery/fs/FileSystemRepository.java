@@ -8,8 +8,10 @@
 
 package com.atomikos.recovery.fs;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,11 +19,12 @@ import java.io.InputStreamReader;
 import java.io.ObjectStreamException;
 import java.io.StreamCorruptedException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import com.atomikos.icatch.config.Configuration;
 import com.atomikos.icatch.provider.ConfigProperties;
@@ -32,60 +35,184 @@ import com.atomikos.recovery.LogException;
 import com.atomikos.recovery.LogReadException;
 import com.atomikos.recovery.LogWriteException;
 import com.atomikos.recovery.PendingTransactionRecord;
-import com.atomikos.util.VersionedFile;
+import com.atomikos.thread.TaskManager;
+import com.atomikos.timing.AlarmTimer;
+import com.atomikos.timing.AlarmTimerListener;
+import com.atomikos.timing.TimingWheel;
 
 public class FileSystemRepository implements Repository {
 
 	private static final Logger LOGGER = LoggerFactory.createLogger(FileSystemRepository.class);
-	private VersionedFile file;
-	private FileChannel rwChannel = null;
+	private LogFile file;
+	private LogFile.Writer currentVersion;
+	private LogFile.Writer checkpointVersion; // non-null while a checkpoint is written next to the current version
 	private LogFileLock lock_;
+	private GroupCommitWriter<PendingTransactionRecord> groupCommitWriter;
+	private boolean unforcedWrites;
+	private AlarmTimer lazyFlushTimer;
+	private final String shardBaseName;
+	private LogReplay.Result replayed; // of the last valid version, until the first checkpoint
+	private volatile long logSize;
+
+	public FileSystemRepository() {
+		this(null);
+	}
+
+	/**
+	 * For one shard of a {@link ShardedRepository}, which holds the lock for all shards.
+	 * 
+	 * @param shardBaseName The base name of the shard's files.
+	 */
+	FileSystemRepository(String shardBaseName) {
+		this.shardBaseName = shardBaseName;
+	}
 
 	@Override
 	public void init() throws LogException {
 		ConfigProperties configProperties = Configuration.getConfigProperties();
 		String baseDir = configProperties.getLogBaseDir();
 		String baseName = configProperties.getLogBaseName();
+		if (shardBaseName != null) {
+			baseName = shardBaseName;
+		}
 		LOGGER.logDebug("baseDir " + baseDir);
 		LOGGER.logDebug("baseName " + baseName);
-		lock_ = new LogFileLock(baseDir, baseName);
-		LOGGER.logDebug("LogFileLock " + lock_);
-		lock_.acquireLock();
-		file = new VersionedFile(baseDir, baseName, ".log");
+		if (shardBaseName == null) {
+			lock_ = new LogFileLock(baseDir, baseName);
+			LOGGER.logDebug("LogFileLock " + lock_);
+			lock_.acquireLock();
+		}
+		file = createLogFile(configProperties, baseDir, baseName);
+		if (configProperties.getEnableLogGroupCommit()) {
+			long maxDelay = configProperties.getLogGroupCommitMaxDelay();
+			int maxBatchSize = configProperties.getLogGroupCommitMaxBatchSize();
+			LOGGER.logDebug("Using group commit with max delay " + maxDelay + " and max batch size " + maxBatchSize);
+			groupCommitWriter = new GroupCommitWriter<PendingTransactionRecord>(batch -> writeToFile(batch, requiresForcedWrite(batch)), maxDelay, maxBatchSize);
+			groupCommitWriter.start();
+		}
+		startLazyFlushTimer(configProperties.getLogLazyFlushInterval());
+	}
+
+	private void startLazyFlushTimer(long interval) {
+		lazyFlushTimer = TimingWheel.SINGLETON.schedule(interval, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				// forcing can wait for a write in progress: keep the wheel's threads free
+				TaskManager.SINGLETON.executeTask(FileSystemRepository.this::forceUnforcedWrites);
+			}
+		});
+	}
 
+	private static boolean requiresForcedWrite(Collection<PendingTransactionRecord> records) {
+		for (PendingTransactionRecord record : records) {
+			if (record.requiresForcedWrite()) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
+	private static LogFile createLogFile(ConfigProperties configProperties, String baseDir, String baseName) {
+		String storage = configProperties.getLogStorage();
+		LogFile.Sync sync = parseSync(configProperties.getLogSync());
+		if (ConfigProperties.LOG_STORAGE_MAPPED_SEGMENTS.equals(storage)) {
+			long segmentSize = configProperties.getLogSegmentSize();
+			LOGGER.logDebug("Using memory-mapped log segments of " + segmentSize + " bytes");
+			if (sync == LogFile.Sync.DSYNC) {
+				LOGGER.logWarning("Log sync " + ConfigProperties.LOG_SYNC_DSYNC + " does not apply to memory-mapped log segments - using " + ConfigProperties.LOG_SYNC_FORCE + " instead");
+			}
+			return new SegmentedLogFile(baseDir, baseName, segmentSize, sync);
+		} else if (!ConfigProperties.LOG_STORAGE_FILE.equals(storage)) {
+			LOGGER.logWarning("Unknown log storage: " + storage + " - using " + ConfigProperties.LOG_STORAGE_FILE + " instead");
+		}
+		return new VersionedLogFile(baseDir, baseName, sync);
+	}
+
+	static LogFile.Sync parseSync(String sync) {
+		if (ConfigProperties.LOG_SYNC_DSYNC.equals(sync)) {
+			return LogFile.Sync.DSYNC;
+		} else if (ConfigProperties.LOG_SYNC_NONE_FOR_TESTING.equals(sync)) {
+			LOGGER.logWarning("Log sync " + sync + " does not make the log durable - do NOT use this in production!");
+			return LogFile.Sync.NONE;
+		} else if (!ConfigProperties.LOG_SYNC_FORCE.equals(sync)) {
+			LOGGER.logWarning("Unknown log sync: " + sync + " - using " + ConfigProperties.LOG_SYNC_FORCE + " instead");
+		}
+		return LogFile.Sync.FORCE;
+	}
+
 	@Override
 	public void put(String id, PendingTransactionRecord pendingTransactionRecord)
 			throws IllegalArgumentException, LogWriteException {
 
 		try {
 			initChannelIfNecessary();
-			write(pendingTransactionRecord, true);
+			boolean force = pendingTransactionRecord.requiresForcedWrite();
+			if (groupCommitWriter == null) {
+				writeToFile(Collections.singletonList(pendingTransactionRecord), force);
+			} else if (force) {
+				groupCommitWriter.write(pendingTransactionRecord);
+			} else {
+				//queued anyway, to stay in order with any pending forced writes
+				groupCommitWriter.enqueue(pendingTransactionRecord);
+			}
 		} catch (IOException e) {
 			throw new LogWriteException(e);
 		}
 	}
 
-	private synchronized void initChannelIfNecessary()
-			throws FileNotFoundException {
-		if (rwChannel == null) {
-			rwChannel = file.openNewVersionForNioWriting();
+	/**
+	 * Only asynchronous with group commit enabled: otherwise there is no writer
+	 * thread to hand the record to.
+	 */
+	@Override
+	public CompletionStage<Void> putAsync(String id, PendingTransactionRecord pendingTransactionRecord) {
+		if (groupCommitWriter == null) {
+			return Repository.super.putAsync(id, pendingTransactionRecord);
+		}
+		CompletableFuture<Void> ret = new CompletableFuture<Void>();
+		try {
+			initChannelIfNecessary();
+		} catch (IOException e) {
+			ret.completeExceptionally(new LogWriteException(e));
+			return ret;
 		}
+		groupCommitWriter.enqueue(pendingTransactionRecord).whenComplete((ignore, error) -> {
+			if (error == null) {
+				ret.complete(null);
+			} else {
+				ret.completeExceptionally(new LogWriteException(error));
+			}
+		});
+		return ret;
 	}
-	private void write(PendingTransactionRecord pendingTransactionRecord,
-			boolean flushImmediately) throws IOException {
-		String str = pendingTransactionRecord.toRecord();
-		byte[] buffer = str.getBytes();
-		ByteBuffer buff = ByteBuffer.wrap(buffer);
-		writeToFile(buff, flushImmediately);
+
+	private synchronized void initChannelIfNecessary()
+			throws IOException {
+		if (currentVersion == null) {
+			currentVersion = file.openNewVersion();
+		}
 	}
 
-	private synchronized void writeToFile(ByteBuffer buff, boolean force)
+	private synchronized void writeToFile(Collection<PendingTransactionRecord> records, boolean force)
 			throws IOException {
-		rwChannel.write(buff);
+		currentVersion.write(records);
+		logSize = currentVersion.size();
 		if (force) {
-			rwChannel.force(false);
+			currentVersion.force();
+			unforcedWrites = false;
+		} else {
+			unforcedWrites = true;
+		}
+	}
+
+	private synchronized void forceUnforcedWrites() {
+		if (unforcedWrites && currentVersion != null) {
+			try {
+				currentVersion.force();
+				unforcedWrites = false;
+			} catch (IOException e) {
+				LOGGER.logWarning("Failed to force log file - will retry later", e);
+			}
 		}
 	}
 
@@ -99,38 +226,61 @@ public class FileSystemRepository implements Repository {
 		throw new UnsupportedOperationException();
 	}
 
+	@Override
+	public Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() throws LogReadException {
+		throw new UnsupportedOperationException();
+	}
+
 	@Override
 	public Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() throws LogReadException {
-		FileInputStream fis = null;
-		try {
-			fis = file.openLastValidVersionForReading();
-		} catch (FileNotFoundException firstStart) {
-			// the file could not be opened for reading;
-			// merely return the default empty vector
-		} 
-		if (fis != null) {
-			return readFromInputStream(fis);
+		LogReplay.Result result = file.replayLastValidVersion();
+		synchronized (this) {
+			replayed = result;
 		}
-		//else
-		return Collections.emptyList();
+		return result.records.values();
 	}
 
+	/**
+	 * Reads the log content in either the binary format or the (older) text format.
+	 */
 	public static Collection<PendingTransactionRecord> readFromInputStream(
 			InputStream in) throws LogReadException {
 		Map<String, PendingTransactionRecord> coordinatorLogEntries = new HashMap<String, PendingTransactionRecord>();
-		BufferedReader br = null;
+		Closeable reader = null;
 		try {
-			InputStreamReader isr = new InputStreamReader(in);
-			br = new BufferedReader(isr);
-			coordinatorLogEntries = readContent(br);
+			BufferedInputStream bis = new BufferedInputStream(in);
+			reader = bis;
+			if (skipBinaryHeader(bis)) {
+				coordinatorLogEntries = BinaryLogFormat.readContent(new DataInputStream(bis));
+			} else {
+				LOGGER.logInfo("Reading log file in text format - will be migrated to binary format by the next checkpoint");
+				BufferedReader br = new BufferedReader(new InputStreamReader(bis));
+				reader = br;
+				coordinatorLogEntries = readContent(br);
+			}
 		} catch (Exception e) {
 			LOGGER.logFatal("Error in recover", e);
 			throw new LogReadException(e);
 		} finally {
-			closeSilently(br);
+			closeSilently(reader);
 		}
 		return coordinatorLogEntries.values();
 	}
+
+	private static boolean skipBinaryHeader(BufferedInputStream in) throws IOException {
+		in.mark(BinaryLogFormat.HEADER_SIZE);
+		byte[] header = new byte[BinaryLogFormat.HEADER_SIZE];
+		int read = 0;
+		int n = 0;
+		while (read < header.length && (n = in.read(header, read, header.length - read)) > 0) {
+			read += n;
+		}
+		boolean ret = read == header.length && BinaryLogFormat.isMagic(ByteBuffer.wrap(header).getInt());
+		if (!ret) {
+			in.reset();
+		}
+		return ret;
+	}
 	
 	static Map<String, PendingTransactionRecord> readContent(BufferedReader br)
 			throws IOException {
@@ -174,7 +324,7 @@ public class FileSystemRepository implements Repository {
 		}
 		return coordinatorLogEntries;
 	}
-	private static void closeSilently(BufferedReader fis) {
+	static void closeSilently(Closeable fis) {
 		try {
 			if (fis != null)
 				fis.close();
@@ -184,17 +334,18 @@ public class FileSystemRepository implements Repository {
 	}
 	
 	@Override
-	public void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) throws LogWriteException {
+	public synchronized void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) throws LogWriteException {
 
 		try {
+			abandonCheckpointVersion();
+			if (appendToReplayedVersionInstead(checkpointContent)) {
+				return;
+			}
 			closeOutput();
 
-			rwChannel = file.openNewVersionForNioWriting();
-			for (PendingTransactionRecord coordinatorLogEntry : checkpointContent) {
-				write(coordinatorLogEntry, false);
-			}
-			rwChannel.force(false);
-			file.discardBackupVersion();
+			currentVersion = file.openNewVersion();
+			writeToFile(checkpointContent, true);
+			currentVersion.discardBackupVersion();
 		} catch (FileNotFoundException firstStart) {
 			// the file could not be opened for reading;
 			// merely return the default empty vector
@@ -203,11 +354,93 @@ public class FileSystemRepository implements Repository {
 			throw new LogWriteException(e);
 		}
 	}
+
+	@Override
+	public void writeCheckpointInNewVersion(Collection<PendingTransactionRecord> checkpointContent) throws LogWriteException {
+		LogFile.Writer newVersion;
+		synchronized (this) {
+			abandonCheckpointVersion();
+			try {
+				newVersion = file.openNewVersion();
+			} catch (IOException e) {
+				LOGGER.logFatal("Failed to write checkpoint", e);
+				throw new LogWriteException(e);
+			}
+			checkpointVersion = newVersion;
+		}
+		// not synchronized: puts can still go to the current version meanwhile
+		try {
+			newVersion.write(checkpointContent);
+		} catch (IOException e) {
+			LOGGER.logFatal("Failed to write checkpoint", e);
+			synchronized (this) {
+				abandonCheckpointVersion();
+			}
+			throw new LogWriteException(e);
+		}
+	}
+
+	@Override
+	public synchronized void switchToNewVersion(Collection<PendingTransactionRecord> putsDuringCheckpoint) throws LogWriteException {
+		if (checkpointVersion == null) {
+			throw new LogWriteException(new IllegalStateException("No checkpoint was written - or it was abandoned"));
+		}
+		try {
+			checkpointVersion.write(putsDuringCheckpoint);
+			checkpointVersion.force();
+			closeOutput();
+			currentVersion = checkpointVersion;
+			checkpointVersion = null;
+			logSize = currentVersion.size();
+			currentVersion.discardBackupVersion();
+		} catch (Exception e) {
+			LOGGER.logFatal("Failed to write checkpoint", e);
+			abandonCheckpointVersion();
+			throw new LogWriteException(e);
+		}
+	}
+
+	/**
+	 * Skips the checkpoint right after startup if the replayed log already is compact and
+	 * has exactly the live records of the checkpoint: appending to it is then just as good.
+	 */
+	private boolean appendToReplayedVersionInstead(Collection<PendingTransactionRecord> checkpointContent) throws IOException {
+		LogReplay.Result result = replayed;
+		replayed = null; // only once: any later checkpoint compacts as usual
+		if (result == null || currentVersion != null || !result.isCompact()) {
+			return false;
+		}
+		if (checkpointContent.size() != result.liveRecords()) {
+			return false; // some records were purged or moved away
+		}
+		currentVersion = file.openLastValidVersionForAppending(result);
+		logSize = currentVersion.size();
+		LOGGER.logDebug("Log is compact: appending to it instead of writing a checkpoint");
+		return true;
+	}
+
+	@Override
+	public long getLogSize() {
+		return logSize;
+	}
+
+	private void abandonCheckpointVersion() {
+		if (checkpointVersion != null) {
+			try {
+				checkpointVersion.close();
+			} catch (IOException e) {
+				LOGGER.logWarning("Failed to close abandoned checkpoint - ignoring", e);
+			}
+			checkpointVersion = null;
+		}
+	}
 	
 	protected void closeOutput() throws IllegalStateException {
 		try {
-			if (file != null) {
-				file.close();
+			if (currentVersion != null) {
+				currentVersion.close();
+				currentVersion = null;
+				unforcedWrites = false; // only closed when replaced by a new version that is forced
 			}
 		} catch (IOException e) {
 			throw new IllegalStateException("Error closing previous output", e);
@@ -217,11 +450,23 @@ public class FileSystemRepository implements Repository {
 	@Override
 	public void close() {
 		try {
-			closeOutput();
+			if (lazyFlushTimer != null) {
+				lazyFlushTimer.stopTimer();
+			}
+			if (groupCommitWriter != null) {
+				groupCommitWriter.close();
+			}
+			synchronized (this) {
+				abandonCheckpointVersion();
+				forceUnforcedWrites();
+				closeOutput();
+			}
 		} catch (Exception e) {
 			LOGGER.logWarning("Error closing file - ignoring", e);
 		} finally {
-			lock_.releaseLock();
+			if (lock_ != null) {
+				lock_.releaseLock();
+			}
 		}
 
 	}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.thread.InterruptedExceptionHelper;
+import com.atomikos.thread.TaskManager;
+
+ /**
+  * Group commit support for the logs: concurrent writers queue their
+  * records and one flusher thread writes everything pending with a single
+  * write and a single force. Each writer returns only after its own record
+  * is durable.
+  */
+
+public class GroupCommitWriter<T> implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(GroupCommitWriter.class);
+
+	/**
+	 * The target of each batch: must write and force all elements before returning.
+	 */
+	public interface BatchSink<T> {
+		void writeAndForce(List<T> batch) throws IOException;
+	}
+
+	private static class PendingWrite<T> {
+		final T element;
+		final CompletableFuture<Void> durable = new CompletableFuture<Void>();
+
+		PendingWrite(T element) {
+			this.element = element;
+		}
+	}
+
+	private final BatchSink<T> sink;
+	private final long maxDelay;
+	private final int maxBatchSize;
+
+	private final Object queueMonitor = new Object();
+	private final List<PendingWrite<T>> queue = new ArrayList<PendingWrite<T>>();
+	private boolean running = false;
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	/**
+	 * @param sink
+	 * @param maxDelay The max time (in millis) that the flusher waits for more records before
+	 * flushing an incomplete batch. Zero means: flush whatever is pending as soon as possible.
+	 * @param maxBatchSize The max number of records in one flush.
+	 */
+	public GroupCommitWriter(BatchSink<T> sink, long maxDelay, int maxBatchSize) {
+		if (maxBatchSize < 1) throw new IllegalArgumentException("Batch size must be at least 1: " + maxBatchSize);
+		this.sink = sink;
+		this.maxDelay = maxDelay;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public void start() {
+		synchronized (queueMonitor) {
+			running = true;
+		}
+		TaskManager.SINGLETON.executeTask(this);
+	}
+
+	/**
+	 * Writes the element as part of the next batch and waits until it is durable.
+	 *
+	 * @param element
+	 * @throws IOException If the batch containing the element could not be written or forced.
+	 */
+	public void write(T element) throws IOException {
+		CompletableFuture<Void> durable = enqueue(element);
+		try {
+			durable.join(); // not interruptible: the caller needs to know the outcome
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	public CompletableFuture<Void> enqueue(T element) {
+		PendingWrite<T> pendingWrite = new PendingWrite<T>(element);
+		synchronized (queueMonitor) {
+			if (!running) {
+				pendingWrite.durable.completeExceptionally(new IOException("Log writer closed"));
+			} else {
+				queue.add(pendingWrite);
+				queueMonitor.notifyAll();
+			}
+		}
+		return pendingWrite.durable;
+	}
+
+	@Override
+	public void run() {
+		try {
+			List<PendingWrite<T>> batch = nextBatch();
+			while (batch != null) {
+				flush(batch);
+				batch = nextBatch();
+			}
+		} finally {
+			terminated.countDown();
+		}
+	}
+
+	/**
+	 * @return The next batch, or null if closed and all pending writes were flushed.
+	 */
+	private List<PendingWrite<T>> nextBatch() {
+		synchronized (queueMonitor) {
+			while (running && queue.isEmpty()) {
+				waitOnQueue(0);
+			}
+			if (queue.isEmpty()) {
+				return null;
+			}
+			if (maxDelay > 0) {
+				long deadline = System.currentTimeMillis() + maxDelay;
+				long remaining = maxDelay;
+				while (running && queue.size() < maxBatchSize && remaining > 0) {
+					waitOnQueue(remaining);
+					remaining = deadline - System.currentTimeMillis();
+				}
+			}
+			int size = Math.min(queue.size(), maxBatchSize);
+			List<PendingWrite<T>> head = queue.subList(0, size);
+			List<PendingWrite<T>> batch = new ArrayList<PendingWrite<T>>(head);
+			head.clear();
+			return batch;
+		}
+	}
+
+	private void waitOnQueue(long millis) {
+		try {
+			queueMonitor.wait(millis);
+		} catch (InterruptedException e) {
+			// keep flushing: writers are waiting for us
+			LOGGER.logWarning("Log flusher interrupted - ignoring", e);
+		}
+	}
+
+	private void flush(List<PendingWrite<T>> batch) {
+		List<T> elements = new ArrayList<T>(batch.size());
+		for (PendingWrite<T> pendingWrite : batch) {
+			elements.add(pendingWrite.element);
+		}
+		try {
+			sink.writeAndForce(elements);
+			for (PendingWrite<T> pendingWrite : batch) {
+				pendingWrite.durable.complete(null);
+			}
+		} catch (Throwable e) {
+			LOGGER.logWarning("Failed to flush batch of " + batch.size() + " log records", e);
+			for (PendingWrite<T> pendingWrite : batch) {
+				pendingWrite.durable.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting new writes and waits until all pending ones have been flushed.
+	 */
+	public void close() {
+		boolean wasRunning;
+		synchronized (queueMonitor) {
+			wasRunning = running;
+			running = false;
+			queueMonitor.notifyAll();
+		}
+		if (wasRunning) {
+			try {
+				terminated.await();
+			} catch (InterruptedException e) {
+				InterruptedExceptionHelper.handleInterruptedException(e);
+			}
+		}
+	}
+
+}
@@ -8,7 +8,11 @@
 
 package com.atomikos.recovery.fs;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -17,12 +21,30 @@ import java.util.concurrent.ConcurrentHashMap;
 import com.atomikos.recovery.PendingTransactionRecord;
 import com.atomikos.recovery.TxState;
 
+/**
+ * In-memory records, indexed by state and by superior so recovery queries
+ * only have to look at the matching records. Updates of the same id are
+ * serialized by the storage map; queries are weakly consistent, like the
+ * underlying concurrent collections.
+ */
+
 public class InMemoryRepository implements Repository {
 
-private  Map<String, PendingTransactionRecord> storage = new ConcurrentHashMap<String, PendingTransactionRecord>();
+	private final Map<String, PendingTransactionRecord> storage = new ConcurrentHashMap<String, PendingTransactionRecord>();
+
+	private final Map<TxState, Set<PendingTransactionRecord>> recordsByState = new EnumMap<TxState, Set<PendingTransactionRecord>>(TxState.class);
+
+	private final Map<String, Set<String>> childIdsBySuperiorId = new ConcurrentHashMap<String, Set<String>>();
+
+	private volatile boolean closed = true;
+
+	public InMemoryRepository() {
+		for (TxState state : TxState.values()) {
+			//never modified after construction, so safe to share
+			recordsByState.put(state, ConcurrentHashMap.<PendingTransactionRecord>newKeySet());
+		}
+	}
 
-	
-	private boolean closed = true;
 	@Override
 	public void init() {
 		closed=false;
@@ -30,79 +52,144 @@ private  Map<String, PendingTransactionRecord> storage = new ConcurrentHashMap<S
 
 
 	@Override
-	public synchronized void put(String id, PendingTransactionRecord coordinatorLogEntry)
+	public void put(String id, PendingTransactionRecord coordinatorLogEntry)
 			throws IllegalArgumentException {
-		PendingTransactionRecord existing = storage.get(id);
-		if (existing != null && existing == coordinatorLogEntry) {
-			throw new IllegalArgumentException("cannot put the same coordinatorLogEntry twice");
+		storage.compute(id, (key, existing) -> {
+			if (existing != null && existing == coordinatorLogEntry) {
+				throw new IllegalArgumentException("cannot put the same coordinatorLogEntry twice");
+			}
+			return replace(existing, coordinatorLogEntry);
+		});
+	}
+
+	/**
+	 * Updates the indexes - to be called while the storage mapping of the id is locked.
+	 *
+	 * @return The record to keep in storage, null if none.
+	 */
+	private PendingTransactionRecord replace(PendingTransactionRecord existing, PendingTransactionRecord coordinatorLogEntry) {
+		if (existing != null) {
+			recordsByState.get(existing.state).remove(existing);
+		}
+		if (coordinatorLogEntry.state.isFinalState()) {
+			if (existing != null) {
+				removeChild(existing.superiorId, existing.id);
+			}
+			return null;
+		}
+		recordsByState.get(coordinatorLogEntry.state).add(coordinatorLogEntry);
+		if (existing != null && existing.superiorId != null && !existing.superiorId.equals(coordinatorLogEntry.superiorId)) {
+			removeChild(existing.superiorId, existing.id);
 		}
-		if(coordinatorLogEntry.state.isFinalState()){
-			storage.remove(id);
-		} else {
-			storage.put(id, coordinatorLogEntry);	
+		addChild(coordinatorLogEntry.superiorId, coordinatorLogEntry.id);
+		return coordinatorLogEntry;
+	}
+
+	private void addChild(String superiorId, String id) {
+		if (superiorId != null) {
+			childIdsBySuperiorId.compute(superiorId, (key, children) -> {
+				if (children == null) {
+					children = ConcurrentHashMap.newKeySet();
+				}
+				children.add(id);
+				return children;
+			});
+		}
+	}
+
+	private void removeChild(String superiorId, String id) {
+		if (superiorId != null) {
+			childIdsBySuperiorId.computeIfPresent(superiorId, (key, children) -> {
+				children.remove(id);
+				return children.isEmpty() ? null : children;
+			});
 		}
 	}
 
 	@Override
-	public synchronized PendingTransactionRecord get(String coordinatorId) {
+	public PendingTransactionRecord get(String coordinatorId) {
 		return storage.get(coordinatorId);
 	}
 
 	@Override
-	public synchronized Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() {
+	public Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() {
 		Set<PendingTransactionRecord> res = new HashSet<PendingTransactionRecord>();
-		Collection<PendingTransactionRecord> allCoordinatorLogEntry = storage.values();	
-		for (PendingTransactionRecord coordinatorLogEntry : allCoordinatorLogEntry) {
-			TxState state = coordinatorLogEntry.state;
-			if(state == TxState.COMMITTING) {
-					res.add(coordinatorLogEntry);
-			} else if (state == TxState.IN_DOUBT) {
-				if(hasCommittingSuperiorCoordnator(coordinatorLogEntry)) {
-					res.add(coordinatorLogEntry);
-				}
-					
+		Collection<PendingTransactionRecord> committing = recordsByState.get(TxState.COMMITTING);
+		res.addAll(committing);
+		// in-doubt records are only committing if they have a committing ancestor
+		for (PendingTransactionRecord descendant : collectDescendants(committing)) {
+			if (descendant.state == TxState.IN_DOUBT) {
+				res.add(descendant);
 			}
 		}
 		return res;
 	}
 
-	private boolean hasCommittingSuperiorCoordnator(PendingTransactionRecord coordinatorLogEntry) {
-		if(coordinatorLogEntry.superiorId == null) return false;
-		
-		PendingTransactionRecord superiorCoordinator = storage.get(coordinatorLogEntry.superiorId);
-		if (superiorCoordinator == null) {
-			return false;
+	@Override
+	public Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() {
+		Set<PendingTransactionRecord> res = new HashSet<PendingTransactionRecord>();
+		Collection<PendingTransactionRecord> indoubt = recordsByState.get(TxState.IN_DOUBT);
+		res.addAll(indoubt);
+		res.addAll(collectDescendants(indoubt));
+		return res;
+	}
+
+	private Collection<PendingTransactionRecord> collectDescendants(Collection<PendingTransactionRecord> ancestors) {
+		Map<String, PendingTransactionRecord> ret = new HashMap<String, PendingTransactionRecord>();
+		Deque<String> todo = new ArrayDeque<String>();
+		for (PendingTransactionRecord ancestor : ancestors) {
+			todo.add(ancestor.id);
 		}
-		if (superiorCoordinator.state == TxState.COMMITTING) {
-			return true;
-		} else  {
-			return hasCommittingSuperiorCoordnator(superiorCoordinator);
+		while (!todo.isEmpty()) {
+			Set<String> childIds = childIdsBySuperiorId.get(todo.poll());
+			if (childIds != null) {
+				for (String childId : childIds) {
+					PendingTransactionRecord child = storage.get(childId);
+					if (child != null && ret.put(childId, child) == null) {
+						todo.add(childId);
+					}
+				}
+			}
 		}
+		return ret.values();
 	}
 
 	@Override
 	public void close() {
-		storage.clear();
+		clear();
 		closed=true;
 	}
 
+	private void clear() {
+		storage.clear();
+		childIdsBySuperiorId.clear();
+		for (Set<PendingTransactionRecord> records : recordsByState.values()) {
+			records.clear();
+		}
+	}
+
 	@Override
 	public Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() {
 		return storage.values();
 	}
 
+	int size() {
+		return storage.size();
+	}
+
+	/**
+	 * Replaces all content - not safe to call concurrently with other updates.
+	 */
 	@Override
 	public void writeCheckpoint(
 			Collection<PendingTransactionRecord> checkpointContent) {
-		storage.clear();
+		clear();
 		for (PendingTransactionRecord coordinatorLogEntry : checkpointContent) {
-			storage.put(coordinatorLogEntry.id, coordinatorLogEntry);
+			storage.compute(coordinatorLogEntry.id, (key, existing) -> replace(existing, coordinatorLogEntry));
 		}
 		
 	}
 
-	
-
 	public boolean isClosed() {
 		return closed;
 	}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.PendingTransactionRecord;
+
+ /**
+  * The physical storage behind a {@link FileSystemRepository}. Like
+  * {@link com.atomikos.util.VersionedFile}, a new version is written next to the
+  * last valid one, and only becomes valid for reading after
+  * {@link Writer#discardBackupVersion()}. The current version can still be
+  * written to while a newer one is being prepared.
+  */
+
+interface LogFile {
+
+	/**
+	 * How written records are made durable.
+	 */
+	enum Sync {
+		/**
+		 * Writes are buffered by the OS until {@link Writer#force()}.
+		 */
+		FORCE,
+		/**
+		 * Each write returns only when the data is on disk, so forcing is not needed.
+		 */
+		DSYNC,
+		/**
+		 * Nothing is ever forced: only for testing, a crash of the OS can lose records.
+		 */
+		NONE
+	}
+
+	/**
+	 * @return The content of the last valid version - empty if there is none.
+	 */
+	LogReplay.Result replayLastValidVersion() throws LogReadException;
+
+	default Collection<PendingTransactionRecord> readLastValidVersion() throws LogReadException {
+		return replayLastValidVersion().records.values();
+	}
+
+	/**
+	 * Opens a new (tentative) version for writing.
+	 */
+	Writer openNewVersion() throws IOException;
+
+	/**
+	 * Opens the last valid version for appending, after its last valid record.
+	 * Nothing is discarded, so no checkpoint is needed to make it valid.
+	 *
+	 * @param replayed The result of {@link #replayLastValidVersion()}, which must be appendable.
+	 */
+	Writer openLastValidVersionForAppending(LogReplay.Result replayed) throws IOException;
+
+	/**
+	 * Handle for writing one version. Not thread-safe.
+	 */
+	interface Writer {
+
+		/**
+		 * Appends the records, without forcing them to disk.
+		 */
+		void write(Collection<PendingTransactionRecord> records) throws IOException;
+
+		/**
+		 * Forces everything written so far to disk, as far as the {@link Sync} mode requires.
+		 */
+		void force() throws IOException;
+
+		/**
+		 * @return The number of bytes written to this version so far.
+		 */
+		long size();
+
+		/**
+		 * Makes this version the last valid one, discarding any older ones.
+		 * All written data must have been forced, and any writers of older
+		 * versions must have been closed before calling this method.
+		 */
+		void discardBackupVersion() throws IOException;
+
+		void close() throws IOException;
+	}
+
+}
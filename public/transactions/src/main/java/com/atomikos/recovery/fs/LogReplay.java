@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.thread.TaskManager;
+
+ /**
+  * Replays a file in the {@link BinaryLogFormat} from a (possibly memory-mapped)
+  * buffer with its complete content. Finding the
+  * frame boundaries is a cheap sequential scan (lengths only, plus the few
+  * dictionary frames), after which the record frames are verified and decoded
+  * in parallel chunks. The per-chunk results are merged in file order, so the
+  * last record per id wins as if the file had been read sequentially.
+  * <p>
+  * Like {@link BinaryLogFormat#readContent(java.io.DataInputStream)}, replay stops
+  * at the first incomplete or corrupt frame.
+  */
+
+final class LogReplay {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(LogReplay.class);
+
+	static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
+	private static final Executor EXECUTOR = TaskManager.SINGLETON::executeTask;
+
+	private LogReplay() {
+	}
+
+	/**
+	 * The outcome of replaying one file, or all files of a version.
+	 */
+	static final class Result {
+
+		static final Result EMPTY = new Result(Collections.<String, PendingTransactionRecord>emptyMap(), 0, false, 0, Collections.<String>emptyList());
+
+		final Map<String, PendingTransactionRecord> records;
+
+		/**
+		 * The number of records read, including superseded ones.
+		 */
+		final int recordsRead;
+
+		/**
+		 * True if the (last) file is in binary format and ends without any
+		 * corrupt or incomplete frames, so it can be appended to.
+		 */
+		final boolean appendable;
+
+		/**
+		 * The end of the last valid frame of the (last) file.
+		 */
+		final long appendPosition;
+
+		/**
+		 * The domain dictionary of the (last) file.
+		 */
+		final List<String> domains;
+
+		Result(Map<String, PendingTransactionRecord> records, int recordsRead, boolean appendable, long appendPosition, List<String> domains) {
+			this.records = records;
+			this.recordsRead = recordsRead;
+			this.appendable = appendable;
+			this.appendPosition = appendPosition;
+			this.domains = domains;
+		}
+
+		/**
+		 * For content that was not replayed from a binary file (like a log in the text format).
+		 */
+		static Result notAppendable(Collection<PendingTransactionRecord> records) {
+			Map<String, PendingTransactionRecord> map = new HashMap<String, PendingTransactionRecord>();
+			for (PendingTransactionRecord record : records) {
+				map.put(record.id, record);
+			}
+			return new Result(map, map.size(), false, 0, Collections.<String>emptyList());
+		}
+
+		int liveRecords() {
+			int ret = 0;
+			for (PendingTransactionRecord record : records.values()) {
+				if (!record.state.isFinalState()) {
+					ret++;
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * @return True if the file can be appended to and at most half of the records read
+		 * are superseded or final - so rewriting it in a checkpoint would not gain much.
+		 */
+		boolean isCompact() {
+			int live = liveRecords();
+			return appendable && recordsRead - live <= live;
+		}
+	}
+
+	static boolean isBinary(ByteBuffer file) {
+		return file.limit() >= BinaryLogFormat.HEADER_SIZE && BinaryLogFormat.isMagic(file.getInt(0));
+	}
+
+	/**
+	 * @param file The content of the file, starting with the binary header.
+	 */
+	static Result replay(ByteBuffer file) {
+		return replay(file, MIN_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	static Result replay(ByteBuffer file, int minChunkSize, int parallelism) {
+		int length = file.limit();
+		List<String> domains = new ArrayList<String>();
+		int[] recordOffsets = new int[1024];
+		int numberOfRecords = 0;
+		int position = BinaryLogFormat.HEADER_SIZE;
+		boolean clean = true;
+		CRC32 crc = new CRC32();
+		while (position < length) {
+			if (length - position < 4) {
+				clean = false;
+				break;
+			}
+			int frameLength = file.getInt(position);
+			if (frameLength == 0) {
+				break; // end of preallocated space
+			}
+			if (frameLength < 1 || frameLength > BinaryLogFormat.MAX_FRAME_LENGTH || length - position < BinaryLogFormat.FRAME_OVERHEAD + frameLength) {
+				LOGGER.logWarning("Unexpected record length " + frameLength + " - logfile not closed properly last time?");
+				clean = false;
+				break;
+			}
+			if (file.get(position + 4) == BinaryLogFormat.DOMAIN_FRAME) {
+				if (!decodeDomain(file, position, domains, crc)) {
+					clean = false;
+					break;
+				}
+			} else {
+				if (numberOfRecords == recordOffsets.length) {
+					recordOffsets = Arrays.copyOf(recordOffsets, 2 * numberOfRecords);
+				}
+				recordOffsets[numberOfRecords++] = position;
+			}
+			position += BinaryLogFormat.FRAME_OVERHEAD + frameLength;
+		}
+
+		List<Chunk> chunks = split(recordOffsets, numberOfRecords, Math.max(minChunkSize, position / Math.max(1, parallelism)));
+		decode(file, chunks, domains);
+
+		Map<String, PendingTransactionRecord> records = new HashMap<String, PendingTransactionRecord>();
+		int recordsRead = 0;
+		for (Chunk chunk : chunks) {
+			records.putAll(chunk.records);
+			recordsRead += chunk.recordsRead;
+			if (chunk.corruptOffset >= 0) {
+				position = chunk.corruptOffset; // later chunks come after the corruption
+				clean = false;
+				break;
+			}
+		}
+		return new Result(records, recordsRead, clean, position, domains);
+	}
+
+	private static boolean decodeDomain(ByteBuffer file, int position, List<String> domains, CRC32 crc) {
+		try {
+			ByteBuffer frame = verifiedFrame(file, position, crc);
+			if (frame == null) {
+				return false;
+			}
+			BinaryLogFormat.decode(frame, domains);
+			return true;
+		} catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException couldNotParseRecord) {
+			LOGGER.logWarning("Unexpected record format - logfile not closed properly last time?", couldNotParseRecord);
+			return false;
+		}
+	}
+
+	/**
+	 * @return The type and body of the frame at the given position, or null if the checksum does not match.
+	 */
+	private static ByteBuffer verifiedFrame(ByteBuffer file, int position, CRC32 crc) {
+		int frameLength = file.getInt(position);
+		ByteBuffer frame = file.duplicate();
+		((Buffer) frame).limit(position + 4 + frameLength);
+		((Buffer) frame).position(position + 4);
+		crc.reset();
+		crc.update(frame);
+		if ((int) crc.getValue() != file.getInt(position + 4 + frameLength)) {
+			LOGGER.logWarning("Checksum mismatch - logfile not closed properly last time?");
+			return null;
+		}
+		((Buffer) frame).position(position + 4);
+		return frame;
+	}
+
+	private static List<Chunk> split(int[] recordOffsets, int numberOfRecords, int chunkSize) {
+		List<Chunk> ret = new ArrayList<Chunk>();
+		int start = 0;
+		for (int i = 1; i < numberOfRecords; i++) {
+			if (recordOffsets[i] - recordOffsets[start] >= chunkSize) {
+				ret.add(new Chunk(recordOffsets, start, i));
+				start = i;
+			}
+		}
+		if (start < numberOfRecords) {
+			ret.add(new Chunk(recordOffsets, start, numberOfRecords));
+		}
+		return ret;
+	}
+
+	private static void decode(ByteBuffer file, List<Chunk> chunks, List<String> domains) {
+		if (chunks.size() == 1) {
+			chunks.get(0).decode(file, domains);
+		} else if (chunks.size() > 1) {
+			List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+			for (Chunk chunk : chunks) {
+				// each chunk with its own duplicate: buffers are not thread-safe
+				ByteBuffer view = file.duplicate();
+				results.add(CompletableFuture.runAsync(() -> chunk.decode(view, domains), EXECUTOR));
+			}
+			CompletableFuture.allOf(results.toArray(new CompletableFuture[results.size()])).join();
+		}
+	}
+
+	/**
+	 * A range of record frames. The domain dictionary is complete before any chunk is decoded,
+	 * and only read while decoding.
+	 */
+	private static class Chunk {
+
+		private final int[] recordOffsets;
+		private final int from;
+		private final int to;
+
+		final Map<String, PendingTransactionRecord> records = new HashMap<String, PendingTransactionRecord>();
+		int recordsRead;
+		int corruptOffset = -1;
+
+		Chunk(int[] recordOffsets, int from, int to) {
+			this.recordOffsets = recordOffsets;
+			this.from = from;
+			this.to = to;
+		}
+
+		void decode(ByteBuffer file, List<String> domains) {
+			CRC32 crc = new CRC32();
+			for (int i = from; i < to; i++) {
+				int offset = recordOffsets[i];
+				try {
+					ByteBuffer frame = verifiedFrame(file, offset, crc);
+					if (frame == null) {
+						corruptOffset = offset;
+						return;
+					}
+					PendingTransactionRecord record = BinaryLogFormat.decode(frame, domains);
+					if (record != null) {
+						records.put(record.id, record);
+						recordsRead++;
+					}
+				} catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException couldNotParseRecord) {
+					LOGGER.logWarning("Unexpected record format - logfile not closed properly last time?", couldNotParseRecord);
+					corruptOffset = offset;
+					return;
+				}
+			}
+		}
+	}
+
+}
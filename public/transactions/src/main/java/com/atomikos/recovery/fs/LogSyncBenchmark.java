@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+ /**
+  * Measures the latency of a durable log write for each {@link LogFile.Sync} mode,
+  * on the storage of the configured <code>com.atomikos.icatch.log_base_dir</code>
+  * (or the given folder), to help choose the value of
+  * <code>com.atomikos.icatch.log_sync</code>. Each write is one forced COMMITTING
+  * record, like a commit without group commit.
+  * <p>
+  * Usage: <code>java com.atomikos.recovery.fs.LogSyncBenchmark [folder [writes]]</code>
+  * <p>
+  * The files it creates are deleted afterwards, and the existing log is not touched.
+  */
+
+public class LogSyncBenchmark {
+
+	private static final String BASE_NAME = "logsync-benchmark";
+
+	private static final int DEFAULT_WRITES = 1000;
+
+	private static final int WARMUP_WRITES = 100;
+
+	public static void main(String[] args) throws IOException {
+		String dir = args.length > 0 ? args[0] : Configuration.getConfigProperties().getLogBaseDir();
+		int writes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WRITES;
+		if (writes <= 0) {
+			throw new IllegalArgumentException("Number of writes must be positive: " + writes);
+		}
+		System.out.println("Timing " + writes + " durable log writes in " + new File(dir).getAbsolutePath());
+		for (LogFile.Sync sync : LogFile.Sync.values()) {
+			try {
+				System.out.println(sync + ": " + run(dir, sync, writes));
+			} finally {
+				deleteFiles(dir);
+			}
+		}
+		System.out.println(LogFile.Sync.NONE + " is not durable: it only shows the cost of the write itself.");
+	}
+
+	private static String run(String dir, LogFile.Sync sync, int writes) throws IOException {
+		LogFile file = new VersionedLogFile(dir, BASE_NAME, sync);
+		LogFile.Writer writer = file.openNewVersion();
+		long[] nanos = new long[writes];
+		try {
+			for (int i = -WARMUP_WRITES; i < writes; i++) {
+				PendingTransactionRecord record = new PendingTransactionRecord("benchmark" + i, TxState.COMMITTING, System.currentTimeMillis(), BASE_NAME);
+				long start = System.nanoTime();
+				writer.write(Collections.singletonList(record));
+				writer.force();
+				if (i >= 0) {
+					nanos[i] = System.nanoTime() - start;
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		return summarize(nanos);
+	}
+
+	private static String summarize(long[] nanos) {
+		long total = 0;
+		for (long n : nanos) {
+			total += n;
+		}
+		Arrays.sort(nanos);
+		StringBuffer ret = new StringBuffer();
+		ret.append("avg ").append(micros(total / nanos.length)).
+			append(" p50 ").append(micros(nanos[nanos.length / 2])).
+			append(" p99 ").append(micros(nanos[(int) (nanos.length * 0.99)])).
+			append(" max ").append(micros(nanos[nanos.length - 1])).
+			append(" (").append(total == 0 ? "-" : String.valueOf(nanos.length * 1000000000L / total)).append(" writes/s)");
+		return ret.toString();
+	}
+
+	private static String micros(long nanos) {
+		return (nanos / 1000) + "us";
+	}
+
+	private static void deleteFiles(String dir) {
+		File[] files = new File(dir).listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File folder, String name) {
+				return name.startsWith(BASE_NAME);
+			}
+		});
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+}
@@ -9,6 +9,9 @@
 package com.atomikos.recovery.fs;
 
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 import com.atomikos.icatch.config.Configuration;
 import com.atomikos.logging.Logger;
 import com.atomikos.logging.LoggerFactory;
@@ -32,6 +35,24 @@ public class OltpLogImp implements OltpLog {
 	
 	@Override
 	public void write(PendingTransactionRecord pendingTransactionRecord) throws LogWriteException {
+		if (isValidForWriting(pendingTransactionRecord)) {
+			repository.put(pendingTransactionRecord.id, pendingTransactionRecord);	
+		}
+	}
+
+	@Override
+	public CompletionStage<Void> writeAsync(PendingTransactionRecord pendingTransactionRecord) {
+		if (isValidForWriting(pendingTransactionRecord)) {
+			return repository.putAsync(pendingTransactionRecord.id, pendingTransactionRecord);
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the record is not allowed anymore.
+	 * @return False if the record should be ignored.
+	 */
+	private boolean isValidForWriting(PendingTransactionRecord pendingTransactionRecord) {
 	    TxState state = pendingTransactionRecord.state;
 	    if (pendingTransactionRecord.expires < System.currentTimeMillis()) {
 	        if (state == TxState.IN_DOUBT) {
@@ -42,13 +63,11 @@ public class OltpLogImp implements OltpLog {
 	        }
 	            
 	    }
-		if(pendingTransactionRecord.state.isRecoverableState()) {
-			repository.put(pendingTransactionRecord.id, pendingTransactionRecord);	
-		} else {
+		if(!pendingTransactionRecord.state.isRecoverableState()) {
 			LOGGER.logWarning("Attempt to log a record with unexpected state : " + pendingTransactionRecord.state);
+			return false;
 		}
-			
-		
+		return true;
 	}
 
 	@Override
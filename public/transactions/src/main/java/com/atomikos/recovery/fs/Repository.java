@@ -9,6 +9,8 @@
 package com.atomikos.recovery.fs;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import com.atomikos.recovery.LogException;
 import com.atomikos.recovery.LogReadException;
@@ -20,14 +22,61 @@ public interface Repository {
 	void init() throws LogException;
 
 	void put(String id,PendingTransactionRecord pendingTransactionRecord) throws LogWriteException;
+
+	/**
+	 * Like {@link #put(String, PendingTransactionRecord)} but without waiting until the record is durable.
+	 * The default implementation simply puts synchronously.
+	 *
+	 * @return A stage that completes when the record is durable, or exceptionally with a {@link LogWriteException}.
+	 */
+	default CompletionStage<Void> putAsync(String id, PendingTransactionRecord pendingTransactionRecord) {
+		CompletableFuture<Void> ret = new CompletableFuture<Void>();
+		try {
+			put(id, pendingTransactionRecord);
+			ret.complete(null);
+		} catch (LogWriteException e) {
+			ret.completeExceptionally(e);
+		}
+		return ret;
+	}
 	
 	PendingTransactionRecord get(String coordinatorId) throws LogReadException;
 
 	Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() throws LogReadException;
+
+	/**
+	 * @return All in-doubt records, along with all of their descendants.
+	 */
+	Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() throws LogReadException;
 	
 	Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() throws LogReadException;
 
 	void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) throws LogWriteException;
+
+	/**
+	 * Writes a checkpoint into a new version while puts keep going to the current one,
+	 * until {@link #switchToNewVersion(Collection)} is called.
+	 * Only supported by repositories that can serve as the backup of a {@link CachedRepository}.
+	 */
+	default void writeCheckpointInNewVersion(Collection<PendingTransactionRecord> checkpointContent) throws LogWriteException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Appends the puts that were done since the checkpoint content was taken, and then
+	 * makes the new version the current one. The caller must make sure there are no concurrent puts.
+	 * Only supported by repositories that can serve as the backup of a {@link CachedRepository}.
+	 */
+	default void switchToNewVersion(Collection<PendingTransactionRecord> putsDuringCheckpoint) throws LogWriteException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * @return The size in bytes of the current log version, or -1 if not applicable.
+	 */
+	default long getLogSize() {
+		return -1;
+	}
 	
 	void close();
 }
@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.PendingTransactionRecord;
+
+ /**
+  * Log storage as a sequence of fixed-size segment files that are preallocated
+  * when created and appended to through a {@link MappedByteBuffer}. Because
+  * appends never grow the file, forcing them does not have to flush any file
+  * length metadata.
+  * <p>
+  * Mapped memory is not written through a channel, so {@link LogFile.Sync#DSYNC}
+  * does not apply: it is treated like {@link LogFile.Sync#FORCE}.
+  * <p>
+  * Segments are named <code>baseName.generation.segment.seg</code>. Each checkpoint
+  * starts a new generation; the last valid generation is the oldest one that
+  * still has its first segment, so deleting that segment is what discards a
+  * backup generation.
+  * <p>
+  * Note: the JDK cannot unmap files explicitly, and some platforms (like Windows)
+  * refuse to delete mapped files - so this storage is meant for Unix-like hosts.
+  */
+
+class SegmentedLogFile implements LogFile {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(SegmentedLogFile.class);
+
+	private static final String SUFFIX = ".seg";
+
+	private static final int PREALLOCATION_CHUNK_SIZE = 64 * 1024;
+
+	static final long MIN_SEGMENT_SIZE = PREALLOCATION_CHUNK_SIZE;
+
+	private final File dir;
+	private final String baseName;
+	private final int segmentSize;
+	private final boolean forceOnDemand;
+	private final Pattern segmentNamePattern;
+
+	SegmentedLogFile(String baseDir, String baseName, long segmentSize, Sync sync) {
+		if (segmentSize < MIN_SEGMENT_SIZE || segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		}
+		this.dir = new File(baseDir);
+		this.baseName = baseName;
+		this.segmentSize = (int) segmentSize;
+		this.forceOnDemand = sync != Sync.NONE;
+		this.segmentNamePattern = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d+)\\.(\\d+)" + Pattern.quote(SUFFIX));
+	}
+
+	/**
+	 * @return All segment files on disk, by generation and then by segment number.
+	 */
+	private SortedMap<Long, SortedMap<Integer, File>> listSegments() {
+		SortedMap<Long, SortedMap<Integer, File>> ret = new TreeMap<Long, SortedMap<Integer, File>>();
+		String[] names = dir.list();
+		if (names != null) {
+			for (String name : names) {
+				Matcher m = segmentNamePattern.matcher(name);
+				if (m.matches()) {
+					Long generation = Long.valueOf(m.group(1));
+					SortedMap<Integer, File> segments = ret.get(generation);
+					if (segments == null) {
+						segments = new TreeMap<Integer, File>();
+						ret.put(generation, segments);
+					}
+					segments.put(Integer.valueOf(m.group(2)), new File(dir, name));
+				}
+			}
+		}
+		return ret;
+	}
+
+	private File segmentFile(long generation, int segment) {
+		return new File(dir, baseName + "." + generation + "." + segment + SUFFIX);
+	}
+
+	/**
+	 * @return The last valid generation and its segments, in order - null if none.
+	 */
+	private Map.Entry<Long, SortedMap<Integer, File>> lastValidGeneration() {
+		for (Map.Entry<Long, SortedMap<Integer, File>> generation : listSegments().entrySet()) {
+			if (generation.getValue().containsKey(0)) {
+				return generation;
+			}
+			// else: left-over from an interrupted discard
+		}
+		return null;
+	}
+
+	/**
+	 * @return The segments of the last valid generation, in order - empty if none.
+	 */
+	SortedMap<Integer, File> lastValidSegments() {
+		Map.Entry<Long, SortedMap<Integer, File>> generation = lastValidGeneration();
+		if (generation == null) {
+			return new TreeMap<Integer, File>();
+		}
+		return generation.getValue();
+	}
+
+	/**
+	 * Replays the segments one by one (each in parallel chunks), in order.
+	 */
+	@Override
+	public LogReplay.Result replayLastValidVersion() throws LogReadException {
+		Map<String, PendingTransactionRecord> records = new HashMap<String, PendingTransactionRecord>();
+		int recordsRead = 0;
+		LogReplay.Result last = LogReplay.Result.EMPTY;
+		for (File file : lastValidSegments().values()) {
+			try {
+				last = replaySegment(file);
+			} catch (IOException e) {
+				throw new LogReadException(e);
+			}
+			records.putAll(last.records);
+			recordsRead += last.recordsRead;
+		}
+		return new LogReplay.Result(records, recordsRead, last.appendable, last.appendPosition, last.domains);
+	}
+
+	private LogReplay.Result replaySegment(File file) throws IOException, LogReadException {
+		MappedByteBuffer content;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			content = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+		if (LogReplay.isBinary(content)) {
+			return LogReplay.replay(content);
+		}
+		return LogReplay.Result.notAppendable(FileSystemRepository.readFromInputStream(new FileInputStream(file)));
+	}
+
+	@Override
+	public Writer openNewVersion() throws IOException {
+		SortedMap<Long, SortedMap<Integer, File>> existing = listSegments();
+		long generation = existing.isEmpty() ? 0 : existing.lastKey() + 1;
+		GenerationWriter ret = new GenerationWriter(generation);
+		ret.openNextSegment();
+		return ret;
+	}
+
+	@Override
+	public Writer openLastValidVersionForAppending(LogReplay.Result replayed) throws IOException {
+		Map.Entry<Long, SortedMap<Integer, File>> generation = lastValidGeneration();
+		if (generation == null) {
+			throw new IOException("No log segments to append to");
+		}
+		GenerationWriter ret = new GenerationWriter(generation.getKey());
+		ret.openLastSegment(generation.getValue().lastKey(), replayed);
+		return ret;
+	}
+
+	private void preallocate(FileChannel channel) throws IOException {
+		ByteBuffer zeroes = ByteBuffer.allocateDirect(PREALLOCATION_CHUNK_SIZE);
+		long position = 0;
+		while (position < segmentSize) {
+			((Buffer) zeroes).clear();
+			((Buffer) zeroes).limit((int) Math.min(PREALLOCATION_CHUNK_SIZE, segmentSize - position));
+			position += channel.write(zeroes, position);
+		}
+		channel.force(true); // once: length and blocks are fixed from now on
+	}
+
+	private class GenerationWriter implements Writer {
+
+		private final long generation;
+		private final BinaryLogFormat.Encoder encoder = new BinaryLogFormat.Encoder();
+		private int segment = -1;
+		private MappedByteBuffer mappedSegment;
+
+		GenerationWriter(long generation) {
+			this.generation = generation;
+		}
+
+		private void openNextSegment() throws IOException {
+			segment++;
+			File file = segmentFile(generation, segment);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				preallocate(channel);
+				mappedSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			} finally {
+				raf.close(); // the mapping stays valid
+			}
+			encoder.reset();
+			BinaryLogFormat.writeHeader(mappedSegment);
+			LOGGER.logDebug("Opened log segment " + file);
+		}
+
+		private void openLastSegment(int lastSegment, LogReplay.Result replayed) throws IOException {
+			segment = lastSegment;
+			File file = segmentFile(generation, segment);
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				mappedSegment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			} finally {
+				raf.close(); // the mapping stays valid
+			}
+			encoder.restore(replayed.domains);
+			((Buffer) mappedSegment).position((int) replayed.appendPosition);
+			LOGGER.logDebug("Appending to log segment " + file);
+		}
+
+		@Override
+		public void write(Collection<PendingTransactionRecord> records) throws IOException {
+			assertNotClosed();
+			for (PendingTransactionRecord record : records) {
+				if (!encoder.encode(record, mappedSegment)) {
+					forceMappedSegment(); // before we lose track of it
+					openNextSegment();
+					if (!encoder.encode(record, mappedSegment)) {
+						throw new IOException("Log segment size too small for record: " + record);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void force() throws IOException {
+			assertNotClosed();
+			forceMappedSegment();
+		}
+
+		private void forceMappedSegment() {
+			if (forceOnDemand) {
+				mappedSegment.force();
+			}
+		}
+
+		@Override
+		public long size() {
+			MappedByteBuffer current = mappedSegment;
+			return current == null ? 0 : (long) segment * segmentSize + current.position();
+		}
+
+		@Override
+		public void discardBackupVersion() throws IOException {
+			assertNotClosed();
+			for (Map.Entry<Long, SortedMap<Integer, File>> older : listSegments().headMap(generation).entrySet()) {
+				// first segment goes first: that invalidates the generation as a whole
+				for (File file : older.getValue().values()) {
+					if (file.exists() && !file.delete()) {
+						throw new IOException("Failed to delete backup segment: " + file);
+					}
+				}
+			}
+		}
+
+		private void assertNotClosed() throws IOException {
+			if (mappedSegment == null) throw new IOException("Log generation " + generation + " already closed");
+		}
+
+		@Override
+		public void close() {
+			mappedSegment = null;
+		}
+	}
+
+}
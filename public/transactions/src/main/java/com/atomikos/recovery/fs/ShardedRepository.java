@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.icatch.provider.ConfigProperties;
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.persistence.imp.LogFileLock;
+import com.atomikos.recovery.LineageIndex;
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.LogWriteException;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+/**
+ * Spreads the records over a number of independent shards by hashing their id.
+ * Each shard is a {@link CachedRepository} with its own log file, in-memory
+ * state and checkpoints, so writes to different shards do not contend.
+ * One log file lock covers all shards.
+ * <p>
+ * Records of a lineage can end up in different shards, so lineage queries
+ * look at the records of all shards.
+ * <p>
+ * At startup, records of an unsharded log or of shards that are no longer
+ * configured are moved into the current shards, as are records that hash
+ * to another shard than the one they were found in.
+ */
+
+public class ShardedRepository implements Repository {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(ShardedRepository.class);
+
+	private final Repository[] shards;
+
+	private LogFileLock lock_;
+
+	public ShardedRepository(int numberOfShards) {
+		if (numberOfShards < 1) throw new IllegalArgumentException("Number of shards must be at least 1: " + numberOfShards);
+		this.shards = new Repository[numberOfShards];
+	}
+
+	static String shardBaseName(String baseName, int shard) {
+		// must not start with baseName, or the unsharded log would take the shard files for its own versions
+		return "shard" + shard + "-" + baseName;
+	}
+
+	@Override
+	public void init() throws LogException {
+		ConfigProperties configProperties = Configuration.getConfigProperties();
+		String baseDir = configProperties.getLogBaseDir();
+		String baseName = configProperties.getLogBaseName();
+		lock_ = new LogFileLock(baseDir, baseName);
+		lock_.acquireLock();
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				InMemoryRepository inMemoryCoordinatorLogEntryRepository = new InMemoryRepository();
+				inMemoryCoordinatorLogEntryRepository.init();
+				FileSystemRepository backupCoordinatorLogEntryRepository = new FileSystemRepository(shardBaseName(baseName, i));
+				backupCoordinatorLogEntryRepository.init();
+				CachedRepository shard = new CachedRepository(inMemoryCoordinatorLogEntryRepository, backupCoordinatorLogEntryRepository);
+				shard.init();
+				shards[i] = shard;
+			}
+			moveIntoShards(baseName);
+			for (int i = shards.length; hasFilesStartingWith(baseDir, shardBaseName(baseName, i)); i++) {
+				moveIntoShards(shardBaseName(baseName, i));
+			}
+			moveMisplacedRecords();
+		} catch (LogException | RuntimeException e) {
+			close(); // the shards opened so far, and the lock
+			throw e;
+		}
+	}
+
+	/**
+	 * @return True if the configured log has been sharded before - in which case it
+	 * should still be opened as a sharded log, even if only one shard is configured now.
+	 */
+	public static boolean isShardedLogPresent(ConfigProperties configProperties) {
+		return hasFilesStartingWith(configProperties.getLogBaseDir(), shardBaseName(configProperties.getLogBaseName(), 0));
+	}
+
+	private static boolean hasFilesStartingWith(String baseDir, String prefix) {
+		String[] names = new File(baseDir).list((dir, name) -> name.startsWith(prefix));
+		return names != null && names.length > 0;
+	}
+
+	/**
+	 * Moves all pending records of the given (unsharded or retired) log into the shards.
+	 */
+	private void moveIntoShards(String baseName) throws LogException {
+		FileSystemRepository source = new FileSystemRepository(baseName);
+		source.init();
+		try {
+			Collection<PendingTransactionRecord> records = source.getAllCoordinatorLogEntries();
+			if (!records.isEmpty()) {
+				int moved = 0;
+				for (PendingTransactionRecord record : records) {
+					if (!record.state.isFinalState()) {
+						shardFor(record.id).put(record.id, record);
+						moved++;
+					}
+				}
+				LOGGER.logInfo("Moved " + moved + " pending log records from " + baseName + " into " + shards.length + " shard(s)");
+				source.writeCheckpoint(Collections.<PendingTransactionRecord>emptyList());
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	private void moveMisplacedRecords() throws LogException {
+		for (int i = 0; i < shards.length; i++) {
+			for (PendingTransactionRecord record : new ArrayList<PendingTransactionRecord>(shards[i].getAllCoordinatorLogEntries())) {
+				Repository shard = shardFor(record.id);
+				if (shard != shards[i]) {
+					shard.put(record.id, record);
+					PendingTransactionRecord moved = record.markAsTerminated();
+					shards[i].put(moved.id, moved);
+				}
+			}
+		}
+	}
+
+	private Repository shardFor(String id) {
+		return shards[Math.floorMod(id.hashCode(), shards.length)];
+	}
+
+	@Override
+	public void put(String id, PendingTransactionRecord pendingTransactionRecord) throws LogWriteException {
+		shardFor(id).put(id, pendingTransactionRecord);
+	}
+
+	@Override
+	public CompletionStage<Void> putAsync(String id, PendingTransactionRecord pendingTransactionRecord) {
+		return shardFor(id).putAsync(id, pendingTransactionRecord);
+	}
+
+	@Override
+	public PendingTransactionRecord get(String coordinatorId) throws LogReadException {
+		return shardFor(coordinatorId).get(coordinatorId);
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() throws LogReadException {
+		Set<PendingTransactionRecord> ret = new HashSet<PendingTransactionRecord>();
+		LineageIndex lineages = new LineageIndex(getAllCoordinatorLogEntries());
+		// same as InMemoryRepository: in-doubt records are only committing if they have a committing ancestor
+		for (PendingTransactionRecord record : lineages.collectLineages(r -> r.state == TxState.COMMITTING)) {
+			if (record.state == TxState.COMMITTING || record.state == TxState.IN_DOUBT) {
+				ret.add(record);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() throws LogReadException {
+		LineageIndex lineages = new LineageIndex(getAllCoordinatorLogEntries());
+		return lineages.collectLineages(r -> r.state == TxState.IN_DOUBT);
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() throws LogReadException {
+		Collection<PendingTransactionRecord> ret = new ArrayList<PendingTransactionRecord>();
+		for (Repository shard : shards) {
+			ret.addAll(shard.getAllCoordinatorLogEntries());
+		}
+		return ret;
+	}
+
+	@Override
+	public void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		try {
+			for (int i = 0; i < shards.length; i++) {
+				if (shards[i] != null) {
+					shards[i].close();
+					shards[i] = null;
+				}
+			}
+		} finally {
+			if (lock_ != null) {
+				lock_.releaseLock();
+				lock_ = null;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.util.VersionedFile;
+
+ /**
+  * The default log storage: one growing file per version, written through a
+  * reusable direct buffer. Each version is handled by its own
+  * {@link VersionedFile} so an older version can still be appended to
+  * while a newer one is being written.
+  * <p>
+  * In {@link LogFile.Sync#DSYNC} mode the channels are opened with
+  * {@link StandardOpenOption#DSYNC}, so each write is durable when it returns.
+  */
+
+class VersionedLogFile implements LogFile {
+
+	private static final int INITIAL_WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private static final String SUFFIX = ".log";
+
+	private final String baseDir;
+	private final String baseName;
+	private final Sync sync;
+
+	VersionedLogFile(String baseDir, String baseName, Sync sync) {
+		this.baseDir = baseDir;
+		this.baseName = baseName;
+		this.sync = sync;
+	}
+
+	@Override
+	public LogReplay.Result replayLastValidVersion() throws LogReadException {
+		VersionedFile file = new VersionedFile(baseDir, baseName, SUFFIX);
+		FileInputStream fis = null;
+		try {
+			fis = file.openLastValidVersionForReading();
+		} catch (FileNotFoundException firstStart) {
+			// the file could not be opened for reading;
+			// merely return the default empty result
+		}
+		if (fis == null) {
+			return LogReplay.Result.EMPTY;
+		}
+		boolean readAsStream = false;
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+			if (size <= Integer.MAX_VALUE) {
+				// read rather than mapped: a mapped file cannot be deleted on some platforms, which a later checkpoint needs to do
+				ByteBuffer content = ByteBuffer.allocate((int) size);
+				while (content.hasRemaining() && channel.read(content) >= 0) {
+				}
+				((Buffer) content).flip();
+				if (LogReplay.isBinary(content)) {
+					return LogReplay.replay(content);
+				}
+				channel.position(0);
+			}
+			readAsStream = true;
+		} catch (IOException e) {
+			throw new LogReadException(e);
+		} finally {
+			if (!readAsStream) {
+				FileSystemRepository.closeSilently(fis);
+			}
+		}
+		return LogReplay.Result.notAppendable(FileSystemRepository.readFromInputStream(fis));
+	}
+
+	@Override
+	public Writer openNewVersion() throws IOException {
+		VersionedFile file = new VersionedFile(baseDir, baseName, SUFFIX);
+		FileChannel channel;
+		if (sync == Sync.DSYNC) {
+			channel = file.openNewVersionForNioWriting(StandardOpenOption.DSYNC);
+		} else {
+			channel = file.openNewVersionForNioWriting();
+		}
+		channel.truncate(0); // in case of left-overs from a failed checkpoint
+		return new VersionWriter(file, channel, sync);
+	}
+
+	@Override
+	public Writer openLastValidVersionForAppending(LogReplay.Result replayed) throws IOException {
+		VersionedFile file = new VersionedFile(baseDir, baseName, SUFFIX);
+		FileChannel channel;
+		if (sync == Sync.DSYNC) {
+			channel = FileChannel.open(Paths.get(file.getCurrentVersionFileName()), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+		} else {
+			channel = new RandomAccessFile(file.getCurrentVersionFileName(), "rw").getChannel();
+		}
+		channel.truncate(replayed.appendPosition);
+		channel.position(replayed.appendPosition);
+		return new VersionWriter(channel, replayed.domains, sync);
+	}
+
+	private static class VersionWriter implements Writer {
+
+		private final VersionedFile file; // null when appending to the last valid version
+		private final FileChannel rwChannel;
+		private final boolean forceOnDemand;
+		private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(INITIAL_WRITE_BUFFER_SIZE);
+		private final BinaryLogFormat.Encoder encoder = new BinaryLogFormat.Encoder();
+		private long size;
+
+		VersionWriter(VersionedFile file, FileChannel rwChannel, Sync sync) {
+			this.file = file;
+			this.rwChannel = rwChannel;
+			this.forceOnDemand = sync == Sync.FORCE;
+			BinaryLogFormat.writeHeader(writeBuffer); // written along with the first records
+		}
+
+		VersionWriter(FileChannel rwChannel, List<String> domains, Sync sync) throws IOException {
+			this.file = null;
+			this.rwChannel = rwChannel;
+			this.forceOnDemand = sync == Sync.FORCE;
+			this.size = rwChannel.position();
+			encoder.restore(domains);
+		}
+
+		@Override
+		public void write(Collection<PendingTransactionRecord> records) throws IOException {
+			for (PendingTransactionRecord record : records) {
+				if (!encoder.encode(record, writeBuffer)) {
+					drainWriteBuffer();
+					if (!encoder.encode(record, writeBuffer)) {
+						writeBuffer = ByteBuffer.allocateDirect(BinaryLogFormat.Encoder.maxEncodedSize(record));
+						encoder.encode(record, writeBuffer);
+					}
+				}
+			}
+			drainWriteBuffer();
+		}
+
+		private void drainWriteBuffer() throws IOException {
+			((Buffer) writeBuffer).flip();
+			size += writeBuffer.remaining();
+			try {
+				while (writeBuffer.hasRemaining()) {
+					rwChannel.write(writeBuffer);
+				}
+			} finally {
+				((Buffer) writeBuffer).clear();
+			}
+		}
+
+		@Override
+		public void force() throws IOException {
+			if (forceOnDemand) {
+				rwChannel.force(false);
+			}
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public void discardBackupVersion() throws IOException {
+			if (file != null) {
+				file.discardBackupVersion();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (file != null) {
+				file.close();
+			} else {
+				rwChannel.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.jdbc;
+
+import java.util.Collection;
+import java.util.concurrent.CompletionStage;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.LogWriteException;
+import com.atomikos.recovery.OltpLog;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.fs.OltpLogImp;
+import com.atomikos.recovery.fs.RecoveryLogImp;
+
+ /**
+  * The OLTP and recovery log on top of a {@link JdbcRepository}: one object for both,
+  * as expected from an {@link com.atomikos.recovery.OltpLogFactory}.
+  */
+
+class JdbcLog extends RecoveryLogImp implements OltpLog {
+
+	private final JdbcRepository repository;
+
+	private final OltpLogImp oltpLog = new OltpLogImp();
+
+	private final String recoveryDomainName;
+
+	JdbcLog(JdbcRepository repository) {
+		this.repository = repository;
+		this.recoveryDomainName = Configuration.getConfigProperties().getTmUniqueName();
+		setRepository(repository);
+		oltpLog.setRepository(repository);
+	}
+
+	@Override
+	public void write(PendingTransactionRecord pendingTransactionRecord) throws LogWriteException {
+		oltpLog.write(pendingTransactionRecord);
+	}
+
+	@Override
+	public CompletionStage<Void> writeAsync(PendingTransactionRecord pendingTransactionRecord) {
+		return oltpLog.writeAsync(pendingTransactionRecord);
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getExpiredPendingCommittingTransactionRecordsAt(long time) throws LogReadException {
+		return repository.findAllExpiredCommittingLineages(time, recoveryDomainName);
+	}
+
+	@Override
+	public void close() {
+		oltpLog.close();
+	}
+
+}
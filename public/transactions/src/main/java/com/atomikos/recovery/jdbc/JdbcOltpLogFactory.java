@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.jdbc;
+
+import com.atomikos.icatch.SysException;
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.OltpLog;
+import com.atomikos.recovery.OltpLogFactory;
+
+ /**
+  * Logs to a database table instead of to files: see {@link JdbcRepository}.
+  * To enable it, register this class in a
+  * <code>META-INF/services/com.atomikos.recovery.OltpLogFactory</code> file
+  * on the classpath, and configure at least the
+  * <code>com.atomikos.icatch.jdbc_log_url</code> property (and the driver).
+  */
+
+public class JdbcOltpLogFactory implements OltpLogFactory {
+
+	@Override
+	public OltpLog createOltpLog() {
+		JdbcRepository repository = new JdbcRepository();
+		try {
+			repository.init();
+		} catch (LogException le) {
+			throw new SysException("Error in init: " + le.getMessage(), le);
+		}
+		return new JdbcLog(repository);
+	}
+
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.jdbc;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.icatch.provider.ConfigProperties;
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+import com.atomikos.recovery.LogException;
+import com.atomikos.recovery.LogReadException;
+import com.atomikos.recovery.LogWriteException;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+import com.atomikos.recovery.fs.GroupCommitWriter;
+import com.atomikos.recovery.fs.Repository;
+
+ /**
+  * Keeps the pending records in a database table, with one row per record:
+  * final records are deleted rather than stored. All access goes through one
+  * dedicated non-XA connection. Concurrent writers are coalesced by a
+  * {@link GroupCommitWriter}, so each flush is one transaction with one
+  * statement batch of deletes and one of inserts.
+  * <p>
+  * Queries use the indexes on the state and on the superior id, so recovery
+  * only reads the records it needs. The table is created if it does not exist yet.
+  */
+
+public class JdbcRepository implements Repository {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(JdbcRepository.class);
+
+	private static final String COLUMNS = "ID, STATE, EXPIRES, RECOVERY_DOMAIN, SUPERIOR_ID";
+
+	// keeps IN clauses well below the parameter limits of all common databases
+	private static final int MAX_IDS_PER_QUERY = 100;
+
+	private String url;
+	private String user;
+	private String password;
+	private String table;
+	private Connection connection;
+	private GroupCommitWriter<PendingTransactionRecord> groupCommitWriter;
+
+	@Override
+	public void init() throws LogException {
+		ConfigProperties configProperties = Configuration.getConfigProperties();
+		url = configProperties.getJdbcLogUrl();
+		user = configProperties.getJdbcLogUser();
+		password = configProperties.getJdbcLogPassword();
+		table = configProperties.getJdbcLogTable();
+		LOGGER.logDebug("Using JDBC log table " + table + " at " + url);
+		try {
+			createTableIfNecessary();
+		} catch (SQLException e) {
+			closeConnection();
+			throw new LogWriteException(e);
+		}
+		groupCommitWriter = new GroupCommitWriter<PendingTransactionRecord>(this::writeBatch,
+				configProperties.getLogGroupCommitMaxDelay(), configProperties.getLogGroupCommitMaxBatchSize());
+		groupCommitWriter.start();
+	}
+
+	/**
+	 * @return A new connection to the log database: called again after a connection has failed.
+	 */
+	Connection openConnection() throws SQLException {
+		if (user.isEmpty()) {
+			return DriverManager.getConnection(url);
+		}
+		return DriverManager.getConnection(url, user, password);
+	}
+
+	private Connection getConnection() throws SQLException {
+		if (connection == null) {
+			connection = openConnection();
+			connection.setAutoCommit(false);
+		}
+		return connection;
+	}
+
+	private void closeConnection() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				LOGGER.logDebug("Failed to close JDBC log connection - ignoring", e);
+			} finally {
+				connection = null;
+			}
+		}
+	}
+
+	private void rollbackAndCloseConnection() {
+		if (connection != null) {
+			try {
+				connection.rollback();
+			} catch (SQLException e) {
+				LOGGER.logDebug("Failed to roll back JDBC log connection - ignoring", e);
+			}
+			closeConnection();
+		}
+	}
+
+	private synchronized void createTableIfNecessary() throws SQLException {
+		Connection c = getConnection();
+		try (Statement s = c.createStatement()) {
+			s.executeQuery("SELECT ID FROM " + table + " WHERE 1 = 0").close();
+			c.commit();
+			return;
+		} catch (SQLException tableNotFound) {
+			c.rollback(); // some databases refuse anything else after a failed statement
+		}
+		LOGGER.logInfo("Creating JDBC log table " + table);
+		try (Statement s = c.createStatement()) {
+			s.executeUpdate("CREATE TABLE " + table + " (ID VARCHAR(255) NOT NULL PRIMARY KEY, STATE VARCHAR(32) NOT NULL, " +
+					"EXPIRES BIGINT NOT NULL, RECOVERY_DOMAIN VARCHAR(255), SUPERIOR_ID VARCHAR(255))");
+			s.executeUpdate("CREATE INDEX " + table + "_STATE ON " + table + " (STATE, EXPIRES)");
+			s.executeUpdate("CREATE INDEX " + table + "_SUPERIOR ON " + table + " (SUPERIOR_ID)");
+		}
+		c.commit();
+	}
+
+	/**
+	 * Writes all records of the batch in one transaction. Only the last record per id
+	 * is written, as an upsert: delete any existing row and insert the new one
+	 * (unless it is final).
+	 */
+	synchronized void writeBatch(List<PendingTransactionRecord> batch) throws IOException {
+		Map<String, PendingTransactionRecord> lastPerId = new LinkedHashMap<String, PendingTransactionRecord>();
+		for (PendingTransactionRecord record : batch) {
+			lastPerId.put(record.id, record);
+		}
+		try {
+			Connection c = getConnection();
+			try (PreparedStatement delete = c.prepareStatement("DELETE FROM " + table + " WHERE ID = ?")) {
+				for (String id : lastPerId.keySet()) {
+					delete.setString(1, id);
+					delete.addBatch();
+				}
+				delete.executeBatch();
+			}
+			boolean inserts = false;
+			try (PreparedStatement insert = c.prepareStatement("INSERT INTO " + table + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?)")) {
+				for (PendingTransactionRecord record : lastPerId.values()) {
+					if (!record.state.isFinalState()) {
+						insert.setString(1, record.id);
+						insert.setString(2, record.state.name());
+						insert.setLong(3, record.expires);
+						insert.setString(4, record.recoveryDomainName);
+						insert.setString(5, record.superiorId);
+						insert.addBatch();
+						inserts = true;
+					}
+				}
+				if (inserts) {
+					insert.executeBatch();
+				}
+			}
+			c.commit();
+		} catch (SQLException e) {
+			rollbackAndCloseConnection();
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public void put(String id, PendingTransactionRecord pendingTransactionRecord) throws LogWriteException {
+		try {
+			if (pendingTransactionRecord.requiresForcedWrite()) {
+				groupCommitWriter.write(pendingTransactionRecord);
+			} else {
+				groupCommitWriter.enqueue(pendingTransactionRecord);
+			}
+		} catch (IOException e) {
+			throw new LogWriteException(e);
+		}
+	}
+
+	@Override
+	public CompletionStage<Void> putAsync(String id, PendingTransactionRecord pendingTransactionRecord) {
+		CompletableFuture<Void> ret = new CompletableFuture<Void>();
+		groupCommitWriter.enqueue(pendingTransactionRecord).whenComplete((ignore, error) -> {
+			if (error == null) {
+				ret.complete(null);
+			} else {
+				ret.completeExceptionally(new LogWriteException(error));
+			}
+		});
+		return ret;
+	}
+
+	@Override
+	public PendingTransactionRecord get(String coordinatorId) throws LogReadException {
+		Collection<PendingTransactionRecord> found = query("ID = ?", coordinatorId);
+		return found.isEmpty() ? null : found.iterator().next();
+	}
+
+	/**
+	 * @return The committing records, and all in-doubt records that descend from them
+	 * (also through superiors in another state).
+	 */
+	@Override
+	public Collection<PendingTransactionRecord> findAllCommittingCoordinatorLogEntries() throws LogReadException {
+		Collection<PendingTransactionRecord> ret = new ArrayList<PendingTransactionRecord>();
+		for (PendingTransactionRecord record : addDescendants(query("STATE = ?", TxState.COMMITTING.name()))) {
+			if (record.state == TxState.COMMITTING || record.state == TxState.IN_DOUBT) {
+				ret.add(record);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The in-doubt records and all their descendants.
+	 */
+	@Override
+	public Collection<PendingTransactionRecord> findAllIndoubtCoordinatorLogEntries() throws LogReadException {
+		return addDescendants(query("STATE = ?", TxState.IN_DOUBT.name()));
+	}
+
+	/**
+	 * Like {@link com.atomikos.recovery.fs.RecoveryLogImp#getExpiredPendingCommittingTransactionRecordsAt(long)}, but
+	 * only reads the expired committing roots and their committing or in-doubt descendants.
+	 */
+	Collection<PendingTransactionRecord> findAllExpiredCommittingLineages(long time, String recoveryDomainName) throws LogReadException {
+		Collection<PendingTransactionRecord> roots = new ArrayList<PendingTransactionRecord>();
+		for (PendingTransactionRecord record : query("STATE = ? AND EXPIRES < ?", TxState.COMMITTING.name(), time)) {
+			if (record.isLocalRoot(recoveryDomainName)) {
+				roots.add(record);
+			}
+		}
+		Collection<PendingTransactionRecord> ret = new ArrayList<PendingTransactionRecord>();
+		for (PendingTransactionRecord record : addDescendants(roots)) {
+			if (record.state == TxState.COMMITTING || record.state == TxState.IN_DOUBT) {
+				ret.add(record);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Breadth-first, one query per level (and per {@link #MAX_IDS_PER_QUERY} parents).
+	 *
+	 * @return The given records plus their descendants.
+	 */
+	private Collection<PendingTransactionRecord> addDescendants(Collection<PendingTransactionRecord> records) throws LogReadException {
+		Map<String, PendingTransactionRecord> ret = new LinkedHashMap<String, PendingTransactionRecord>();
+		List<String> parents = new ArrayList<String>();
+		for (PendingTransactionRecord record : records) {
+			ret.put(record.id, record);
+			parents.add(record.id);
+		}
+		while (!parents.isEmpty()) {
+			List<String> children = new ArrayList<String>();
+			for (int from = 0; from < parents.size(); from += MAX_IDS_PER_QUERY) {
+				List<String> ids = parents.subList(from, Math.min(parents.size(), from + MAX_IDS_PER_QUERY));
+				for (PendingTransactionRecord child : query("SUPERIOR_ID IN (" + placeholders(ids.size()) + ")", ids.toArray())) {
+					if (!ret.containsKey(child.id)) {
+						ret.put(child.id, child);
+						children.add(child.id);
+					}
+				}
+			}
+			parents = children;
+		}
+		return ret.values();
+	}
+
+	private static String placeholders(int n) {
+		StringBuilder ret = new StringBuilder("?");
+		for (int i = 1; i < n; i++) {
+			ret.append(", ?");
+		}
+		return ret.toString();
+	}
+
+	@Override
+	public Collection<PendingTransactionRecord> getAllCoordinatorLogEntries() throws LogReadException {
+		return query("1 = 1");
+	}
+
+	private synchronized Collection<PendingTransactionRecord> query(String where, Object... parameters) throws LogReadException {
+		Set<PendingTransactionRecord> ret = new HashSet<PendingTransactionRecord>();
+		try {
+			Connection c = getConnection();
+			try (PreparedStatement s = c.prepareStatement("SELECT " + COLUMNS + " FROM " + table + " WHERE " + where)) {
+				for (int i = 0; i < parameters.length; i++) {
+					s.setObject(i + 1, parameters[i]);
+				}
+				try (ResultSet rs = s.executeQuery()) {
+					while (rs.next()) {
+						ret.add(new PendingTransactionRecord(rs.getString(1), TxState.valueOf(rs.getString(2)),
+								rs.getLong(3), rs.getString(4), rs.getString(5)));
+					}
+				}
+			}
+			c.commit(); // ends the read transaction
+		} catch (SQLException e) {
+			rollbackAndCloseConnection();
+			throw new LogReadException(e);
+		}
+		return ret;
+	}
+
+	@Override
+	public void writeCheckpoint(Collection<PendingTransactionRecord> checkpointContent) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() {
+		if (groupCommitWriter != null) {
+			groupCommitWriter.close();
+		}
+		synchronized (this) {
+			closeConnection();
+		}
+	}
+
+}
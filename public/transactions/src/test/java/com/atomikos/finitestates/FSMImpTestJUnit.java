@@ -80,4 +80,50 @@ public class FSMImpTestJUnit extends TestCase
         		fail ("ERROR: notification does not work");
 	}
 
+	public void testListenerAddedTwiceIsNotifiedOnce()
+	{
+		final int[] count = new int[1];
+		FSMEnterListener counter = new TestListener() {
+			public void entered ( FSMEnterEvent e ) { count[0]++; }
+		};
+		fsm.addFSMEnterListener ( counter, MIDDLE );
+		fsm.addFSMEnterListener ( counter, MIDDLE );
+		fsm.setState ( MIDDLE );
+		assertEquals ( 1, count[0] );
+	}
+
+	public void testNoNotificationForOtherStates()
+	{
+		TestListener other = new TestListener();
+		fsm.addFSMEnterListener ( other, END );
+		fsm.addFSMTransitionListener ( other, MIDDLE, END );
+		fsm.setState ( MIDDLE );
+		assertFalse ( other.isNotified() );
+		fsm.setState ( END );
+		assertTrue ( other.isNotified() );
+	}
+
+	public void testCommitPathNotifiesOnlyListenersOfItsStates()
+	{
+		final int[] count = new int[1];
+		TestListener counter = new TestListener() {
+			public void preEnter ( FSMEnterEvent e ) { count[0]++; }
+			public void entered ( FSMEnterEvent e ) { count[0]++; }
+			public void beforeTransition ( FSMTransitionEvent e ) { count[0]++; }
+			public void transitionPerformed ( FSMTransitionEvent e ) { count[0]++; }
+		};
+		FSMImp coordinatorFsm = new FSMImp ( counter, INITIAL );
+		// like CoordinatorImp.initFsm
+		coordinatorFsm.addFSMEnterListener ( counter, TxState.TERMINATED );
+		coordinatorFsm.addFSMEnterListener ( counter, TxState.HEUR_HAZARD );
+		coordinatorFsm.addFSMTransitionListener ( counter, TxState.COMMITTING, TxState.TERMINATED );
+		coordinatorFsm.addFSMTransitionListener ( counter, TxState.ABORTING, TxState.TERMINATED );
+		coordinatorFsm.setState ( TxState.PREPARING );
+		coordinatorFsm.setState ( TxState.IN_DOUBT );
+		coordinatorFsm.setState ( TxState.COMMITTING );
+		assertEquals ( 0, count[0] );
+		coordinatorFsm.setState ( TxState.TERMINATED );
+		assertEquals ( 4, count[0] );
+	}
+
 }
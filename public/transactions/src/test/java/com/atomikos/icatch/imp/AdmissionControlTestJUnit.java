@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.atomikos.icatch.event.Event;
+import com.atomikos.icatch.event.EventListener;
+import com.atomikos.icatch.event.transaction.TransactionAdmissionEvent;
+import com.atomikos.publish.EventPublisher;
+
+public class AdmissionControlTestJUnit {
+
+	private static final BlockingQueue<TransactionAdmissionEvent> events = new LinkedBlockingQueue<TransactionAdmissionEvent>();
+
+	private ExecutorService executor;
+
+	@BeforeClass
+	public static void registerEventListener() {
+		EventPublisher.INSTANCE.registerEventListener(new EventListener() {
+			@Override
+			public void eventOccurred(Event event) {
+				if (event instanceof TransactionAdmissionEvent) {
+					events.add((TransactionAdmissionEvent) event);
+				}
+			}
+		});
+	}
+
+	@Before
+	public void setUp() {
+		events.clear();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	private static void assertRefused(AdmissionControl admissionControl, boolean imported) {
+		try {
+			admissionControl.admit(imported);
+			fail("Max actives not respected");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	private Future<?> admitInOtherThread(final AdmissionControl admissionControl, final boolean imported, final List<String> order, final String name) {
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				admissionControl.admit(imported);
+				synchronized (order) {
+					order.add(name);
+				}
+			}
+		});
+	}
+
+	private static void awaitQueueDepth(AdmissionControl admissionControl, int depth) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (admissionControl.getQueueDepth() != depth && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(depth, admissionControl.getQueueDepth());
+	}
+
+	@Test
+	public void testRefusesRightAwayWithoutWaitTimeout() {
+		AdmissionControl admissionControl = new AdmissionControl(1, 0, false);
+		admissionControl.admit(false);
+		assertRefused(admissionControl, false);
+		TransactionAdmissionEvent event = events.poll();
+		assertFalse(event.admitted);
+		assertEquals(0, event.waitMillis);
+		admissionControl.release();
+		admissionControl.admit(false);
+		assertEquals(1, admissionControl.getActive());
+	}
+
+	@Test
+	public void testUnlimited() {
+		AdmissionControl admissionControl = new AdmissionControl(-1, 0, false);
+		for (int i = 0; i < 1000; i++) {
+			admissionControl.admit(false);
+		}
+		assertEquals(1000, admissionControl.getActive());
+	}
+
+	@Test
+	public void testRefusesAfterWaitTimeout() {
+		AdmissionControl admissionControl = new AdmissionControl(1, 100, false);
+		admissionControl.admit(false);
+		long start = System.currentTimeMillis();
+		assertRefused(admissionControl, false);
+		assertTrue(System.currentTimeMillis() - start >= 100);
+		assertEquals(0, admissionControl.getQueueDepth());
+		assertFalse(events.poll().admitted);
+	}
+
+	@Test
+	public void testWaitingTransactionGetsReleasedPlace() throws Exception {
+		AdmissionControl admissionControl = new AdmissionControl(1, 5000, false);
+		admissionControl.admit(false);
+		List<String> order = new ArrayList<String>();
+		Future<?> waiting = admitInOtherThread(admissionControl, false, order, "waiting");
+		awaitQueueDepth(admissionControl, 1);
+		admissionControl.release();
+		waiting.get(5, TimeUnit.SECONDS);
+		assertEquals(1, admissionControl.getActive());
+		TransactionAdmissionEvent event = events.poll(5, TimeUnit.SECONDS);
+		assertTrue(event.admitted);
+		assertEquals(0, event.queueDepth);
+	}
+
+	@Test
+	public void testWaitingTransactionsAreAdmittedInOrder() throws Exception {
+		AdmissionControl admissionControl = new AdmissionControl(1, 5000, false);
+		admissionControl.admit(false);
+		List<String> order = new ArrayList<String>();
+		List<Future<?>> waiting = new ArrayList<Future<?>>();
+		for (int i = 0; i < 3; i++) {
+			waiting.add(admitInOtherThread(admissionControl, i == 2, order, "tx" + i));
+			awaitQueueDepth(admissionControl, i + 1);
+		}
+		for (int i = 0; i < 3; i++) {
+			admissionControl.release();
+			waiting.get(i).get(5, TimeUnit.SECONDS);
+		}
+		assertEquals("[tx0, tx1, tx2]", order.toString());
+	}
+
+	@Test
+	public void testImportedTransactionsCanGoFirst() throws Exception {
+		AdmissionControl admissionControl = new AdmissionControl(1, 5000, true);
+		admissionControl.admit(false);
+		List<String> order = new ArrayList<String>();
+		Future<?> root = admitInOtherThread(admissionControl, false, order, "root");
+		awaitQueueDepth(admissionControl, 1);
+		Future<?> imported = admitInOtherThread(admissionControl, true, order, "imported");
+		awaitQueueDepth(admissionControl, 2);
+		admissionControl.release();
+		imported.get(5, TimeUnit.SECONDS);
+		admissionControl.release();
+		root.get(5, TimeUnit.SECONDS);
+		assertEquals("[imported, root]", order.toString());
+	}
+
+	@Test
+	public void testUnconditionalAdmissionCountsTowardsMaxActives() {
+		AdmissionControl admissionControl = new AdmissionControl(1, 0, false);
+		admissionControl.admitUnconditionally();
+		admissionControl.admitUnconditionally();
+		assertRefused(admissionControl, false);
+		admissionControl.release();
+		assertRefused(admissionControl, false);
+		admissionControl.release();
+		admissionControl.admit(false);
+	}
+
+}
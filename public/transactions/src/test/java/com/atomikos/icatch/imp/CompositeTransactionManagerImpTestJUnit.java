@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.CompositeTransaction;
+import com.atomikos.recovery.TxState;
+
+public class CompositeTransactionManagerImpTestJUnit {
+
+	private CompositeTransactionManagerImp ctm;
+	private ExecutorService otherThread;
+
+	@Before
+	public void setUp() {
+		ctm = new CompositeTransactionManagerImp();
+		otherThread = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		otherThread.shutdownNow();
+	}
+
+	private static CompositeTransaction createTransaction(final String tid, final CompositeTransaction parent) {
+		return createTransaction(tid, parent, null);
+	}
+
+	/**
+	 * @param onAddSubTxAwareParticipant Runs when the manager starts listening to
+	 *            the transaction: right before it associates it with the thread.
+	 */
+	private static CompositeTransaction createTransaction(final String tid, final CompositeTransaction parent,
+			final Runnable onAddSubTxAwareParticipant) {
+		final Stack<CompositeTransaction> lineage = new Stack<CompositeTransaction>();
+		if (parent != null) {
+			lineage.push(parent);
+		}
+		return (CompositeTransaction) Proxy.newProxyInstance(CompositeTransaction.class.getClassLoader(),
+				new Class<?>[] { CompositeTransaction.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getTid") || name.equals("toString")) {
+							return tid;
+						} else if (name.equals("getState")) {
+							return TxState.ACTIVE;
+						} else if (name.equals("getLineage")) {
+							return lineage;
+						} else if (name.equals("isLocal")) {
+							return true;
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						} else if (name.equals("addSubTxAwareParticipant") && onAddSubTxAwareParticipant != null) {
+							onAddSubTxAwareParticipant.run();
+						}
+						return null;
+					}
+				});
+	}
+
+	private CompositeTransaction getCompositeTransactionInOtherThread() throws Exception {
+		return otherThread.submit(new Callable<CompositeTransaction>() {
+			@Override
+			public CompositeTransaction call() {
+				return ctm.getCompositeTransaction();
+			}
+		}).get();
+	}
+
+	@Test
+	public void testTransactionIsOnlyVisibleInItsThread() throws Exception {
+		CompositeTransaction tx = createTransaction("tx", null);
+		ctm.resume(tx);
+		assertSame(tx, ctm.getCompositeTransaction());
+		assertNull(getCompositeTransactionInOtherThread());
+		assertSame(tx, ctm.suspend());
+		assertNull(ctm.getCompositeTransaction());
+	}
+
+	@Test
+	public void testParentIsRestoredWhenSubtransactionEnds() throws Exception {
+		CompositeTransaction parent = createTransaction("parent", null);
+		CompositeTransaction sub = createTransaction("sub", parent);
+		ctm.resume(sub);
+		assertSame(sub, ctm.getCompositeTransaction());
+		ctm.committed(sub);
+		assertSame(parent, ctm.getCompositeTransaction());
+		ctm.rolledback(parent);
+		assertNull(ctm.getCompositeTransaction());
+	}
+
+	@Test
+	public void testRollbackInOtherThreadRemovesTransactionFromItsThread() throws Exception {
+		final CompositeTransaction tx = createTransaction("tx", null);
+		ctm.resume(tx);
+		otherThread.submit(new Runnable() {
+			@Override
+			public void run() {
+				ctm.rolledback(tx); // like a timeout
+			}
+		}).get();
+		assertNull(ctm.getCompositeTransaction());
+		// the thread is free for a new transaction
+		CompositeTransaction next = createTransaction("next", null);
+		ctm.resume(next);
+		assertSame(next, ctm.getCompositeTransaction());
+	}
+
+	@Test
+	public void testThreadContextIsRemovedOnSuspend() throws Exception {
+		ctm.resume(createTransaction("tx", null));
+		assertTrue(ctm.hasThreadContext());
+		ctm.suspend();
+		assertFalse(ctm.hasThreadContext());
+	}
+
+	@Test
+	public void testThreadContextIsRemovedWhenLastTransactionEnds() throws Exception {
+		CompositeTransaction parent = createTransaction("parent", null);
+		CompositeTransaction sub = createTransaction("sub", parent);
+		ctm.resume(sub);
+		ctm.committed(sub);
+		assertTrue(ctm.hasThreadContext());
+		ctm.committed(parent);
+		assertFalse(ctm.hasThreadContext());
+	}
+
+	@Test
+	public void testThreadContextIsRemovedOnLookupAfterRollbackInOtherThread() throws Exception {
+		final CompositeTransaction tx = createTransaction("tx", null);
+		ctm.resume(tx);
+		otherThread.submit(new Runnable() {
+			@Override
+			public void run() {
+				ctm.rolledback(tx);
+			}
+		}).get();
+		assertNull(ctm.getCompositeTransaction());
+		assertFalse(ctm.hasThreadContext());
+	}
+
+	@Test
+	public void testNewTransactionSurvivesReleaseOfItsContextByOtherThread() throws Exception {
+		final CompositeTransaction tx = createTransaction("tx", null);
+		ctm.resume(tx);
+		// the owner has its context when the other thread ends tx, and associates next with it
+		CompositeTransaction next = createTransaction("next", null, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					otherThread.submit(new Runnable() {
+						@Override
+						public void run() {
+							ctm.rolledback(tx);
+						}
+					}).get();
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		ctm.resume(next);
+		assertSame(next, ctm.getCompositeTransaction());
+		assertSame(next, ctm.getCompositeTransaction());
+		assertTrue(ctm.hasThreadContext());
+		ctm.committed(next);
+		assertNull(ctm.getCompositeTransaction());
+		assertFalse(ctm.hasThreadContext());
+	}
+
+}
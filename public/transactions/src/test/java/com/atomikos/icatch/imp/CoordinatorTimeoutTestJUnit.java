@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.atomikos.icatch.Participant;
+import com.atomikos.recovery.TxState;
+
+public class CoordinatorTimeoutTestJUnit {
+
+	@Test
+	public void testTimeoutRollsBackOutsideTimingWheel() throws Exception {
+		CoordinatorImp coordinator = new CoordinatorImp("domain", "CoordinatorTimeoutTestJUnit", "CoordinatorTimeoutTestJUnit", null, 300, true);
+		RollbackRecordingParticipant participant = new RollbackRecordingParticipant();
+		coordinator.addParticipant(participant);
+		assertTrue(participant.rolledBack.await(5, TimeUnit.SECONDS));
+		assertFalse(participant.threadName, participant.threadName.startsWith("Atomikos:TimingWheel"));
+		assertTrue(coordinator.getState() != TxState.ACTIVE);
+	}
+
+	private static class RollbackRecordingParticipant implements Participant {
+
+		final CountDownLatch rolledBack = new CountDownLatch(1);
+		volatile String threadName;
+
+		@Override
+		public String getURI() {
+			return null;
+		}
+
+		@Override
+		public void setCascadeList(Map<String, Integer> allParticipants) {
+		}
+
+		@Override
+		public void setGlobalSiblingCount(int count) {
+		}
+
+		@Override
+		public int prepare() {
+			return Participant.READ_ONLY;
+		}
+
+		@Override
+		public void commit(boolean onePhase) {
+		}
+
+		@Override
+		public void rollback() {
+			threadName = Thread.currentThread().getName();
+			rolledBack.countDown();
+		}
+
+		@Override
+		public void forget() {
+		}
+
+		@Override
+		public String getResourceName() {
+			return "participant";
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.HeurHazardException;
+import com.atomikos.icatch.HeurMixedException;
+import com.atomikos.icatch.OnePhaseParticipant;
+import com.atomikos.icatch.Participant;
+import com.atomikos.icatch.RollbackException;
+import com.atomikos.recovery.TxState;
+
+public class LastResourceCommitTestJUnit {
+
+	private static int count;
+
+	private CoordinatorImp coordinator;
+
+	private List<String> calls;
+
+	@Before
+	public void setUp() {
+		String tid = "LastResourceCommitTestJUnit" + count++;
+		coordinator = new CoordinatorImp("domain", tid, tid, null, 10000, true);
+		calls = new ArrayList<String>();
+	}
+
+	private RecordingParticipant addParticipant(String name) throws Exception {
+		RecordingParticipant ret = new RecordingParticipant(name);
+		coordinator.addParticipant(ret);
+		return ret;
+	}
+
+	private RecordingParticipant addOnePhaseParticipant(String name) throws Exception {
+		RecordingParticipant ret = new RecordingOnePhaseParticipant(name);
+		coordinator.addParticipant(ret);
+		return ret;
+	}
+
+	@Test
+	public void testLastResourceCommitsAfterPrepareAndBeforeLoggingCommitting() throws Exception {
+		addParticipant("xa1");
+		addOnePhaseParticipant("nonxa");
+		addParticipant("xa2");
+		coordinator.terminate(true);
+		assertEquals("[xa1 prepare, xa2 prepare, nonxa commit(true) IN_DOUBT, xa1 commit(false) COMMITTING, xa2 commit(false) COMMITTING]",
+				calls.toString());
+		assertEquals(TxState.TERMINATED, coordinator.getState());
+		assertTrue(coordinator.isCommitted());
+	}
+
+	@Test
+	public void testOthersRollbackIfLastResourceRollsBack() throws Exception {
+		addParticipant("xa");
+		addOnePhaseParticipant("nonxa").failure = new RollbackException();
+		try {
+			coordinator.terminate(true);
+			fail("Commit should fail");
+		} catch (RollbackException expected) {
+		}
+		assertEquals("[xa prepare, nonxa commit(true) IN_DOUBT, xa rollback ABORTING]", calls.toString());
+		assertEquals(TxState.TERMINATED, coordinator.getState());
+		assertFalse(coordinator.isCommitted());
+	}
+
+	@Test
+	public void testOthersRollbackIfOutcomeOfLastResourceIsUnknown() throws Exception {
+		addParticipant("xa");
+		addOnePhaseParticipant("nonxa").failure = new HeurMixedException();
+		try {
+			coordinator.terminate(true);
+			fail("Commit should fail");
+		} catch (HeurHazardException expected) {
+		}
+		assertEquals("[xa prepare, nonxa commit(true) IN_DOUBT, xa rollback ABORTING]", calls.toString());
+	}
+
+	@Test
+	public void testLastResourceRollsBackIfPrepareFails() throws Exception {
+		addParticipant("xa").failure = new RollbackException();
+		addOnePhaseParticipant("nonxa");
+		try {
+			coordinator.terminate(true);
+			fail("Commit should fail");
+		} catch (RollbackException expected) {
+		}
+		assertEquals("[xa prepare, xa rollback ABORTING, nonxa rollback ABORTING]", calls.toString());
+	}
+
+	@Test
+	public void testLastResourceCommitsIfOthersAreReadOnly() throws Exception {
+		addParticipant("xa").readOnly = true;
+		addOnePhaseParticipant("nonxa");
+		coordinator.terminate(true);
+		assertEquals("[xa prepare, nonxa commit(true) IN_DOUBT]", calls.toString());
+		assertTrue(coordinator.isCommitted());
+	}
+
+	@Test
+	public void testTwoOnePhaseParticipantsArePrepared() throws Exception {
+		addParticipant("xa");
+		addOnePhaseParticipant("nonxa1");
+		addOnePhaseParticipant("nonxa2");
+		coordinator.terminate(true);
+		assertEquals("[xa prepare, nonxa1 prepare, nonxa2 prepare, xa commit(false) COMMITTING, nonxa1 commit(false) COMMITTING, nonxa2 commit(false) COMMITTING]",
+				calls.toString());
+	}
+
+	private class RecordingParticipant implements Participant {
+
+		private final String name;
+		Exception failure;
+		boolean readOnly;
+
+		RecordingParticipant(String name) {
+			this.name = name;
+		}
+
+		private void fail() throws RollbackException, HeurMixedException {
+			if (failure instanceof RollbackException) {
+				throw (RollbackException) failure;
+			} else if (failure instanceof HeurMixedException) {
+				throw (HeurMixedException) failure;
+			}
+		}
+
+		@Override
+		public String getURI() {
+			return null;
+		}
+
+		@Override
+		public void setCascadeList(Map<String, Integer> allParticipants) {
+		}
+
+		@Override
+		public void setGlobalSiblingCount(int count) {
+		}
+
+		@Override
+		public int prepare() throws RollbackException, HeurMixedException {
+			calls.add(name + " prepare");
+			fail();
+			return readOnly ? Participant.READ_ONLY : Participant.READ_ONLY + 1;
+		}
+
+		@Override
+		public void commit(boolean onePhase) throws RollbackException, HeurMixedException {
+			calls.add(name + " commit(" + onePhase + ") " + coordinator.getState());
+			fail();
+		}
+
+		@Override
+		public void rollback() {
+			calls.add(name + " rollback " + coordinator.getState());
+		}
+
+		@Override
+		public void forget() {
+		}
+
+		@Override
+		public String getResourceName() {
+			return name;
+		}
+	}
+
+	private class RecordingOnePhaseParticipant extends RecordingParticipant implements OnePhaseParticipant {
+
+		RecordingOnePhaseParticipant(String name) {
+			super(name);
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.Participant;
+
+public class PropagatorTestJUnit {
+
+	private long retryInterval;
+	private long maxRetryInterval;
+	private int maxConcurrentRetries;
+
+	@Before
+	public void setUp() {
+		retryInterval = Propagator.RETRY_INTERVAL;
+		maxRetryInterval = Propagator.MAX_RETRY_INTERVAL;
+		maxConcurrentRetries = Propagator.MAX_CONCURRENT_RETRIES;
+		Propagator.RETRY_INTERVAL = 10;
+		Propagator.MAX_RETRY_INTERVAL = 40;
+		Propagator.MAX_CONCURRENT_RETRIES = 2;
+	}
+
+	@After
+	public void tearDown() {
+		Propagator.RETRY_INTERVAL = retryInterval;
+		Propagator.MAX_RETRY_INTERVAL = maxRetryInterval;
+		Propagator.MAX_CONCURRENT_RETRIES = maxConcurrentRetries;
+	}
+
+	@Test
+	public void testRetryDelayBacksOffExponentiallyWithJitter() {
+		for (int i = 0; i < 100; i++) {
+			assertBetween(5, 10, Propagator.retryDelay(1));
+			assertBetween(10, 20, Propagator.retryDelay(2));
+			assertBetween(20, 40, Propagator.retryDelay(3));
+			assertBetween(20, 40, Propagator.retryDelay(30));
+		}
+	}
+
+	private static void assertBetween(long min, long max, long actual) {
+		assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+	}
+
+	@Test
+	public void testConcurrentRetriesAreLimitedPerResource() {
+		assertTrue(Propagator.startRetry("resource1"));
+		assertTrue(Propagator.startRetry("resource1"));
+		assertFalse(Propagator.startRetry("resource1"));
+		assertTrue(Propagator.startRetry("resource2"));
+		Propagator.endRetry("resource1");
+		assertTrue(Propagator.startRetry("resource1"));
+		Propagator.endRetry("resource1");
+		Propagator.endRetry("resource1");
+		Propagator.endRetry("resource2");
+	}
+
+	@Test
+	public void testThreadedRetryDeliversFinalReply() throws Exception {
+		assertFinalReplyAfterTransientFailures(true);
+	}
+
+	@Test
+	public void testSingleThreadedRetryDeliversFinalReply() throws Exception {
+		assertFinalReplyAfterTransientFailures(false);
+	}
+
+	@Test
+	public void testRetryWaitsForThreadOfPool() throws Exception {
+		ThreadPoolExecutor executor = Propagator.executor;
+		Propagator.executor = Propagator.newExecutor(1);
+		try {
+			Propagator propagator = new Propagator(true);
+			CountDownLatch release = new CountDownLatch(1);
+			TerminationResult blockingResult = new TerminationResult(1);
+			propagator.submitPropagationMessage(new BlockingMessage(blockingResult, release));
+			TerminationResult result = new TerminationResult(1);
+			FlakyMessage msg = new FlakyMessage(result, 1);
+			propagator.submitPropagationMessage(msg);
+			Thread.sleep(100);
+			assertEquals("retry must not run on the timing wheel", 1, msg.attempts.get());
+			release.countDown();
+			result.waitForReplies();
+			blockingResult.waitForReplies();
+			assertEquals(2, msg.attempts.get());
+			assertTrue(msg.thread, msg.thread.startsWith("Atomikos:2PC-"));
+		} finally {
+			Propagator.executor.shutdown();
+			Propagator.executor = executor;
+		}
+	}
+
+	private void assertFinalReplyAfterTransientFailures(boolean threaded) throws Exception {
+		TerminationResult result = new TerminationResult(1);
+		FlakyMessage msg = new FlakyMessage(result, 2);
+		new Propagator(threaded).submitPropagationMessage(msg);
+		result.waitForReplies();
+		assertEquals(3, msg.attempts.get());
+		assertEquals(1, result.getReplies().size());
+		assertNull(result.getReplies().peek().getException());
+	}
+
+	private static class FlakyMessage extends PropagationMessage {
+
+		private final int failures;
+		final AtomicInteger attempts = new AtomicInteger();
+		volatile String thread;
+
+		FlakyMessage(Result result, int failures) {
+			super(new StubParticipant(), result);
+			this.failures = failures;
+		}
+
+		@Override
+		protected Object send() throws PropagationException {
+			thread = Thread.currentThread().getName();
+			if (attempts.incrementAndGet() <= failures) {
+				throw new PropagationException(new Exception("Simulated communication failure"), true);
+			}
+			return null;
+		}
+	}
+
+	private static class BlockingMessage extends PropagationMessage {
+
+		private final CountDownLatch release;
+
+		BlockingMessage(Result result, CountDownLatch release) {
+			super(new StubParticipant(), result);
+			this.release = release;
+		}
+
+		@Override
+		protected Object send() throws PropagationException {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		}
+	}
+
+	private static class StubParticipant implements Participant {
+
+		@Override
+		public String getURI() {
+			return "uri";
+		}
+
+		@Override
+		public void setCascadeList(Map<String, Integer> allParticipants) {
+		}
+
+		@Override
+		public void setGlobalSiblingCount(int count) {
+		}
+
+		@Override
+		public int prepare() {
+			return Participant.READ_ONLY;
+		}
+
+		@Override
+		public void commit(boolean onePhase) {
+		}
+
+		@Override
+		public void rollback() {
+		}
+
+		@Override
+		public void forget() {
+		}
+
+		@Override
+		public String getResourceName() {
+			return "resource";
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.atomikos.icatch.Participant;
+import com.atomikos.recovery.TxState;
+
+/**
+ * Checks that threaded 2PC sends the messages of each phase to all
+ * participants at the same time: each participant waits until all
+ * of them have received the message, which only works in parallel.
+ */
+public class Threaded2pcTestJUnit {
+
+	private static final int PARTICIPANTS = 4;
+
+	private static int count;
+
+	private CountDownLatch allPrepareReceived;
+	private CountDownLatch allCommitReceived;
+
+	private List<BlockingParticipant> commit(boolean singleThreaded) throws Exception {
+		allPrepareReceived = new CountDownLatch(PARTICIPANTS);
+		allCommitReceived = new CountDownLatch(PARTICIPANTS);
+		String tid = "Threaded2pcTestJUnit" + count++;
+		CoordinatorImp coordinator = new CoordinatorImp("domain", tid, tid, null, 10000, singleThreaded);
+		List<BlockingParticipant> ret = new ArrayList<BlockingParticipant>();
+		for (int i = 0; i < PARTICIPANTS; i++) {
+			BlockingParticipant p = new BlockingParticipant("participant" + i, !singleThreaded);
+			coordinator.addParticipant(p);
+			ret.add(p);
+		}
+		coordinator.terminate(true);
+		assertEquals(TxState.TERMINATED, coordinator.getState());
+		for (BlockingParticipant p : ret) {
+			assertEquals(1, p.prepared.get());
+			assertEquals(1, p.committed.get());
+		}
+		return ret;
+	}
+
+	@Test
+	public void testAllParticipantsArePreparedAndCommittedInParallel() throws Exception {
+		for (BlockingParticipant p : commit(false)) {
+			assertEquals(0, p.timedOut.get());
+			assertNotSame(Thread.currentThread(), p.lastThread);
+		}
+	}
+
+	@Test
+	public void testSingleThreadedCommitUsesCallingThread() throws Exception {
+		for (BlockingParticipant p : commit(true)) {
+			assertSame(Thread.currentThread(), p.lastThread);
+		}
+	}
+
+	private class BlockingParticipant implements Participant {
+
+		private final String uri;
+		final AtomicInteger prepared = new AtomicInteger();
+		final AtomicInteger committed = new AtomicInteger();
+		final AtomicInteger timedOut = new AtomicInteger();
+		volatile Thread lastThread;
+		private final boolean waitForOthers;
+
+		BlockingParticipant(String uri, boolean waitForOthers) {
+			this.uri = uri;
+			this.waitForOthers = waitForOthers;
+		}
+
+		private void received(CountDownLatch allReceived) {
+			lastThread = Thread.currentThread();
+			allReceived.countDown();
+			if (!waitForOthers) {
+				return;
+			}
+			try {
+				if (!allReceived.await(10, TimeUnit.SECONDS)) {
+					timedOut.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public String getURI() {
+			return uri;
+		}
+
+		@Override
+		public void setCascadeList(Map<String, Integer> allParticipants) {
+		}
+
+		@Override
+		public void setGlobalSiblingCount(int count) {
+		}
+
+		@Override
+		public int prepare() {
+			received(allPrepareReceived);
+			prepared.incrementAndGet();
+			return Participant.READ_ONLY + 1;
+		}
+
+		@Override
+		public void commit(boolean onePhase) {
+			received(allCommitReceived);
+			committed.incrementAndGet();
+		}
+
+		@Override
+		public void rollback() {
+		}
+
+		@Override
+		public void forget() {
+		}
+
+		@Override
+		public String getResourceName() {
+			return uri;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.icatch.imp;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.CompositeTransaction;
+import com.atomikos.persistence.imp.StateRecoveryManagerImp;
+import com.atomikos.recovery.fs.InMemoryRepository;
+import com.atomikos.recovery.fs.OltpLogImp;
+import com.atomikos.recovery.fs.RecoveryLogImp;
+import com.atomikos.util.UniqueIdMgr;
+
+public class TransactionServiceImpTestJUnit {
+
+	private static final int MAX_ACTIVES = 4;
+
+	private TransactionServiceImp ts;
+
+	@Before
+	public void setUp() {
+		InMemoryRepository repository = new InMemoryRepository();
+		repository.init();
+		OltpLogImp oltpLog = new OltpLogImp();
+		oltpLog.setRepository(repository);
+		StateRecoveryManagerImp recoveryManager = new StateRecoveryManagerImp();
+		recoveryManager.setOltpLog(oltpLog);
+		RecoveryLogImp recoveryLog = new RecoveryLogImp();
+		recoveryLog.setRepository(repository);
+		ts = new TransactionServiceImp("tm", recoveryManager, new UniqueIdMgr("tm"), 10000, MAX_ACTIVES, true, recoveryLog);
+		ts.init(null);
+	}
+
+	@After
+	public void tearDown() {
+		ts.shutdown(true);
+	}
+
+	@Test
+	public void testTransactionCanBeFoundByEqualTid() {
+		CompositeTransaction ct = ts.createCompositeTransaction(1000);
+		assertSame(ct, ts.getCompositeTransaction(new String(ct.getTid())));
+		ct.rollback();
+		assertNull(ts.getCompositeTransaction(ct.getTid()));
+	}
+
+	@Test
+	public void testMaxActivesIsRespected() {
+		List<CompositeTransaction> active = new ArrayList<CompositeTransaction>();
+		for (int i = 0; i < MAX_ACTIVES; i++) {
+			active.add(ts.createCompositeTransaction(1000));
+		}
+		assertMaxActivesReached();
+		active.remove(0).rollback();
+		active.add(ts.createCompositeTransaction(1000));
+		assertMaxActivesReached();
+		for (CompositeTransaction ct : active) {
+			ct.rollback();
+		}
+	}
+
+	private void assertMaxActivesReached() {
+		try {
+			ts.createCompositeTransaction(1000);
+			fail("Max actives not respected");
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void testMaxActivesIsRespectedByConcurrentThreads() throws Exception {
+		final int threads = 8;
+		final AtomicInteger inProgress = new AtomicInteger();
+		final AtomicInteger maxInProgress = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int created = 0;
+					for (int j = 0; j < 200; j++) {
+						try {
+							CompositeTransaction ct = ts.createCompositeTransaction(1000);
+							created++;
+							maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+							inProgress.decrementAndGet();
+							ct.rollback();
+						} catch (IllegalStateException maxActivesReached) {
+						}
+					}
+					return created;
+				}
+			}));
+		}
+		int created = 0;
+		for (Future<Integer> result : results) {
+			created += result.get();
+		}
+		executor.shutdown();
+		assertTrue(created > 0);
+		assertTrue(maxInProgress.get() <= MAX_ACTIVES);
+		// all places were released again
+		List<CompositeTransaction> active = new ArrayList<CompositeTransaction>();
+		for (int i = 0; i < MAX_ACTIVES; i++) {
+			active.add(ts.createCompositeTransaction(1000));
+		}
+		assertMaxActivesReached();
+		for (CompositeTransaction ct : active) {
+			ct.rollback();
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class BinaryLogFormatTestJUnit {
+
+	private BinaryLogFormat.Encoder encoder;
+	private ByteBuffer buffer;
+
+	@Before
+	public void setUp() {
+		encoder = new BinaryLogFormat.Encoder();
+		buffer = ByteBuffer.allocate(4096);
+		BinaryLogFormat.writeHeader(buffer);
+	}
+
+	private byte[] encode(PendingTransactionRecord... records) {
+		for (PendingTransactionRecord record : records) {
+			assertTrue(encoder.encode(record, buffer));
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	private Map<String, PendingTransactionRecord> read(byte[] content) throws Exception {
+		Collection<PendingTransactionRecord> records = FileSystemRepository.readFromInputStream(new ByteArrayInputStream(content));
+		Map<String, PendingTransactionRecord> ret = new HashMap<String, PendingTransactionRecord>();
+		for (PendingTransactionRecord record : records) {
+			ret.put(record.id, record);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] content = encode(
+				new PendingTransactionRecord("id1", TxState.COMMITTING, 100, "domain"),
+				new PendingTransactionRecord("id2", TxState.IN_DOUBT, 200, "foreignDomain", "http://superior"));
+		Map<String, PendingTransactionRecord> result = read(content);
+		assertEquals(2, result.size());
+		PendingTransactionRecord id1 = result.get("id1");
+		assertEquals(TxState.COMMITTING, id1.state);
+		assertEquals(100, id1.expires);
+		assertEquals("domain", id1.recoveryDomainName);
+		assertNull(id1.superiorId);
+		PendingTransactionRecord id2 = result.get("id2");
+		assertEquals(TxState.IN_DOUBT, id2.state);
+		assertEquals("foreignDomain", id2.recoveryDomainName);
+		assertEquals("http://superior", id2.superiorId);
+	}
+
+	@Test
+	public void testLastRecordWins() throws Exception {
+		byte[] content = encode(
+				new PendingTransactionRecord("id1", TxState.IN_DOUBT, 100, "domain"),
+				new PendingTransactionRecord("id1", TxState.COMMITTING, 100, "domain"));
+		assertEquals(TxState.COMMITTING, read(content).get("id1").state);
+	}
+
+	@Test
+	public void testDomainNameIsWrittenOnlyOnce() throws Exception {
+		int first = encode(new PendingTransactionRecord("id1", TxState.IN_DOUBT, 100, "someLongRecoveryDomainName")).length;
+		int second = encode(new PendingTransactionRecord("id2", TxState.IN_DOUBT, 100, "someLongRecoveryDomainName")).length - first;
+		assertTrue(second < first - "someLongRecoveryDomainName".length());
+	}
+
+	@Test
+	public void testEncodeReturnsFalseIfNoRoom() throws Exception {
+		buffer = ByteBuffer.allocate(10);
+		assertFalse(encoder.encode(new PendingTransactionRecord("id1", TxState.IN_DOUBT, 100, "domain"), buffer));
+		assertEquals(0, buffer.position());
+	}
+
+	@Test
+	public void testTornLastRecordIsIgnored() throws Exception {
+		byte[] content = encode(
+				new PendingTransactionRecord("id1", TxState.COMMITTING, 100, "domain"),
+				new PendingTransactionRecord("id2", TxState.COMMITTING, 100, "domain"));
+		Map<String, PendingTransactionRecord> result = read(Arrays.copyOf(content, content.length - 3));
+		assertEquals(1, result.size());
+		assertTrue(result.containsKey("id1"));
+	}
+
+	@Test
+	public void testCorruptRecordIsIgnored() throws Exception {
+		byte[] content = encode(
+				new PendingTransactionRecord("id1", TxState.COMMITTING, 100, "domain"),
+				new PendingTransactionRecord("id2", TxState.COMMITTING, 100, "domain"));
+		content[content.length - 6] ^= 0xFF;
+		Map<String, PendingTransactionRecord> result = read(content);
+		assertFalse(result.containsKey("id2"));
+	}
+
+	@Test
+	public void testTextFormatIsStillReadable() throws Exception {
+		String text = new PendingTransactionRecord("id1", TxState.COMMITTING, 100, "domain").toRecord() +
+				new PendingTransactionRecord("id2", TxState.IN_DOUBT, 100, "domain", "id1").toRecord();
+		Map<String, PendingTransactionRecord> result = read(text.getBytes());
+		assertEquals(2, result.size());
+		assertEquals("id1", result.get("id2").superiorId);
+	}
+
+	@Test
+	public void testEmptyContent() throws Exception {
+		assertTrue(read(new byte[0]).isEmpty());
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.event.log.LogCheckpointEvent.Trigger;
+
+public class CheckpointPolicyTestJUnit {
+
+	private static final long MAX_PUTS = 500;
+	private static final long MAX_LOG_SIZE = 1000;
+	private static final double MAX_DEAD_RATIO = 0.9;
+	private static final long DEAD_RATIO_MIN_RECORDS = 100;
+	private static final long MAX_AGE = 60000;
+
+	private CheckpointPolicy policy;
+
+	@Before
+	public void setUp() {
+		policy = new CheckpointPolicy(MAX_PUTS, MAX_LOG_SIZE, MAX_DEAD_RATIO, DEAD_RATIO_MIN_RECORDS, MAX_AGE);
+	}
+
+	@Test
+	public void testNoCheckpointWithoutPuts() {
+		assertNull(policy.evaluate(0, 10000, 0, 100000, 0, 10 * MAX_AGE));
+	}
+
+	@Test
+	public void testNoCheckpointBelowAllThresholds() {
+		assertNull(policy.evaluate(10, 50, 40, 500, 0, 1000));
+	}
+
+	@Test
+	public void testPuts() {
+		assertEquals(Trigger.PUTS, policy.evaluate(MAX_PUTS, MAX_PUTS, MAX_PUTS, 0, 0, 0));
+	}
+
+	@Test
+	public void testLogSize() {
+		assertEquals(Trigger.LOG_SIZE, policy.evaluate(10, 50, 40, MAX_LOG_SIZE, 0, 1000));
+	}
+
+	@Test
+	public void testLogSizeIgnoredIfNotDoubledSinceLastCheckpoint() {
+		assertNull(policy.evaluate(10, 50, 40, 3 * MAX_LOG_SIZE, 2 * MAX_LOG_SIZE, 1000));
+		assertEquals(Trigger.LOG_SIZE, policy.evaluate(10, 50, 40, 4 * MAX_LOG_SIZE, 2 * MAX_LOG_SIZE, 1000));
+	}
+
+	@Test
+	public void testLogSizeIgnoredIfUnknown() {
+		CheckpointPolicy unlimited = new CheckpointPolicy(MAX_PUTS, 0, MAX_DEAD_RATIO, DEAD_RATIO_MIN_RECORDS, MAX_AGE);
+		assertNull(unlimited.evaluate(10, 50, 40, Long.MAX_VALUE, 0, 1000));
+		assertNull(policy.evaluate(10, 50, 40, -1, 0, 1000));
+	}
+
+	@Test
+	public void testDeadRatio() {
+		assertEquals(Trigger.DEAD_RATIO, policy.evaluate(10, 200, 10, 500, 0, 1000));
+	}
+
+	@Test
+	public void testDeadRatioIgnoredForSmallLogs() {
+		assertNull(policy.evaluate(10, DEAD_RATIO_MIN_RECORDS - 1, 0, 500, 0, 1000));
+	}
+
+	@Test
+	public void testDeadRatioOfOneDisablesTrigger() {
+		CheckpointPolicy never = new CheckpointPolicy(MAX_PUTS, MAX_LOG_SIZE, 1, DEAD_RATIO_MIN_RECORDS, MAX_AGE);
+		assertNull(never.evaluate(10, 200, 0, 500, 0, 1000));
+	}
+
+	@Test
+	public void testAge() {
+		assertEquals(Trigger.AGE, policy.evaluate(1, 50, 40, 500, 0, MAX_AGE));
+	}
+
+	@Test
+	public void testAgeIgnoredIfDisabled() {
+		CheckpointPolicy noAge = new CheckpointPolicy(MAX_PUTS, MAX_LOG_SIZE, MAX_DEAD_RATIO, DEAD_RATIO_MIN_RECORDS, 0);
+		assertNull(noAge.evaluate(1, 50, 40, 500, 0, 10 * MAX_AGE));
+	}
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class GroupCommitWriterTestJUnit {
+
+	private static final int NUMBER_OF_WRITERS = 20;
+
+	private GroupCommitWriter<String> writer;
+	private final AtomicInteger numberOfForces = new AtomicInteger();
+	private final AtomicInteger numberOfRecordsWritten = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		if (writer != null) writer.close();
+	}
+
+	private void startWriter(GroupCommitWriter.BatchSink<String> sink, long maxDelay, int maxBatchSize) {
+		writer = new GroupCommitWriter<String>(sink, maxDelay, maxBatchSize);
+		writer.start();
+	}
+
+	private void countingSink(List<String> batch) {
+		numberOfRecordsWritten.addAndGet(batch.size());
+		numberOfForces.incrementAndGet();
+	}
+
+	@Test
+	public void testWriteReturnsAfterFlush() throws Exception {
+		startWriter(this::countingSink, 0, 10);
+		writer.write("record");
+		assertEquals(1, numberOfRecordsWritten.get());
+		assertEquals(1, numberOfForces.get());
+	}
+
+	@Test
+	public void testConcurrentWritersShareForces() throws Exception {
+		startWriter(this::countingSink, 50, NUMBER_OF_WRITERS);
+		final CountDownLatch done = new CountDownLatch(NUMBER_OF_WRITERS);
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		for (int i = 0; i < NUMBER_OF_WRITERS; i++) {
+			new Thread(() -> {
+				try {
+					writer.write("record");
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+		assertTrue(errors.isEmpty());
+		assertEquals(NUMBER_OF_WRITERS, numberOfRecordsWritten.get());
+		assertTrue(numberOfForces.get() < NUMBER_OF_WRITERS);
+	}
+
+	@Test
+	public void testBatchSizeIsRespected() throws Exception {
+		final AtomicInteger largestBatch = new AtomicInteger();
+		startWriter(batch -> largestBatch.accumulateAndGet(batch.size(), Math::max), 20, 2);
+		for (int i = 0; i < 5; i++) {
+			writer.enqueue("record");
+		}
+		writer.write("record");
+		assertTrue(largestBatch.get() <= 2);
+	}
+
+	@Test(expected=IOException.class)
+	public void testWriteFailsIfFlushFails() throws Exception {
+		startWriter(batch -> {throw new IOException("disk full");}, 0, 10);
+		writer.write("record");
+	}
+
+	@Test(expected=IOException.class)
+	public void testWriteFailsAfterClose() throws Exception {
+		startWriter(this::countingSink, 0, 10);
+		writer.close();
+		writer.write("record");
+	}
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class InMemoryRepositoryTestJUnit {
+
+	private InMemoryRepository repository;
+
+	@Before
+	public void setUp() {
+		repository = new InMemoryRepository();
+		repository.init();
+	}
+
+	private PendingTransactionRecord put(String id, TxState state, String superiorId) {
+		PendingTransactionRecord ret = new PendingTransactionRecord(id, state, 0, "domain", superiorId);
+		repository.put(id, ret);
+		return ret;
+	}
+
+	private static Set<String> ids(Collection<PendingTransactionRecord> records) {
+		Set<String> ret = new HashSet<String>();
+		for (PendingTransactionRecord record : records) {
+			ret.add(record.id);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testFindAllCommittingIncludesIndoubtDescendants() {
+		put("root", TxState.COMMITTING, null);
+		put("child", TxState.COMMITTING, "root");
+		put("grandchild", TxState.IN_DOUBT, "child");
+		put("other", TxState.IN_DOUBT, null);
+		put("orphan", TxState.IN_DOUBT, "unknown");
+		assertEquals(new HashSet<String>(Arrays.asList("root", "child", "grandchild")),
+				ids(repository.findAllCommittingCoordinatorLogEntries()));
+	}
+
+	@Test
+	public void testFindAllCommittingFollowsNonCommittingIntermediates() {
+		put("root", TxState.COMMITTING, null);
+		put("child", TxState.IN_DOUBT, "root");
+		put("grandchild", TxState.IN_DOUBT, "child");
+		assertEquals(3, repository.findAllCommittingCoordinatorLogEntries().size());
+	}
+
+	@Test
+	public void testStateIndexFollowsUpdates() {
+		put("id", TxState.IN_DOUBT, null);
+		put("id", TxState.COMMITTING, null);
+		assertEquals(0, repository.findAllIndoubtCoordinatorLogEntries().size());
+		assertEquals(1, repository.findAllCommittingCoordinatorLogEntries().size());
+		put("id", TxState.TERMINATED, null);
+		assertNull(repository.get("id"));
+		assertTrue(repository.findAllCommittingCoordinatorLogEntries().isEmpty());
+	}
+
+	@Test
+	public void testFindAllIndoubtIncludesAllDescendants() {
+		put("root", TxState.IN_DOUBT, null);
+		put("child", TxState.COMMITTING, "root");
+		put("grandchild", TxState.IN_DOUBT, "child");
+		put("other", TxState.COMMITTING, null);
+		assertEquals(new HashSet<String>(Arrays.asList("root", "child", "grandchild")),
+				ids(repository.findAllIndoubtCoordinatorLogEntries()));
+	}
+
+	@Test
+	public void testTerminatedChildIsNoLongerFound() {
+		put("root", TxState.COMMITTING, null);
+		put("child", TxState.IN_DOUBT, "root");
+		put("child", TxState.TERMINATED, "root");
+		assertEquals(new HashSet<String>(Arrays.asList("root")),
+				ids(repository.findAllCommittingCoordinatorLogEntries()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSameRecordCannotBePutTwice() {
+		PendingTransactionRecord record = put("id", TxState.IN_DOUBT, null);
+		repository.put("id", record);
+	}
+
+	@Test
+	public void testWriteCheckpointRebuildsIndexes() {
+		put("old", TxState.COMMITTING, null);
+		repository.writeCheckpoint(Arrays.asList(
+				new PendingTransactionRecord("root", TxState.COMMITTING, 0, "domain"),
+				new PendingTransactionRecord("child", TxState.IN_DOUBT, 0, "domain", "root")));
+		assertFalse(ids(repository.findAllCommittingCoordinatorLogEntries()).contains("old"));
+		assertEquals(2, repository.findAllCommittingCoordinatorLogEntries().size());
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class LogReplayTestJUnit {
+
+	// small enough to get several chunks for a few records
+	private static final int CHUNK_SIZE = 256;
+
+	private BinaryLogFormat.Encoder encoder;
+	private ByteBuffer buffer;
+
+	@Before
+	public void setUp() {
+		encoder = new BinaryLogFormat.Encoder();
+		buffer = ByteBuffer.allocate(256 * 1024);
+		BinaryLogFormat.writeHeader(buffer);
+	}
+
+	private int write(String id, TxState state, String domain) {
+		int ret = buffer.position();
+		assertTrue(encoder.encode(new PendingTransactionRecord(id, state, 100, domain), buffer));
+		return ret;
+	}
+
+	private LogReplay.Result replay() {
+		ByteBuffer content = buffer.duplicate();
+		((Buffer) content).flip();
+		return LogReplay.replay(content, CHUNK_SIZE, 4);
+	}
+
+	@Test
+	public void testLastRecordWinsAcrossChunks() {
+		for (int i = 0; i < 1000; i++) {
+			write("id" + (i % 10), TxState.IN_DOUBT, "domain");
+		}
+		for (int i = 0; i < 10; i++) {
+			write("id" + i, TxState.COMMITTING, "domain");
+		}
+		LogReplay.Result result = replay();
+		assertEquals(10, result.records.size());
+		assertEquals(1010, result.recordsRead);
+		for (PendingTransactionRecord record : result.records.values()) {
+			assertEquals(TxState.COMMITTING, record.state);
+		}
+		assertTrue(result.appendable);
+		assertEquals(buffer.position(), result.appendPosition);
+		assertFalse(result.isCompact());
+	}
+
+	@Test
+	public void testDomainsDefinedInEarlierChunksAreResolved() {
+		write("first", TxState.COMMITTING, "domain1");
+		for (int i = 0; i < 100; i++) {
+			write("id" + i, TxState.COMMITTING, "domain" + (i % 3));
+		}
+		LogReplay.Result result = replay();
+		assertEquals(101, result.records.size());
+		assertEquals("domain1", result.records.get("id1").recoveryDomainName);
+		assertEquals(3, result.domains.size());
+		assertTrue(result.isCompact());
+	}
+
+	@Test
+	public void testCorruptRecordDiscardsEverythingAfterIt() {
+		for (int i = 0; i < 50; i++) {
+			write("before" + i, TxState.COMMITTING, "domain");
+		}
+		int corrupt = write("corrupt", TxState.COMMITTING, "domain");
+		for (int i = 0; i < 50; i++) {
+			write("after" + i, TxState.COMMITTING, "domain");
+		}
+		buffer.put(corrupt + 10, (byte) ~buffer.get(corrupt + 10));
+		LogReplay.Result result = replay();
+		assertEquals(50, result.records.size());
+		assertFalse(result.records.containsKey("after0"));
+		assertFalse(result.appendable);
+		assertEquals(corrupt, result.appendPosition);
+	}
+
+	@Test
+	public void testIncompleteLastRecordIsIgnored() {
+		write("complete", TxState.COMMITTING, "domain");
+		int incomplete = write("incomplete", TxState.COMMITTING, "domain");
+		((Buffer) buffer).position(buffer.position() - 3);
+		LogReplay.Result result = replay();
+		assertEquals(1, result.records.size());
+		assertFalse(result.appendable);
+		assertEquals(incomplete, result.appendPosition);
+	}
+
+	@Test
+	public void testZeroFilledSpaceEndsTheLogCleanly() {
+		write("id", TxState.COMMITTING, "domain");
+		int end = buffer.position();
+		((Buffer) buffer).position(end + 1000);
+		LogReplay.Result result = replay();
+		assertEquals(1, result.records.size());
+		assertTrue(result.appendable);
+		assertEquals(end, result.appendPosition);
+	}
+
+	@Test
+	public void testTerminatedRecordsMakeTheLogLessCompact() {
+		write("id1", TxState.COMMITTING, "domain");
+		write("id2", TxState.COMMITTING, "domain");
+		write("id3", TxState.COMMITTING, "domain");
+		write("id1", TxState.TERMINATED, "domain");
+		assertTrue(replay().isCompact());
+		write("id2", TxState.TERMINATED, "domain");
+		assertFalse(replay().isCompact());
+	}
+
+}
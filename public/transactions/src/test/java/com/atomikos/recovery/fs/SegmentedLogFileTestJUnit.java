@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class SegmentedLogFileTestJUnit {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SegmentedLogFile file;
+
+	@Before
+	public void setUp() {
+		file = new SegmentedLogFile(folder.getRoot().getPath(), "tmlog", SegmentedLogFile.MIN_SEGMENT_SIZE, LogFile.Sync.FORCE);
+	}
+
+	private static PendingTransactionRecord record(String id, TxState state) {
+		return new PendingTransactionRecord(id, state, 100, "domain");
+	}
+
+	private Map<String, PendingTransactionRecord> readBack() throws Exception {
+		Map<String, PendingTransactionRecord> ret = new HashMap<String, PendingTransactionRecord>();
+		for (PendingTransactionRecord record : file.readLastValidVersion()) {
+			ret.put(record.id, record);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testEmptyLogReadsNothing() throws Exception {
+		assertTrue(file.readLastValidVersion().isEmpty());
+	}
+
+	@Test
+	public void testSegmentsArePreallocated() throws Exception {
+		file.openNewVersion().close();
+		File[] segments = folder.getRoot().listFiles();
+		assertEquals(1, segments.length);
+		assertEquals(SegmentedLogFile.MIN_SEGMENT_SIZE, segments[0].length());
+	}
+
+	@Test
+	public void testWriteAndReadBack() throws Exception {
+		LogFile.Writer writer = file.openNewVersion();
+		writer.write(Collections.singletonList(record("id1", TxState.IN_DOUBT)));
+		writer.write(Collections.singletonList(record("id1", TxState.COMMITTING)));
+		writer.force();
+		writer.discardBackupVersion();
+		writer.close();
+		Map<String, PendingTransactionRecord> content = readBack();
+		assertEquals(1, content.size());
+		assertEquals(TxState.COMMITTING, content.get("id1").state);
+	}
+
+	@Test
+	public void testRollOverWhenSegmentIsFull() throws Exception {
+		LogFile.Writer writer = file.openNewVersion();
+		List<PendingTransactionRecord> records = new ArrayList<PendingTransactionRecord>();
+		for (int i = 0; i < 5000; i++) {
+			records.add(record("someTransactionIdThatIsNotTooShort" + i, TxState.COMMITTING));
+		}
+		writer.write(records);
+		writer.force();
+		writer.discardBackupVersion();
+		writer.close();
+		assertTrue(file.lastValidSegments().size() > 1);
+		assertEquals(records.size(), readBack().size());
+	}
+
+	@Test
+	public void testNewVersionReplacesOldOneOnlyAfterDiscard() throws Exception {
+		LogFile.Writer oldVersion = file.openNewVersion();
+		oldVersion.write(Collections.singletonList(record("old", TxState.COMMITTING)));
+		oldVersion.force();
+		oldVersion.discardBackupVersion();
+		oldVersion.close();
+
+		LogFile.Writer newVersion = file.openNewVersion();
+		newVersion.write(Collections.singletonList(record("new", TxState.COMMITTING)));
+		newVersion.force();
+		Collection<PendingTransactionRecord> beforeDiscard = file.readLastValidVersion();
+		assertEquals("old", beforeDiscard.iterator().next().id);
+
+		newVersion.discardBackupVersion();
+		newVersion.close();
+		Map<String, PendingTransactionRecord> afterDiscard = readBack();
+		assertEquals(1, afterDiscard.size());
+		assertTrue(afterDiscard.containsKey("new"));
+	}
+
+	@Test
+	public void testCurrentVersionCanBeWrittenWhileNewVersionIsPrepared() throws Exception {
+		LogFile.Writer current = file.openNewVersion();
+		current.discardBackupVersion();
+		LogFile.Writer next = file.openNewVersion();
+		next.write(Collections.singletonList(record("checkpointed", TxState.COMMITTING)));
+
+		current.write(Collections.singletonList(record("concurrent", TxState.COMMITTING)));
+		current.force();
+		assertTrue(readBack().containsKey("concurrent"));
+		assertEquals(1, readBack().size());
+
+		next.write(Collections.singletonList(record("concurrent", TxState.COMMITTING)));
+		next.force();
+		current.close();
+		next.discardBackupVersion();
+		next.close();
+		Map<String, PendingTransactionRecord> content = readBack();
+		assertEquals(2, content.size());
+		assertTrue(content.containsKey("checkpointed"));
+	}
+
+	@Test
+	public void testAppendToLastValidVersionKeepsDomainDictionary() throws Exception {
+		LogFile.Writer writer = file.openNewVersion();
+		writer.write(Collections.singletonList(record("before", TxState.COMMITTING)));
+		writer.force();
+		writer.discardBackupVersion();
+		writer.close();
+
+		LogReplay.Result replayed = file.replayLastValidVersion();
+		assertTrue(replayed.appendable);
+		LogFile.Writer appender = file.openLastValidVersionForAppending(replayed);
+		appender.write(Collections.singletonList(record("after", TxState.IN_DOUBT)));
+		appender.force();
+		appender.close();
+		assertEquals(1, file.lastValidSegments().size());
+		Map<String, PendingTransactionRecord> content = readBack();
+		assertEquals(2, content.size());
+		assertEquals("domain", content.get("after").recoveryDomainName);
+	}
+
+}
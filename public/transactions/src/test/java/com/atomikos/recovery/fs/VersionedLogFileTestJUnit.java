@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.fs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.atomikos.icatch.provider.ConfigProperties;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class VersionedLogFileTestJUnit {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static PendingTransactionRecord record(String id, TxState state) {
+		return new PendingTransactionRecord(id, state, 100, "domain");
+	}
+
+	private void assertRecordsSurviveCheckpointAndAppend(LogFile.Sync sync) throws Exception {
+		VersionedLogFile file = new VersionedLogFile(folder.getRoot().getPath(), "tmlog", sync);
+		LogFile.Writer writer = file.openNewVersion();
+		writer.write(Arrays.asList(record("a", TxState.COMMITTING), record("b", TxState.IN_DOUBT)));
+		writer.force();
+		writer.discardBackupVersion();
+		writer.close();
+
+		LogReplay.Result replayed = file.replayLastValidVersion();
+		assertEquals(2, replayed.liveRecords());
+		writer = file.openLastValidVersionForAppending(replayed);
+		writer.write(Collections.singletonList(record("c", TxState.COMMITTING)));
+		writer.force();
+		writer.close();
+
+		assertEquals(3, file.replayLastValidVersion().liveRecords());
+	}
+
+	@Test
+	public void testForce() throws Exception {
+		assertRecordsSurviveCheckpointAndAppend(LogFile.Sync.FORCE);
+	}
+
+	@Test
+	public void testDsync() throws Exception {
+		assertRecordsSurviveCheckpointAndAppend(LogFile.Sync.DSYNC);
+	}
+
+	@Test
+	public void testNone() throws Exception {
+		assertRecordsSurviveCheckpointAndAppend(LogFile.Sync.NONE);
+	}
+
+	@Test
+	public void testParseSync() {
+		assertEquals(LogFile.Sync.FORCE, FileSystemRepository.parseSync(ConfigProperties.LOG_SYNC_FORCE));
+		assertEquals(LogFile.Sync.DSYNC, FileSystemRepository.parseSync(ConfigProperties.LOG_SYNC_DSYNC));
+		assertEquals(LogFile.Sync.NONE, FileSystemRepository.parseSync(ConfigProperties.LOG_SYNC_NONE_FOR_TESTING));
+		assertEquals(LogFile.Sync.FORCE, FileSystemRepository.parseSync("fsync"));
+	}
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.recovery.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atomikos.icatch.config.Configuration;
+import com.atomikos.icatch.provider.ConfigProperties;
+import com.atomikos.recovery.PendingTransactionRecord;
+import com.atomikos.recovery.TxState;
+
+public class JdbcRepositoryTestJUnit {
+
+	private static int databases;
+
+	private String url;
+	private Connection keepAlive; // an in-memory database is dropped with its last connection
+	private int connectionsOpened;
+	private JdbcRepository repository;
+
+	@Before
+	public void setUp() throws Exception {
+		url = "jdbc:h2:mem:atomikoslog" + databases++;
+		keepAlive = DriverManager.getConnection(url);
+		Configuration.getConfigProperties().setProperty(ConfigProperties.JDBC_LOG_URL_PROPERTY_NAME, url);
+		repository = createRepository();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		repository.close();
+		keepAlive.close();
+	}
+
+	private JdbcRepository createRepository() {
+		return new JdbcRepository() {
+			@Override
+			Connection openConnection() throws SQLException {
+				connectionsOpened++;
+				return super.openConnection();
+			}
+		};
+	}
+
+	private static PendingTransactionRecord record(String id, TxState state) {
+		return new PendingTransactionRecord(id, state, 100, "domain");
+	}
+
+	private static PendingTransactionRecord child(String id, TxState state, String superiorId) {
+		return new PendingTransactionRecord(id, state, 100, "domain", superiorId);
+	}
+
+	private Set<String> indexes() throws SQLException {
+		Set<String> ret = new HashSet<String>();
+		try (Statement s = keepAlive.createStatement();
+			 ResultSet rs = s.executeQuery("SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES WHERE TABLE_NAME = 'ATOMIKOS_LOG'")) {
+			while (rs.next()) {
+				ret.add(rs.getString(1));
+			}
+		}
+		return ret;
+	}
+
+	private static Set<String> ids(Collection<PendingTransactionRecord> records) {
+		Set<String> ret = new HashSet<String>();
+		for (PendingTransactionRecord record : records) {
+			ret.add(record.id);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testMissingTableIsCreatedWithIndexes() throws Exception {
+		repository.init();
+		Set<String> indexes = indexes();
+		assertTrue(indexes.toString(), indexes.contains("ATOMIKOS_LOG_STATE"));
+		assertTrue(indexes.toString(), indexes.contains("ATOMIKOS_LOG_SUPERIOR"));
+		assertTrue(repository.getAllCoordinatorLogEntries().isEmpty());
+	}
+
+	@Test
+	public void testExistingTableIsKept() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(record("a", TxState.COMMITTING)));
+		repository.close();
+		repository = createRepository();
+		repository.init();
+		assertEquals(TxState.COMMITTING, repository.get("a").state);
+	}
+
+	@Test
+	public void testBatchKeepsLastRecordPerIdAndDeletesFinalRecords() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(
+				record("a", TxState.IN_DOUBT),
+				record("b", TxState.COMMITTING),
+				record("a", TxState.COMMITTING),
+				record("c", TxState.TERMINATED)));
+		assertEquals(TxState.COMMITTING, repository.get("a").state);
+		assertEquals(TxState.COMMITTING, repository.get("b").state);
+		assertNull(repository.get("c"));
+		assertEquals(2, repository.getAllCoordinatorLogEntries().size());
+	}
+
+	@Test
+	public void testBatchReplacesExistingRows() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(record("a", TxState.IN_DOUBT), child("b", TxState.IN_DOUBT, "a")));
+		repository.writeBatch(Arrays.asList(record("a", TxState.COMMITTING), record("b", TxState.TERMINATED)));
+		PendingTransactionRecord found = repository.get("a");
+		assertEquals(TxState.COMMITTING, found.state);
+		assertEquals(100, found.expires);
+		assertEquals("domain", found.recoveryDomainName);
+		assertNull(found.superiorId);
+		assertNull(repository.get("b"));
+	}
+
+	@Test
+	public void testPutIsReadableAfterReturning() throws Exception {
+		repository.init();
+		repository.put("a", child("a", TxState.COMMITTING, "parent"));
+		assertEquals("parent", repository.get("a").superiorId);
+	}
+
+	@Test
+	public void testFailedBatchIsRolledBackAndConnectionReopened() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(record("a", TxState.IN_DOUBT)));
+		StringBuilder tooLong = new StringBuilder();
+		while (tooLong.length() <= 255) {
+			tooLong.append("x");
+		}
+		try {
+			repository.writeBatch(Arrays.asList(record("a", TxState.COMMITTING), record(tooLong.toString(), TxState.COMMITTING)));
+			fail("Failure not propagated");
+		} catch (IOException expected) {
+		}
+		assertEquals(1, connectionsOpened);
+		assertEquals(TxState.IN_DOUBT, repository.get("a").state);
+		assertEquals(2, connectionsOpened);
+	}
+
+	@Test
+	public void testIndoubtLineagesSpanningSeveralQueries() throws Exception {
+		repository.init();
+		List<PendingTransactionRecord> batch = new ArrayList<PendingTransactionRecord>();
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 250; i++) {
+			batch.add(record("root" + i, TxState.IN_DOUBT));
+			batch.add(child("child" + i, TxState.COMMITTING, "root" + i));
+			expected.add("root" + i);
+			expected.add("child" + i);
+		}
+		batch.add(record("other", TxState.COMMITTING));
+		repository.writeBatch(batch);
+		assertEquals(expected, ids(repository.findAllIndoubtCoordinatorLogEntries()));
+	}
+
+	@Test
+	public void testCommittingIncludesIndoubtDescendantsThroughSuperiorsInAnyState() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(
+				record("root", TxState.COMMITTING),
+				child("child", TxState.HEUR_HAZARD, "root"),
+				child("grandchild", TxState.IN_DOUBT, "child"),
+				child("otherGrandchild", TxState.HEUR_HAZARD, "child"),
+				record("unrelated", TxState.IN_DOUBT)));
+		assertEquals(new HashSet<String>(Arrays.asList("root", "grandchild")),
+				ids(repository.findAllCommittingCoordinatorLogEntries()));
+	}
+
+	@Test
+	public void testExpiredCommittingLineagesOnlyStartAtExpiredLocalRoots() throws Exception {
+		repository.init();
+		repository.writeBatch(Arrays.asList(
+				new PendingTransactionRecord("expired", TxState.COMMITTING, 100, "domain"),
+				child("expiredChild", TxState.IN_DOUBT, "expired"),
+				new PendingTransactionRecord("notExpired", TxState.COMMITTING, 300, "domain"),
+				child("subtransaction", TxState.COMMITTING, "superior")));
+		assertEquals(new HashSet<String>(Arrays.asList("expired", "expiredChild")),
+				ids(repository.findAllExpiredCommittingLineages(200, "domain")));
+	}
+
+}
@@ -0,0 +1,467 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.timing;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.atomikos.logging.Logger;
+import com.atomikos.logging.LoggerFactory;
+
+ /**
+  * A hashed timing wheel that runs any number of (periodic) timers with a constant
+  * number of threads: one that advances the wheel, and a fixed pool that notifies
+  * the listeners. Unlike a {@link PooledAlarmTimer}, a timer costs no thread while
+  * it waits, and starting or stopping one is cheap - so it suits short-lived
+  * timers like those of each transaction.
+  * <p>
+  * Threads are only started when needed, and exit when the wheel has been idle
+  * for a while, or on {@link #shutdown()}. That way no thread keeps the class
+  * loader of an undeployed application reachable.
+  * <p>
+  * Alarms are at most one tick late, and never early. Timers have a fixed delay:
+  * the next alarm is only scheduled after the listeners returned, so the listeners
+  * of one timer never run concurrently. Listeners should not block for long,
+  * since they hold a thread of the pool meanwhile.
+  */
+
+public final class TimingWheel {
+
+	private static final Logger LOGGER = LoggerFactory.createLogger(TimingWheel.class);
+
+	private static final long DEFAULT_TICK_MILLIS = 10;
+
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	public static final TimingWheel SINGLETON = new TimingWheel(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE,
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	private final long tickNanos;
+	private final int mask;
+	private final Bucket[] buckets;
+	private final int threads;
+	private final long keepAliveNanos;
+	private volatile ThreadPoolExecutor workers;
+	private volatile int generation; // of the timers: incremented on shutdown
+
+	// handed over to the ticker thread, which alone touches the buckets
+	private final ConcurrentLinkedQueue<WheelTimer> pending = new ConcurrentLinkedQueue<WheelTimer>();
+	private final ConcurrentLinkedQueue<WheelTimer> cancelled = new ConcurrentLinkedQueue<WheelTimer>();
+
+	private final Object idleMonitor = new Object();
+	private volatile boolean idle;
+	private volatile Thread ticker;
+
+	// ticker thread only
+	private long startTime;
+	private long tick;
+	private int timersInWheel;
+
+	/**
+	 * @param tickMillis The precision of the timers.
+	 * @param wheelSize The number of buckets: rounded up to a power of two.
+	 * @param threads The number of threads to notify listeners.
+	 */
+	TimingWheel(long tickMillis, int wheelSize, int threads) {
+		this(tickMillis, wheelSize, threads, TimeUnit.SECONDS.toMillis(KEEP_ALIVE_SECONDS));
+	}
+
+	/**
+	 * @param keepAliveMillis How long threads stay around while there are no timers.
+	 */
+	TimingWheel(long tickMillis, int wheelSize, int threads, long keepAliveMillis) {
+		if (tickMillis <= 0 || wheelSize <= 0 || threads <= 0) {
+			throw new IllegalArgumentException("Invalid timing wheel: " + tickMillis + "ms, " + wheelSize + " buckets, " + threads + " threads");
+		}
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.buckets = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new Bucket();
+		}
+		this.threads = threads;
+		this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+		this.workers = createWorkers();
+	}
+
+	private ThreadPoolExecutor createWorkers() {
+		ThreadPoolExecutor ret = new ThreadPoolExecutor(threads, threads, keepAliveNanos, TimeUnit.NANOSECONDS,
+				new LinkedBlockingQueue<Runnable>(), new TimingWheelThreadFactory("Atomikos:TimingWheel-"));
+		ret.allowCoreThreadTimeOut(true); // no threads while there are no timers
+		return ret;
+	}
+
+	/**
+	 * Starts a periodic timer.
+	 *
+	 * @param timeout The delay between alarms, in milliseconds.
+	 * @param listener The listener to notify on each alarm.
+	 * @return The timer: call {@link AlarmTimer#stopTimer()} to stop it. Its
+	 * {@link Runnable#run()} method is for internal use only.
+	 */
+	public AlarmTimer schedule(long timeout, AlarmTimerListener listener) {
+		WheelTimer ret = new WheelTimer(timeout, true);
+		ret.addAlarmTimerListener(listener);
+		schedule(ret);
+		return ret;
+	}
+
+	/**
+	 * Starts a timer that raises only one alarm.
+	 *
+	 * @param timeout The delay before the alarm, in milliseconds.
+	 * @param listener The listener to notify.
+	 * @return The timer: call {@link AlarmTimer#stopTimer()} to cancel it. It
+	 * is no longer active once the alarm was raised.
+	 */
+	public AlarmTimer scheduleOnce(long timeout, AlarmTimerListener listener) {
+		WheelTimer ret = new WheelTimer(timeout, false);
+		ret.addAlarmTimerListener(listener);
+		schedule(ret);
+		return ret;
+	}
+
+	private void schedule(WheelTimer timer) {
+		timer.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timer.timeout);
+		pending.add(timer);
+		if (ticker == null) {
+			startTicker();
+		} else if (idle) {
+			synchronized (idleMonitor) {
+				idleMonitor.notifyAll();
+			}
+		}
+	}
+
+	private synchronized void startTicker() {
+		if (ticker == null) {
+			Thread thread = new TimingWheelThreadFactory("Atomikos:TimingWheel").newThread(new Runnable() {
+				@Override
+				public void run() {
+					runTicker();
+				}
+			});
+			ticker = thread;
+			thread.start();
+		}
+	}
+
+	private void runTicker() {
+		try {
+			startTime = System.nanoTime();
+			tick = 0;
+			while (waitForNextTick()) {
+				removeCancelledTimers();
+				addPendingTimers();
+				expireTimers(buckets[(int) (tick & mask)]);
+				tick++;
+			}
+		} catch (InterruptedException e) {
+			// shutdown
+			dropTimers();
+		}
+		exitTicker();
+	}
+
+	private void exitTicker() {
+		cancelled.clear(); // none are in the wheel any more
+		synchronized (this) {
+			if (ticker == Thread.currentThread()) {
+				ticker = null;
+			}
+		}
+		if (!pending.isEmpty()) {
+			startTicker(); // scheduled while exiting
+		}
+	}
+
+	/**
+	 * @return False if the ticker should exit because the wheel was idle for too long.
+	 */
+	private boolean waitForNextTick() throws InterruptedException {
+		if (timersInWheel == 0 && pending.isEmpty() && !waitForTimers()) {
+			return false;
+		}
+		long sleepNanos = startTime + tick * tickNanos - System.nanoTime();
+		while (sleepNanos > 0) {
+			LockSupport.parkNanos(this, sleepNanos);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			sleepNanos = startTime + tick * tickNanos - System.nanoTime();
+		}
+		return true;
+	}
+
+	private boolean waitForTimers() throws InterruptedException {
+		synchronized (idleMonitor) {
+			idle = true;
+			try {
+				long deadline = System.nanoTime() + keepAliveNanos;
+				while (pending.isEmpty()) {
+					long waitNanos = deadline - System.nanoTime();
+					if (waitNanos <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(idleMonitor, waitNanos);
+				}
+			} finally {
+				idle = false;
+			}
+		}
+		// the wheel is empty, so it can start over
+		startTime = System.nanoTime();
+		tick = 0;
+		return true;
+	}
+
+	private void dropTimers() {
+		for (Bucket bucket : buckets) {
+			WheelTimer timer;
+			while ((timer = bucket.head) != null) {
+				bucket.remove(timer);
+				timer.active = false;
+			}
+		}
+		timersInWheel = 0;
+		WheelTimer timer;
+		while ((timer = pending.poll()) != null) {
+			timer.active = false;
+		}
+	}
+
+	/**
+	 * Stops all threads and drops all timers, like on shutdown of the transaction
+	 * service. Listeners that are being notified still finish. A timer that is
+	 * scheduled afterwards starts the wheel again.
+	 */
+	public void shutdown() {
+		Thread thread;
+		ThreadPoolExecutor stopped;
+		synchronized (this) {
+			generation++;
+			thread = ticker;
+			stopped = workers;
+			workers = createWorkers();
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+		stopped.shutdown();
+	}
+
+	/**
+	 * @return True if the thread that advances the wheel is running (for testing).
+	 */
+	boolean isTickerRunning() {
+		return ticker != null;
+	}
+
+	private void removeCancelledTimers() {
+		WheelTimer timer;
+		while ((timer = cancelled.poll()) != null) {
+			if (timer.bucket != null) {
+				timer.bucket.remove(timer);
+				timersInWheel--;
+			}
+		}
+	}
+
+	private void addPendingTimers() {
+		WheelTimer timer;
+		while ((timer = pending.poll()) != null) {
+			if (timer.isActive()) {
+				long ticks = (timer.deadline - startTime + tickNanos - 1) / tickNanos;
+				if (ticks < tick) {
+					ticks = tick; // overdue: expire right away
+				}
+				timer.remainingRounds = (ticks - tick) / buckets.length;
+				buckets[(int) (ticks & mask)].add(timer);
+				timersInWheel++;
+			}
+		}
+	}
+
+	private void expireTimers(Bucket bucket) {
+		WheelTimer timer = bucket.head;
+		while (timer != null) {
+			WheelTimer next = timer.next;
+			if (timer.remainingRounds <= 0) {
+				bucket.remove(timer);
+				timersInWheel--;
+				notifyListeners(timer);
+			} else {
+				timer.remainingRounds--;
+			}
+			timer = next;
+		}
+	}
+
+	private void notifyListeners(WheelTimer timer) {
+		try {
+			workers.execute(timer);
+		} catch (RejectedExecutionException e) {
+			LOGGER.logWarning("Failed to notify timer listeners", e);
+		}
+	}
+
+	/**
+	 * @return The number of threads currently notifying listeners (for testing).
+	 */
+	int getWorkerThreadCount() {
+		return workers.getPoolSize();
+	}
+
+	private static class Bucket {
+
+		private WheelTimer head;
+		private WheelTimer tail;
+
+		void add(WheelTimer timer) {
+			timer.bucket = this;
+			timer.prev = tail;
+			timer.next = null;
+			if (tail == null) {
+				head = timer;
+			} else {
+				tail.next = timer;
+			}
+			tail = timer;
+		}
+
+		void remove(WheelTimer timer) {
+			if (timer.prev == null) {
+				head = timer.next;
+			} else {
+				timer.prev.next = timer.next;
+			}
+			if (timer.next == null) {
+				tail = timer.prev;
+			} else {
+				timer.next.prev = timer.prev;
+			}
+			timer.prev = null;
+			timer.next = null;
+			timer.bucket = null;
+		}
+	}
+
+	private class WheelTimer implements AlarmTimer {
+
+		private final long timeout;
+		private final boolean periodic;
+		private final int timerGeneration = generation;
+		private final List<AlarmTimerListener> listeners = new CopyOnWriteArrayList<AlarmTimerListener>();
+		private volatile boolean active = true;
+
+		private volatile long deadline;
+
+		// ticker thread only
+		private long remainingRounds;
+		private Bucket bucket;
+		private WheelTimer prev;
+		private WheelTimer next;
+
+		WheelTimer(long timeout, boolean periodic) {
+			this.timeout = timeout;
+			this.periodic = periodic;
+		}
+
+		@Override
+		public void run() {
+			if (timerGeneration != generation) {
+				active = false; // dropped on shutdown while out of the wheel
+			}
+			if (!active) {
+				return;
+			}
+			if (!periodic) {
+				active = false; // raised: nothing left to stop
+			}
+			for (AlarmTimerListener listener : listeners) {
+				if (periodic && !active) {
+					return;
+				}
+				try {
+					listener.alarm(this);
+				} catch (RuntimeException e) {
+					LOGGER.logWarning("Unexpected error in timer listener", e);
+				}
+			}
+			if (periodic && active && timerGeneration == generation) {
+				schedule(this);
+			}
+		}
+
+		@Override
+		public long getTimeout() {
+			return timeout;
+		}
+
+		@Override
+		public boolean isActive() {
+			return active;
+		}
+
+		/**
+		 * Does not wait for listeners that are being notified.
+		 */
+		@Override
+		public void stopTimer() {
+			if (active) {
+				active = false;
+				cancelled.add(this);
+			}
+		}
+
+		@Override
+		public void addAlarmTimerListener(AlarmTimerListener lstnr) {
+			listeners.add(lstnr);
+		}
+
+		@Override
+		public void removeAlarmTimerListener(AlarmTimerListener lstnr) {
+			listeners.remove(lstnr);
+		}
+	}
+
+	private static class TimingWheelThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		TimingWheelThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			String realName = name.endsWith("-") ? name + count.incrementAndGet() : name;
+			Thread thread = new Thread(r, realName);
+			thread.setContextClassLoader(getClass().getClassLoader()); //cf case 185557: avoid thread leak in Tomcat
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
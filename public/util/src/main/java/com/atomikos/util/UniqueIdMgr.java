@@ -9,6 +9,7 @@
 
 package com.atomikos.util;
 
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -21,15 +22,19 @@ package com.atomikos.util;
 public class UniqueIdMgr
 {
 
-
-	
-	private final static int MAX_COUNTER_WITHIN_SAME_MILLIS = 32000;
-	private final static int MAX_LENGTH_OF_NUMERIC_SUFFIX = String.valueOf(Long.MAX_VALUE).length() + String.valueOf(MAX_COUNTER_WITHIN_SAME_MILLIS).length();
+	// one long holds both the time and a sequence number within the same millisecond - until the year 2248
+	private final static int SEQUENCE_BITS = 20;
+	private final static long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+	// enough for the millis until the year 2286, and for the max sequence number
+	private final static int MILLIS_DIGITS = 13;
+	private final static int SEQUENCE_DIGITS = String.valueOf(MAX_SEQUENCE).length();
+	private final static int LENGTH_OF_NUMERIC_SUFFIX = MILLIS_DIGITS + SEQUENCE_DIGITS;
 
 
   
     private final String commonPartOfId; //name of server
-    private int lastcounter;
+    private final char[] commonPartOfIdAsChars;
+    private final AtomicLong lastTimeAndSequence;
   
 
     /**
@@ -41,47 +46,50 @@ public class UniqueIdMgr
     public UniqueIdMgr ( String server ) {
         super();
         commonPartOfId=getCommonPartOfId(server);
-        lastcounter = 0;
-    }
- 
-
-    //FIX FOR BUG 10104
-    private String getCountWithLeadingZeroes (int number)
-    {
-    		String ret = Long.toString ( number );
-    		int max = Long.toString(MAX_COUNTER_WITHIN_SAME_MILLIS).length();
-    		int len = ret.length();
-    		StringBuffer zeroes = new StringBuffer();
-    		
-    		while ( len < max ) {
-    			zeroes.append ( "0" );
-    			len++;
-    		}
-    		ret = zeroes.append ( ret ).toString();
-    		return ret;
+        commonPartOfIdAsChars = commonPartOfId.toCharArray();
+        lastTimeAndSequence = new AtomicLong();
     }
 
 
     /**
-     *The main way of obtaining a new UniqueId.
+     *The main way of obtaining a new UniqueId: the server name, then the
+     *time in millis and a sequence number within that millisecond, both
+     *zero-padded to a fixed width.
      *
      */
 
     public String get()
     {
-        StringBuffer buffer = new StringBuffer();
-        String id = buffer.append(commonPartOfId).
-        			  append(System.currentTimeMillis()).
-        			  append(getCountWithLeadingZeroes ( incrementAndGet() )).
-        			  toString();
-        return id;
+        long timeAndSequence = nextTimeAndSequence();
+        char[] id = new char[commonPartOfIdAsChars.length + LENGTH_OF_NUMERIC_SUFFIX];
+        System.arraycopy(commonPartOfIdAsChars, 0, id, 0, commonPartOfIdAsChars.length);
+        int end = id.length;
+        putDigits(timeAndSequence & MAX_SEQUENCE, id, end - SEQUENCE_DIGITS, end);
+        putDigits(timeAndSequence >>> SEQUENCE_BITS, id, end - LENGTH_OF_NUMERIC_SUFFIX, end - SEQUENCE_DIGITS);
+        return new String(id);
     }
 
+    /**
+     * Unique as long as the sequence number does not overflow: if more than
+     * MAX_SEQUENCE ids are needed within one millisecond, then the next
+     * millisecond is used before its time - so ids never repeat.
+     */
+	private long nextTimeAndSequence() {
+		while (true) {
+			long last = lastTimeAndSequence.get();
+			long now = System.currentTimeMillis() << SEQUENCE_BITS;
+			long next = now > last ? now : last + 1;
+			if (lastTimeAndSequence.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
 
-	private synchronized int incrementAndGet() {
-		lastcounter++;
-        if (lastcounter == MAX_COUNTER_WITHIN_SAME_MILLIS) lastcounter = 0;
-        return lastcounter;
+	private static void putDigits(long number, char[] target, int start, int end) {
+		for (int i = end - 1; i >= start; i--) {
+			target[i] = (char) ('0' + number % 10);
+			number /= 10;
+		}
 	}
 
     private static String getCommonPartOfId(String server) {
@@ -92,7 +100,7 @@ public class UniqueIdMgr
 
 	public int getMaxIdLengthInBytes() {
 		// see case 73086
-		return commonPartOfId.getBytes().length + MAX_LENGTH_OF_NUMERIC_SUFFIX;
+		return commonPartOfId.getBytes().length + LENGTH_OF_NUMERIC_SUFFIX;
 	}
 
 
@@ -16,6 +16,12 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 
  /**
@@ -43,6 +49,8 @@ public class VersionedFile
 
 	private RandomAccessFile randomAccessFile;
 
+	private FileChannel channel; // instead of randomAccessFile when opened with extra options
+
 
 	/**
 	 * Creates a new instance based on the given name parameters.
@@ -151,7 +159,7 @@ public class VersionedFile
 	public FileInputStream openLastValidVersionForReading()
 	throws IllegalStateException, FileNotFoundException
 	{
-		if ( randomAccessFile != null ) throw new IllegalStateException ( "Already started writing." );
+		if ( isWriting() ) throw new IllegalStateException ( "Already started writing." );
 		inputStream = new FileInputStream ( getCurrentVersionFileName() );
 		return inputStream;
 	}
@@ -189,11 +197,38 @@ public class VersionedFile
 	 */
 	public FileChannel openNewVersionForNioWriting() throws FileNotFoundException
 	{
-		if ( randomAccessFile != null ) throw new IllegalStateException ( "Already writing a new version." );
+		if ( isWriting() ) throw new IllegalStateException ( "Already writing a new version." );
 		version++;
 		randomAccessFile = new RandomAccessFile(getCurrentVersionFileName(), "rw");
 		return randomAccessFile.getChannel();
 	}
+
+	/**
+	 * Like {@link #openNewVersionForNioWriting()} but with extra options for the channel,
+	 * like {@link StandardOpenOption#DSYNC}.
+	 *
+	 * @param extraOptions Options in addition to create, read and write.
+	 * @return A channel for writing to.
+	 * @throws IllegalStateException If called more than once
+	 * without a close in between.
+	 * @throws IOException If the file cannot be opened for writing.
+	 */
+	public FileChannel openNewVersionForNioWriting(OpenOption... extraOptions) throws IOException
+	{
+		if ( isWriting() ) throw new IllegalStateException ( "Already writing a new version." );
+		Set<OpenOption> options = new HashSet<OpenOption>(Arrays.asList(extraOptions));
+		options.add(StandardOpenOption.CREATE);
+		options.add(StandardOpenOption.READ);
+		options.add(StandardOpenOption.WRITE);
+		version++;
+		channel = FileChannel.open(Paths.get(getCurrentVersionFileName()), options);
+		return channel;
+	}
+
+	private boolean isWriting()
+	{
+		return randomAccessFile != null || channel != null;
+	}
 	/**
 	 * Discards the backup version (if any).
 	 * After calling this method, the newer version
@@ -209,7 +244,7 @@ public class VersionedFile
 	 */
 	public void discardBackupVersion() throws IllegalStateException, IOException
 	{
-		if ( randomAccessFile == null ) throw new IllegalStateException ( "No new version yet!" );
+		if ( !isWriting() ) throw new IllegalStateException ( "No new version yet!" );
 		String fileName = getBackupVersionFileName();
 		
 		File temp = new File ( fileName );
@@ -242,6 +277,13 @@ public class VersionedFile
 				randomAccessFile = null;
 			}
 		}
+		if ( channel != null ) {
+			try {
+				channel.close();
+			} finally {
+				channel = null;
+			}
+		}
 	}
 
 	public long getSize()
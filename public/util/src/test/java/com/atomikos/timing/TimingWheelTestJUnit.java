@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2000-2024 Atomikos <info@atomikos.com>
+ *
+ * LICENSE CONDITIONS
+ *
+ * See http://www.atomikos.com/Main/WhichLicenseApplies for details.
+ */
+
+package com.atomikos.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTestJUnit {
+
+	private static final long TICK = 5;
+
+	private TimingWheel wheel;
+
+	@Before
+	public void setUp() {
+		wheel = new TimingWheel(TICK, 8, 2);
+	}
+
+	@After
+	public void tearDown() {
+		wheel.shutdown();
+	}
+
+	private static void awaitTickerStopped(TimingWheel wheel) throws InterruptedException {
+		for (int i = 0; i < 500 && wheel.isTickerRunning(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(wheel.isTickerRunning());
+	}
+
+	private static AlarmTimerListener countingListener(final AtomicInteger count) {
+		return new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				count.incrementAndGet();
+			}
+		};
+	}
+
+	@Test
+	public void testTimerFiresPeriodically() throws Exception {
+		final CountDownLatch alarms = new CountDownLatch(5);
+		final long start = System.nanoTime();
+		final List<Long> elapsed = new ArrayList<Long>();
+		AlarmTimer timer = wheel.schedule(20, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				elapsed.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				alarms.countDown();
+			}
+		});
+		assertTrue(alarms.await(5, TimeUnit.SECONDS));
+		timer.stopTimer();
+		for (int i = 0; i < 5; i++) {
+			assertTrue("Alarm " + i + " too early: " + elapsed, elapsed.get(i) >= 20 * (i + 1));
+		}
+	}
+
+	@Test
+	public void testTimerLongerThanOneRevolution() throws Exception {
+		final CountDownLatch alarm = new CountDownLatch(1);
+		long start = System.nanoTime();
+		AlarmTimer timer = wheel.schedule(10 * 8 * TICK, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				alarm.countDown();
+			}
+		});
+		assertTrue(alarm.await(5, TimeUnit.SECONDS));
+		timer.stopTimer();
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 10 * 8 * TICK);
+	}
+
+	@Test
+	public void testStoppedTimerDoesNotFire() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		AlarmTimer timer = wheel.schedule(50, countingListener(count));
+		timer.stopTimer();
+		assertFalse(timer.isActive());
+		Thread.sleep(200);
+		assertEquals(0, count.get());
+	}
+
+	@Test
+	public void testStopFromWithinListener() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		wheel.schedule(10, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				count.incrementAndGet();
+				timer.stopTimer();
+			}
+		});
+		Thread.sleep(200);
+		assertEquals(1, count.get());
+	}
+
+	@Test
+	public void testManyTimersUseFixedNumberOfThreads() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		List<AlarmTimer> timers = new ArrayList<AlarmTimer>();
+		for (int i = 0; i < 10000; i++) {
+			timers.add(wheel.schedule(20 + i % 50, countingListener(count)));
+		}
+		Thread.sleep(300);
+		assertTrue(wheel.getWorkerThreadCount() <= 2);
+		for (AlarmTimer timer : timers) {
+			timer.stopTimer();
+		}
+		assertTrue(count.get() >= 10000);
+		Thread.sleep(100); // let any running alarms finish
+		int stoppedCount = count.get();
+		Thread.sleep(200);
+		assertEquals(stoppedCount, count.get());
+	}
+
+	@Test
+	public void testScheduleOnceFiresOnce() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		AlarmTimer timer = wheel.scheduleOnce(10, countingListener(count));
+		Thread.sleep(200);
+		assertEquals(1, count.get());
+		assertFalse(timer.isActive());
+	}
+
+	@Test
+	public void testScheduleOnceCanBeCancelled() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		wheel.scheduleOnce(50, countingListener(count)).stopTimer();
+		Thread.sleep(200);
+		assertEquals(0, count.get());
+	}
+
+	@Test
+	public void testListenerExceptionDoesNotStopTimer() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		AlarmTimer timer = wheel.schedule(10, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				count.incrementAndGet();
+				throw new IllegalStateException("Simulated error");
+			}
+		});
+		Thread.sleep(200);
+		timer.stopTimer();
+		assertTrue(count.get() > 1);
+	}
+
+	@Test
+	public void testThreadsExitWhenIdleAndRestartWhenNeeded() throws Exception {
+		TimingWheel wheel = new TimingWheel(TICK, 8, 2, 50);
+		try {
+			AtomicInteger count = new AtomicInteger();
+			wheel.scheduleOnce(10, countingListener(count));
+			assertTrue(wheel.isTickerRunning());
+			awaitTickerStopped(wheel);
+			assertEquals(1, count.get());
+			for (int i = 0; i < 500 && wheel.getWorkerThreadCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, wheel.getWorkerThreadCount());
+			wheel.scheduleOnce(10, countingListener(count));
+			Thread.sleep(200);
+			assertEquals(2, count.get());
+		} finally {
+			wheel.shutdown();
+		}
+	}
+
+	@Test
+	public void testShutdownDropsTimersAndStopsTicker() throws Exception {
+		AtomicInteger count = new AtomicInteger();
+		AlarmTimer periodic = wheel.schedule(10, countingListener(count));
+		AlarmTimer once = wheel.scheduleOnce(60000, countingListener(count));
+		Thread.sleep(50);
+		wheel.shutdown();
+		awaitTickerStopped(wheel);
+		assertFalse(periodic.isActive());
+		assertFalse(once.isActive());
+		Thread.sleep(50); // let any running alarm finish
+		int countAfterShutdown = count.get();
+		Thread.sleep(100);
+		assertEquals(countAfterShutdown, count.get());
+		// usable again, like after a restart of the transaction service
+		final CountDownLatch alarm = new CountDownLatch(1);
+		wheel.scheduleOnce(10, new AlarmTimerListener() {
+			@Override
+			public void alarm(AlarmTimer timer) {
+				alarm.countDown();
+			}
+		});
+		assertTrue(alarm.await(5, TimeUnit.SECONDS));
+	}
+
+}
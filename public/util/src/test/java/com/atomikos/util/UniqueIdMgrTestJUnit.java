@@ -8,6 +8,15 @@
 
 package com.atomikos.util;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import junit.framework.TestCase;
 
 public class UniqueIdMgrTestJUnit extends TestCase {
@@ -24,4 +33,47 @@ public class UniqueIdMgrTestJUnit extends TestCase {
 		assertFalse(idmgr.get().equals(idmgr.get()));
 	}
 
+	public void testIdsHaveFixedLengthWithinMax() {
+		String first = idmgr.get();
+		assertTrue(first.startsWith("./testserver"));
+		assertEquals(idmgr.getMaxIdLengthInBytes(), first.getBytes().length);
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(first.length(), idmgr.get().length());
+		}
+	}
+
+	// so they are unique at any rate: no counter that wraps within one millisecond
+	public void testIdsAreIncreasing() {
+		String previous = idmgr.get();
+		for (int i = 0; i < 100000; i++) {
+			String next = idmgr.get();
+			assertTrue(next.compareTo(previous) > 0);
+			previous = next;
+		}
+	}
+
+	public void testIdsAreUniqueForManyThreads() throws Exception {
+		final int threads = 4;
+		final int idsPerThread = 20000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+		for (int i = 0; i < threads; i++) {
+			results.add(executor.submit(new Callable<List<String>>() {
+				public List<String> call() {
+					List<String> ret = new ArrayList<String>(idsPerThread);
+					for (int j = 0; j < idsPerThread; j++) {
+						ret.add(idmgr.get());
+					}
+					return ret;
+				}
+			}));
+		}
+		Set<String> ids = new HashSet<String>();
+		for (Future<List<String>> result : results) {
+			ids.addAll(result.get());
+		}
+		executor.shutdown();
+		assertEquals(threads * idsPerThread, ids.size());
+	}
+
 }